@@ -0,0 +1,495 @@
+package io.github.whiliang.fdfs.benchmark;
+
+import org.csource.common.Base64;
+import org.csource.common.MyException;
+import org.csource.common.NameValuePair;
+import org.csource.fastdfs.ProtoCommon;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 进程内的tracker和storage，在回环地址上按FastDFS协议应答，每次应答前等待latency
+ * <p>
+ * 只有一个组group1和一个storage，支持上传、设置元数据、下载、删除、active test，
+ * 以及appender文件的追加、修改、截断和查询文件信息。
+ * 不超过{@link #MAX_STORED_SIZE}的文件保存内容，更大的文件只记录大小，下载时返回0
+ *
+ * @author whiliang
+ */
+public class FakeFastdfsServer implements Closeable {
+
+    public static final String GROUP = "group1";
+
+    /**
+     * 超过该大小的文件不保存内容，避免压测时内存持续增长
+     */
+    private static final int MAX_STORED_SIZE = 1024 * 1024;
+
+    private static final int HEADER_LEN = 10;
+
+    private static final Base64 BASE64 = new Base64('-', '_', '.', 0);
+
+    private final long latencyNanos;
+
+    private final ServerSocket tracker;
+
+    private final ServerSocket storage;
+
+    private final Map<String, StoredFile> files = new ConcurrentHashMap<>();
+
+    private final Map<String, Map<String, String>> metadata = new ConcurrentHashMap<>();
+
+    private final Set<Socket> sockets = ConcurrentHashMap.newKeySet();
+
+    private final AtomicInteger sequence = new AtomicInteger();
+
+    private volatile boolean closed;
+
+    /**
+     * @param latencyMicros 每次应答前的等待时间（单位：微秒）
+     */
+    public FakeFastdfsServer(long latencyMicros) throws IOException {
+        this.latencyNanos = TimeUnit.MICROSECONDS.toNanos(latencyMicros);
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        this.tracker = new ServerSocket(0, 1024, loopback);
+        this.storage = new ServerSocket(0, 1024, loopback);
+        startAcceptor(tracker, true);
+        startAcceptor(storage, false);
+    }
+
+    /**
+     * tracker地址，用于spring.fastdfs.tracker-list
+     */
+    public String getTrackerAddress() {
+        return tracker.getInetAddress().getHostAddress() + ":" + tracker.getLocalPort();
+    }
+
+    /**
+     * @param content 预先放入的文件内容
+     * @return 文件ID
+     */
+    public String preload(byte[] content, String extName) {
+        String remoteFilename = newRemoteFilename(content.length, extName);
+        files.put(remoteFilename, new StoredFile(content.length, content));
+        return GROUP + "/" + remoteFilename;
+    }
+
+    /**
+     * @param size 预先放入的大文件大小，内容为0
+     * @return 文件ID
+     */
+    public String preload(long size, String extName) {
+        String remoteFilename = newRemoteFilename(size, extName);
+        files.put(remoteFilename, new StoredFile(size, null));
+        return GROUP + "/" + remoteFilename;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        tracker.close();
+        storage.close();
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+    }
+
+    private void startAcceptor(ServerSocket server, boolean isTracker) {
+        Thread acceptor = new Thread(() -> {
+            while (!closed) {
+                try {
+                    Socket socket = server.accept();
+                    socket.setTcpNoDelay(true);
+                    sockets.add(socket);
+                    Thread handler = new Thread(() -> serve(socket, isTracker), "fake-fdfs-conn");
+                    handler.setDaemon(true);
+                    handler.start();
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        }, isTracker ? "fake-fdfs-tracker" : "fake-fdfs-storage");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    private void serve(Socket socket, boolean isTracker) {
+        try (Socket s = socket) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream(), 64 * 1024));
+            OutputStream out = new BufferedOutputStream(s.getOutputStream(), 64 * 1024);
+            byte[] header = new byte[HEADER_LEN];
+            while (!closed) {
+                try {
+                    in.readFully(header);
+                } catch (EOFException e) {
+                    return;
+                }
+                long bodyLen = ProtoCommon.buff2long(header, 0);
+                byte cmd = header[8];
+                if (cmd == ProtoCommon.FDFS_PROTO_CMD_QUIT) {
+                    return;
+                }
+                if (isTracker) {
+                    handleTracker(cmd, bodyLen, in, out);
+                } else {
+                    handleStorage(cmd, bodyLen, in, out);
+                }
+                out.flush();
+            }
+        } catch (IOException e) {
+            /** 客户端断开 */
+        } finally {
+            sockets.remove(socket);
+        }
+    }
+
+    private void handleTracker(byte cmd, long bodyLen, DataInputStream in, OutputStream out) throws IOException {
+        skip(in, bodyLen);
+        byte[] body;
+        switch (cmd) {
+            case ProtoCommon.TRACKER_PROTO_CMD_SERVICE_QUERY_STORE_WITHOUT_GROUP_ONE:
+            case ProtoCommon.TRACKER_PROTO_CMD_SERVICE_QUERY_STORE_WITH_GROUP_ONE:
+            case ProtoCommon.TRACKER_PROTO_CMD_SERVICE_QUERY_STORE_WITHOUT_GROUP_ALL:
+            case ProtoCommon.TRACKER_PROTO_CMD_SERVICE_QUERY_STORE_WITH_GROUP_ALL:
+                /** 组名 + ip + 端口 + 存储路径索引 */
+                body = Arrays.copyOf(storageAddress(), ProtoCommon.TRACKER_QUERY_STORAGE_STORE_BODY_LEN);
+                break;
+            case ProtoCommon.TRACKER_PROTO_CMD_SERVICE_QUERY_FETCH_ONE:
+            case ProtoCommon.TRACKER_PROTO_CMD_SERVICE_QUERY_FETCH_ALL:
+            case ProtoCommon.TRACKER_PROTO_CMD_SERVICE_QUERY_UPDATE:
+                body = storageAddress();
+                break;
+            case ProtoCommon.FDFS_PROTO_CMD_ACTIVE_TEST:
+                body = new byte[0];
+                break;
+            default:
+                respond(out, (byte) 22, new byte[0]);
+                return;
+        }
+        respond(out, (byte) 0, body);
+    }
+
+    private void handleStorage(byte cmd, long bodyLen, DataInputStream in, OutputStream out) throws IOException {
+        switch (cmd) {
+            case ProtoCommon.STORAGE_PROTO_CMD_UPLOAD_FILE:
+            case ProtoCommon.STORAGE_PROTO_CMD_UPLOAD_APPENDER_FILE: {
+                /** 存储路径索引 + 文件大小 + 后缀名 + 文件内容 */
+                byte[] prefix = new byte[1 + ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE + ProtoCommon.FDFS_FILE_EXT_NAME_MAX_LEN];
+                in.readFully(prefix);
+                long size = ProtoCommon.buff2long(prefix, 1);
+                String extName = new String(prefix, 1 + ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE,
+                        ProtoCommon.FDFS_FILE_EXT_NAME_MAX_LEN, StandardCharsets.UTF_8).trim();
+                byte[] content = null;
+                if (size <= MAX_STORED_SIZE) {
+                    content = new byte[(int) size];
+                    in.readFully(content);
+                } else {
+                    skip(in, size);
+                }
+                /** 与FastDFS一致，appender文件名中的大小带有appender标记，实际大小需查询storage */
+                String remoteFilename = newRemoteFilename(cmd == ProtoCommon.STORAGE_PROTO_CMD_UPLOAD_APPENDER_FILE
+                        ? size | ProtoCommon.APPENDER_FILE_SIZE : size, extName);
+                files.put(remoteFilename, new StoredFile(size, content));
+                byte[] name = remoteFilename.getBytes(StandardCharsets.UTF_8);
+                byte[] body = new byte[ProtoCommon.FDFS_GROUP_NAME_MAX_LEN + name.length];
+                System.arraycopy(groupName(), 0, body, 0, ProtoCommon.FDFS_GROUP_NAME_MAX_LEN);
+                System.arraycopy(name, 0, body, ProtoCommon.FDFS_GROUP_NAME_MAX_LEN, name.length);
+                respond(out, (byte) 0, body);
+                return;
+            }
+            case ProtoCommon.STORAGE_PROTO_CMD_UPLOAD_SLAVE_FILE: {
+                /** 主文件名长度 + 文件大小 + 前缀 + 后缀名 + 主文件名 + 文件内容 */
+                byte[] prefix = new byte[2 * ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE + ProtoCommon.FDFS_FILE_PREFIX_MAX_LEN
+                        + ProtoCommon.FDFS_FILE_EXT_NAME_MAX_LEN];
+                in.readFully(prefix);
+                int masterLen = (int) ProtoCommon.buff2long(prefix, 0);
+                long size = ProtoCommon.buff2long(prefix, ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE);
+                String prefixName = new String(prefix, 2 * ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE,
+                        ProtoCommon.FDFS_FILE_PREFIX_MAX_LEN, StandardCharsets.UTF_8).trim();
+                String extName = new String(prefix, 2 * ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE + ProtoCommon.FDFS_FILE_PREFIX_MAX_LEN,
+                        ProtoCommon.FDFS_FILE_EXT_NAME_MAX_LEN, StandardCharsets.UTF_8).trim();
+                byte[] master = new byte[masterLen];
+                in.readFully(master);
+                byte[] content = null;
+                if (size <= MAX_STORED_SIZE) {
+                    content = new byte[(int) size];
+                    in.readFully(content);
+                } else {
+                    skip(in, size);
+                }
+                String masterFilename = new String(master, StandardCharsets.UTF_8);
+                String remoteFilename;
+                try {
+                    remoteFilename = ProtoCommon.genSlaveFilename(masterFilename, prefixName,
+                            extName.isEmpty() ? null : extName);
+                } catch (MyException e) {
+                    respond(out, (byte) 22, new byte[0]);
+                    return;
+                }
+                if (!files.containsKey(masterFilename)) {
+                    respond(out, ProtoCommon.ERR_NO_ENOENT, new byte[0]);
+                    return;
+                }
+                if (files.putIfAbsent(remoteFilename, new StoredFile(size, content)) != null) {
+                    respond(out, (byte) 17, new byte[0]);
+                    return;
+                }
+                byte[] name = remoteFilename.getBytes(StandardCharsets.UTF_8);
+                byte[] body = new byte[ProtoCommon.FDFS_GROUP_NAME_MAX_LEN + name.length];
+                System.arraycopy(groupName(), 0, body, 0, ProtoCommon.FDFS_GROUP_NAME_MAX_LEN);
+                System.arraycopy(name, 0, body, ProtoCommon.FDFS_GROUP_NAME_MAX_LEN, name.length);
+                respond(out, (byte) 0, body);
+                return;
+            }
+            case ProtoCommon.STORAGE_PROTO_CMD_DELETE_FILE: {
+                String remoteFilename = readFilename(in, bodyLen);
+                metadata.remove(remoteFilename);
+                respond(out, files.remove(remoteFilename) == null ? ProtoCommon.ERR_NO_ENOENT : (byte) 0, new byte[0]);
+                return;
+            }
+            case ProtoCommon.STORAGE_PROTO_CMD_DOWNLOAD_FILE: {
+                byte[] range = new byte[2 * ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE];
+                in.readFully(range);
+                String remoteFilename = readFilename(in, bodyLen - range.length);
+                StoredFile file = files.get(remoteFilename);
+                if (file == null) {
+                    respond(out, ProtoCommon.ERR_NO_ENOENT, new byte[0]);
+                    return;
+                }
+                long offset = ProtoCommon.buff2long(range, 0);
+                long length = ProtoCommon.buff2long(range, ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE);
+                long count = length == 0 ? file.size - offset : Math.min(length, file.size - offset);
+                delay();
+                out.write(ProtoCommon.packHeader(ProtoCommon.STORAGE_PROTO_CMD_RESP, count, (byte) 0));
+                writeContent(out, file, offset, count);
+                return;
+            }
+            case ProtoCommon.STORAGE_PROTO_CMD_APPEND_FILE:
+            case ProtoCommon.STORAGE_PROTO_CMD_MODIFY_FILE:
+            case ProtoCommon.STORAGE_PROTO_CMD_TRUNCATE_FILE: {
+                /** 文件名长度 + [偏移量] + 大小 + 文件名 + [文件内容] */
+                boolean modify = cmd == ProtoCommon.STORAGE_PROTO_CMD_MODIFY_FILE;
+                byte[] lens = new byte[(modify ? 3 : 2) * ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE];
+                in.readFully(lens);
+                int nameLen = (int) ProtoCommon.buff2long(lens, 0);
+                long offset = modify ? ProtoCommon.buff2long(lens, ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE) : 0;
+                long size = ProtoCommon.buff2long(lens, lens.length - ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE);
+                byte[] name = new byte[nameLen];
+                in.readFully(name);
+                String remoteFilename = new String(name, StandardCharsets.UTF_8);
+                byte[] content = new byte[0];
+                if (cmd != ProtoCommon.STORAGE_PROTO_CMD_TRUNCATE_FILE) {
+                    content = new byte[(int) size];
+                    in.readFully(content);
+                }
+                StoredFile file = files.get(remoteFilename);
+                if (file == null) {
+                    respond(out, ProtoCommon.ERR_NO_ENOENT, new byte[0]);
+                    return;
+                }
+                if (cmd == ProtoCommon.STORAGE_PROTO_CMD_TRUNCATE_FILE) {
+                    files.put(remoteFilename, new StoredFile(size,
+                            file.content == null ? null : Arrays.copyOf(file.content, (int) size)));
+                } else {
+                    files.put(remoteFilename, file.write(modify ? offset : file.size, content));
+                }
+                respond(out, (byte) 0, new byte[0]);
+                return;
+            }
+            case ProtoCommon.STORAGE_PROTO_CMD_QUERY_FILE_INFO: {
+                StoredFile file = files.get(readFilename(in, bodyLen));
+                if (file == null) {
+                    respond(out, ProtoCommon.ERR_NO_ENOENT, new byte[0]);
+                    return;
+                }
+                /** 文件大小 + 创建时间 + crc32 + 源ip */
+                byte[] body = new byte[3 * ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE + ProtoCommon.FDFS_IPADDR_SIZE];
+                System.arraycopy(ProtoCommon.long2buff(file.size), 0, body, 0, ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE);
+                System.arraycopy(ProtoCommon.long2buff(System.currentTimeMillis() / 1000), 0, body,
+                        ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE, ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE);
+                byte[] ip = storage.getInetAddress().getHostAddress().getBytes(StandardCharsets.UTF_8);
+                System.arraycopy(ip, 0, body, 3 * ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE, ip.length);
+                respond(out, (byte) 0, body);
+                return;
+            }
+            case ProtoCommon.STORAGE_PROTO_CMD_SET_METADATA: {
+                /** 文件名长度 + 元数据长度 + 操作标记 + 组名 + 文件名 + 元数据 */
+                byte[] body = new byte[(int) bodyLen];
+                in.readFully(body);
+                int nameLen = (int) ProtoCommon.buff2long(body, 0);
+                int metaLen = (int) ProtoCommon.buff2long(body, ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE);
+                byte flag = body[2 * ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE];
+                int nameOffset = 2 * ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE + 1 + ProtoCommon.FDFS_GROUP_NAME_MAX_LEN;
+                String remoteFilename = new String(body, nameOffset, nameLen, StandardCharsets.UTF_8);
+                String meta = new String(body, nameOffset + nameLen, metaLen, StandardCharsets.UTF_8);
+                if (!files.containsKey(remoteFilename)) {
+                    respond(out, ProtoCommon.ERR_NO_ENOENT, new byte[0]);
+                    return;
+                }
+                Map<String, String> merged = new LinkedHashMap<>();
+                if (flag == ProtoCommon.STORAGE_SET_METADATA_FLAG_MERGE) {
+                    merged.putAll(metadata.getOrDefault(remoteFilename, Collections.emptyMap()));
+                }
+                if (!meta.isEmpty()) {
+                    for (NameValuePair pair : ProtoCommon.split_metadata(meta)) {
+                        merged.put(pair.getName(), pair.getValue() == null ? "" : pair.getValue());
+                    }
+                }
+                metadata.put(remoteFilename, merged);
+                respond(out, (byte) 0, new byte[0]);
+                return;
+            }
+            case ProtoCommon.STORAGE_PROTO_CMD_GET_METADATA: {
+                String remoteFilename = readFilename(in, bodyLen);
+                if (!files.containsKey(remoteFilename)) {
+                    respond(out, ProtoCommon.ERR_NO_ENOENT, new byte[0]);
+                    return;
+                }
+                Map<String, String> meta = metadata.getOrDefault(remoteFilename, Collections.emptyMap());
+                NameValuePair[] metaList = new NameValuePair[meta.size()];
+                int i = 0;
+                for (Map.Entry<String, String> entry : meta.entrySet()) {
+                    metaList[i++] = new NameValuePair(entry.getKey(), entry.getValue());
+                }
+                respond(out, (byte) 0, ProtoCommon.pack_metadata(metaList).getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            case ProtoCommon.FDFS_PROTO_CMD_ACTIVE_TEST:
+                skip(in, bodyLen);
+                respond(out, (byte) 0, new byte[0]);
+                return;
+            default:
+                skip(in, bodyLen);
+                respond(out, (byte) 22, new byte[0]);
+        }
+    }
+
+    private void respond(OutputStream out, byte status, byte[] body) throws IOException {
+        delay();
+        out.write(ProtoCommon.packHeader(ProtoCommon.STORAGE_PROTO_CMD_RESP, body.length, status));
+        out.write(body);
+    }
+
+    private void delay() {
+        if (latencyNanos > 0) {
+            LockSupport.parkNanos(latencyNanos);
+        }
+    }
+
+    private static void writeContent(OutputStream out, StoredFile file, long offset, long count) throws IOException {
+        if (file.content != null) {
+            out.write(file.content, (int) offset, (int) count);
+            return;
+        }
+        byte[] zeros = new byte[64 * 1024];
+        for (long remaining = count; remaining > 0; ) {
+            int n = (int) Math.min(zeros.length, remaining);
+            out.write(zeros, 0, n);
+            remaining -= n;
+        }
+    }
+
+    /**
+     * @return 组名 + ip + 端口，共39字节
+     */
+    private byte[] storageAddress() {
+        byte[] body = new byte[ProtoCommon.TRACKER_QUERY_STORAGE_FETCH_BODY_LEN];
+        System.arraycopy(groupName(), 0, body, 0, ProtoCommon.FDFS_GROUP_NAME_MAX_LEN);
+        byte[] ip = storage.getInetAddress().getHostAddress().getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(ip, 0, body, ProtoCommon.FDFS_GROUP_NAME_MAX_LEN, ip.length);
+        byte[] port = ProtoCommon.long2buff(storage.getLocalPort());
+        System.arraycopy(port, 0, body, ProtoCommon.FDFS_GROUP_NAME_MAX_LEN + ProtoCommon.FDFS_IPADDR_SIZE - 1, port.length);
+        return body;
+    }
+
+    private static byte[] groupName() {
+        return Arrays.copyOf(GROUP.getBytes(StandardCharsets.UTF_8), ProtoCommon.FDFS_GROUP_NAME_MAX_LEN);
+    }
+
+    /**
+     * @return 组名之后的远程文件名
+     */
+    private static String readFilename(DataInputStream in, long bodyLen) throws IOException {
+        byte[] body = new byte[(int) bodyLen];
+        in.readFully(body);
+        return new String(body, ProtoCommon.FDFS_GROUP_NAME_MAX_LEN,
+                body.length - ProtoCommon.FDFS_GROUP_NAME_MAX_LEN, StandardCharsets.UTF_8);
+    }
+
+    private static void skip(DataInputStream in, long count) throws IOException {
+        for (long remaining = count; remaining > 0; ) {
+            long n = in.skip(remaining);
+            if (n <= 0) {
+                in.readByte();
+                n = 1;
+            }
+            remaining -= n;
+        }
+    }
+
+    /**
+     * @return 与FastDFS相同格式的文件名：M00/00/00/ + base64(源ip、创建时间、大小、序号) + 随机数 + 后缀名
+     */
+    private String newRemoteFilename(long size, String extName) {
+        byte[] buff = new byte[20];
+        System.arraycopy(storage.getInetAddress().getAddress(), 0, buff, 0, 4);
+        int now = (int) (System.currentTimeMillis() / 1000);
+        int seq = sequence.incrementAndGet();
+        for (int i = 0; i < 4; i++) {
+            buff[4 + i] = (byte) (now >>> (24 - 8 * i));
+            buff[16 + i] = (byte) (seq >>> (24 - 8 * i));
+        }
+        System.arraycopy(ProtoCommon.long2buff(size), 0, buff, 8, 8);
+        try {
+            String encoded = BASE64.encode(buff).substring(0, ProtoCommon.FDFS_FILENAME_BASE64_LENGTH);
+            String suffix = extName == null || extName.isEmpty() ? "" : "." + extName;
+            return String.format("M00/00/00/%s%03d%s", encoded, seq % 1000, suffix);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class StoredFile {
+
+        private final long size;
+
+        private final byte[] content;
+
+        StoredFile(long size, byte[] content) {
+            this.size = size;
+            this.content = content;
+        }
+
+        /**
+         * @return 在offset处写入data后的文件，超过{@link #MAX_STORED_SIZE}时不再保存内容
+         */
+        StoredFile write(long offset, byte[] data) {
+            long newSize = Math.max(size, offset + data.length);
+            if (content == null || newSize > MAX_STORED_SIZE) {
+                return new StoredFile(newSize, null);
+            }
+            byte[] merged = Arrays.copyOf(content, (int) newSize);
+            System.arraycopy(data, 0, merged, (int) offset, data.length);
+            return new StoredFile(newSize, merged);
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package io.github.whiliang.fdfs.benchmark;
+
+import io.github.whiliang.fdfs.FastdfsFileServiceImpl;
+import io.github.whiliang.fdfs.FastdfsProperties;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 通过进程内的tracker/storage测试文件服务：小文件上传吞吐量、大文件流式上传下载、小文件下载延迟
+ * <p>
+ * latencyMicros模拟每次应答的服务端处理时间，0时只剩客户端和回环网络的开销
+ *
+ * @author whiliang
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FileServiceBenchmark {
+
+    private static final int SMALL_FILE_SIZE = 4 * 1024;
+
+    private static final long LARGE_FILE_SIZE = 64L * 1024 * 1024;
+
+    @Param({"0", "200"})
+    public long latencyMicros;
+
+    private FakeFastdfsServer server;
+
+    private FastdfsFileServiceImpl fileService;
+
+    private byte[] smallFile;
+
+    private String smallFileId;
+
+    private String largeFileId;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        server = new FakeFastdfsServer(latencyMicros);
+        FastdfsProperties properties = new FastdfsProperties();
+        properties.setTrackerList(Collections.singletonList(server.getTrackerAddress()));
+        properties.setMinPoolSize(8);
+        properties.setMaxPoolSize(64);
+        properties.setStorageMaxPoolSize(64);
+        fileService = new FastdfsFileServiceImpl(properties);
+
+        smallFile = new byte[SMALL_FILE_SIZE];
+        new Random(42).nextBytes(smallFile);
+        smallFileId = server.preload(smallFile, "jpg");
+        largeFileId = server.preload(LARGE_FILE_SIZE, "mp4");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        server.close();
+    }
+
+    @Benchmark
+    @Threads(16)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public String uploadSmallFile() {
+        return fileService.uploadWithGroup(smallFile, FakeFastdfsServer.GROUP, "jpg");
+    }
+
+    @Benchmark
+    @Threads(16)
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public byte[] downloadSmallFile() {
+        return fileService.download(smallFileId);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public String uploadLargeFile() {
+        return fileService.upload(new ZeroInputStream(LARGE_FILE_SIZE), LARGE_FILE_SIZE, FakeFastdfsServer.GROUP, "mp4");
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public long downloadLargeFile(Blackhole blackhole) {
+        return fileService.download(largeFileId, new BlackholeOutputStream(blackhole));
+    }
+
+    /**
+     * 指定长度的全0输入流，不占用内存
+     */
+    private static class ZeroInputStream extends InputStream {
+
+        private long remaining;
+
+        ZeroInputStream(long size) {
+            this.remaining = size;
+        }
+
+        @Override
+        public int read() {
+            if (remaining <= 0) {
+                return -1;
+            }
+            remaining--;
+            return 0;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int n = (int) Math.min(len, remaining);
+            java.util.Arrays.fill(b, off, off + n, (byte) 0);
+            remaining -= n;
+            return n;
+        }
+    }
+
+    /**
+     * 把写出的数据交给Blackhole，避免被JIT优化掉
+     */
+    private static class BlackholeOutputStream extends OutputStream {
+
+        private final Blackhole blackhole;
+
+        BlackholeOutputStream(Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public void write(int b) {
+            blackhole.consume(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            blackhole.consume(b);
+            blackhole.consume(len);
+        }
+    }
+}
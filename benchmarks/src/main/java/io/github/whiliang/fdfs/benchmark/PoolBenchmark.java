@@ -0,0 +1,71 @@
+package io.github.whiliang.fdfs.benchmark;
+
+import io.github.whiliang.fdfs.FastdfsProperties;
+import io.github.whiliang.fdfs.FdfsConnectionPool;
+import org.csource.fastdfs.TrackerServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * tracker连接池在多线程竞争下的checkout/checkin开销，不发生网络交互
+ *
+ * @author whiliang
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PoolBenchmark {
+
+    /**
+     * 最大连接数，小于线程数时线程需要排队等待连接
+     */
+    @Param({"8", "64"})
+    public int maxPoolSize;
+
+    private FakeFastdfsServer server;
+
+    private FdfsConnectionPool pool;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        server = new FakeFastdfsServer(0);
+        FastdfsProperties properties = new FastdfsProperties();
+        properties.setTrackerList(Collections.singletonList(server.getTrackerAddress()));
+        properties.setMinPoolSize(maxPoolSize);
+        properties.setMaxPoolSize(maxPoolSize);
+        properties.setMaxWaitTime(30000);
+        pool = new FdfsConnectionPool(properties);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        server.close();
+    }
+
+    @Benchmark
+    @Threads(32)
+    public TrackerServer checkoutCheckin() {
+        TrackerServer trackerServer = pool.checkout("bench");
+        pool.checkin(trackerServer, "bench");
+        return trackerServer;
+    }
+}
@@ -0,0 +1,95 @@
+package io.github.whiliang.fdfs;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 异步文件服务，文件操作在独立的有界线程池中执行
+ * <p>
+ * 线程池队列已满时按spring.fastdfs.async.rejection-policy处理：
+ * ABORT返回以{@link ERRORS#EXECUTOR_REJECTED}失败的future，CALLER_RUNS在调用线程上执行
+ *
+ * @author whiliang
+ */
+public interface AsyncFastdfsFileService {
+
+    /**
+     * 上传文件到FastDFS指定group
+     *
+     * @param file    文件字节流
+     * @param group   组名
+     * @param extName 后缀名
+     * @return 文件ID
+     */
+    CompletableFuture<String> uploadWithGroup(byte[] file, String group, String extName);
+
+    /**
+     * 不指定group上传文件到FastDFS
+     *
+     * @param fileBytes 文件字节流
+     * @param extName   后缀名
+     * @return 文件ID
+     */
+    CompletableFuture<String> uploadWithoutGroup(byte[] fileBytes, String extName);
+
+    /**
+     * 以流的方式上传文件
+     *
+     * @param inputStream 文件输入流，future完成后由调用方关闭
+     * @param size        文件大小
+     * @param group       组名，为空时不指定group
+     * @param extName     后缀名
+     * @return 文件ID
+     * @see FastdfsFileService#upload(InputStream, long, String, String)
+     */
+    CompletableFuture<String> upload(InputStream inputStream, long size, String group, String extName);
+
+    /**
+     * 上传本地文件
+     *
+     * @param path    本地文件路径
+     * @param group   组名，为空时不指定group
+     * @param extName 后缀名
+     * @return 文件ID
+     * @see FastdfsFileService#upload(Path, String, String)
+     */
+    CompletableFuture<String> upload(Path path, String group, String extName);
+
+    /**
+     * 文件下载
+     *
+     * @param fileId 文件ID
+     * @return 字节流
+     */
+    CompletableFuture<byte[]> download(String fileId);
+
+    /**
+     * 文件下载，数据直接写入输出流
+     *
+     * @param fileId       文件ID
+     * @param outputStream 输出流，future完成后由调用方关闭
+     * @return 写出的字节数
+     */
+    CompletableFuture<Long> download(String fileId, OutputStream outputStream);
+
+    /**
+     * 分段下载
+     *
+     * @param fileId       文件ID
+     * @param offset       起始位置
+     * @param length       下载字节数，0表示下载到文件末尾
+     * @param outputStream 输出流，future完成后由调用方关闭
+     * @return 写出的字节数
+     */
+    CompletableFuture<Long> download(String fileId, long offset, long length, OutputStream outputStream);
+
+    /**
+     * 删除FastDFS指定的文件
+     *
+     * @param fileId 文件ID
+     * @return 删除完成
+     */
+    CompletableFuture<Void> delete(String fileId);
+}
@@ -0,0 +1,94 @@
+package io.github.whiliang.fdfs;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 异步文件服务，委托同步的{@link FastdfsFileService}在独立线程池中执行
+ *
+ * @author whiliang
+ */
+public class AsyncFastdfsFileServiceImpl implements AsyncFastdfsFileService {
+
+    /**
+     * 同步文件服务
+     */
+    private final FastdfsFileService fastdfsFileService;
+
+    /**
+     * 文件操作线程池
+     */
+    private final ExecutorService executor;
+
+    public AsyncFastdfsFileServiceImpl(FastdfsFileService fastdfsFileService, ExecutorService executor) {
+        this.fastdfsFileService = fastdfsFileService;
+        this.executor = executor;
+    }
+
+    @Override
+    public CompletableFuture<String> uploadWithGroup(byte[] file, String group, String extName) {
+        return submit(() -> fastdfsFileService.uploadWithGroup(file, group, extName));
+    }
+
+    @Override
+    public CompletableFuture<String> uploadWithoutGroup(byte[] fileBytes, String extName) {
+        return submit(() -> fastdfsFileService.uploadWithoutGroup(fileBytes, extName));
+    }
+
+    @Override
+    public CompletableFuture<String> upload(InputStream inputStream, long size, String group, String extName) {
+        return submit(() -> fastdfsFileService.upload(inputStream, size, group, extName));
+    }
+
+    @Override
+    public CompletableFuture<String> upload(Path path, String group, String extName) {
+        return submit(() -> fastdfsFileService.upload(path, group, extName));
+    }
+
+    @Override
+    public CompletableFuture<byte[]> download(String fileId) {
+        return submit(() -> fastdfsFileService.download(fileId));
+    }
+
+    @Override
+    public CompletableFuture<Long> download(String fileId, OutputStream outputStream) {
+        return submit(() -> fastdfsFileService.download(fileId, outputStream));
+    }
+
+    @Override
+    public CompletableFuture<Long> download(String fileId, long offset, long length, OutputStream outputStream) {
+        return submit(() -> fastdfsFileService.download(fileId, offset, length, outputStream));
+    }
+
+    @Override
+    public CompletableFuture<Void> delete(String fileId) {
+        return submit(() -> {
+            fastdfsFileService.delete(fileId);
+            return null;
+        });
+    }
+
+    /**
+     * @Description: 关闭线程池，等待已提交的任务完成
+     */
+    public void shutdown() throws InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination(30, TimeUnit.SECONDS);
+    }
+
+    private <T> CompletableFuture<T> submit(Supplier<T> task) {
+        try {
+            return CompletableFuture.supplyAsync(task, executor);
+        } catch (RejectedExecutionException e) {
+            CompletableFuture<T> future = new CompletableFuture<>();
+            future.completeExceptionally(ERRORS.EXECUTOR_REJECTED.ERROR());
+            return future;
+        }
+    }
+}
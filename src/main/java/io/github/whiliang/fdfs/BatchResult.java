@@ -0,0 +1,57 @@
+package io.github.whiliang.fdfs;
+
+/**
+ * 批量操作中单个文件的结果
+ *
+ * @author whiliang
+ */
+public class BatchResult<T> {
+
+    /**
+     * 在请求中的位置
+     */
+    private final int index;
+    /**
+     * 成功时的结果，上传为文件ID，删除为被删除的文件ID，读取元数据为元数据
+     */
+    private final T value;
+    /**
+     * 失败时的异常
+     */
+    private final FastdfsException error;
+
+    private BatchResult(int index, T value, FastdfsException error) {
+        this.index = index;
+        this.value = value;
+        this.error = error;
+    }
+
+    public static <T> BatchResult<T> success(int index, T value) {
+        return new BatchResult<>(index, value, null);
+    }
+
+    public static <T> BatchResult<T> failure(int index, FastdfsException error) {
+        return new BatchResult<>(index, null, error);
+    }
+
+    public boolean isSuccess() {
+        return error == null;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public T getValue() {
+        return value;
+    }
+
+    public FastdfsException getError() {
+        return error;
+    }
+
+    @Override
+    public String toString() {
+        return isSuccess() ? "BatchResult[" + index + "]: " + value : "BatchResult[" + index + "]: " + error;
+    }
+}
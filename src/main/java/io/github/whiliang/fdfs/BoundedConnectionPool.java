@@ -0,0 +1,651 @@
+package io.github.whiliang.fdfs;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * 有界连接池
+ * <p>
+ * 1).公平信号量限制同时借出的连接数，等待的线程按FIFO顺序获得连接，连接总数不会超过maxPoolSize；
+ * 2).空闲连接放在双端队列中，最近归还的在队首，队尾的连接超过最大空闲时间后被回收；
+ * 3).借用、归还都不加锁；
+ * 4).连接由后台connector线程创建，空闲连接少于lowWaterMark时预先补充到spareConnections个，
+ * 借用线程只在空闲队列上按自己的截止时间等待，不会在调用线程上建立TCP连接；
+ * 5).借出前检测超过skipWindow未确认可用的连接，超过maxLifetime的连接归还时关闭，后台检测每次只取出一个空闲连接；
+ * 6).记录借出的连接，超过leakDetectionThreshold未归还时记录日志，超过abandonedTimeout时强制关闭并释放许可，
+ * 被回收的连接再归还时只关闭socket，不会重复释放许可
+ *
+ * @author whiliang
+ */
+public class BoundedConnectionPool<T extends PooledConnection> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BoundedConnectionPool.class);
+
+    /**
+     * 连接池名称，用于日志
+     */
+    private final String name;
+    /**
+     * 借用许可，数量为最大连接数
+     */
+    private final Semaphore permits;
+    /**
+     * 空闲连接，最近归还的在队首
+     */
+    private final LinkedBlockingDeque<T> idle = new LinkedBlockingDeque<>();
+    /**
+     * 当前创建的连接数
+     */
+    private final AtomicInteger total = new AtomicInteger();
+    /**
+     * 最大连接数
+     */
+    private final int maxPoolSize;
+    /**
+     * 连接工厂
+     */
+    private final ConnectionFactory<T> factory;
+    /**
+     * 后台建连线程
+     */
+    private final ScheduledExecutorService connector;
+    /**
+     * 预先准备的空闲连接数
+     */
+    private final int spareConnections;
+    /**
+     * 空闲连接低于该值时开始补充
+     */
+    private final int lowWaterMark;
+    /**
+     * 同时执行的补充任务上限
+     */
+    private final int maxGrowers;
+    /**
+     * 正在执行的补充任务数
+     */
+    private final AtomicInteger growers = new AtomicInteger();
+    /**
+     * 正在创建的连接数
+     */
+    private final AtomicInteger creating = new AtomicInteger();
+    /**
+     * 持有许可、等待新连接的线程数
+     */
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    /**
+     * 借出的连接及借出信息
+     */
+    private final ConcurrentHashMap<T, Checkout> checkedOut = new ConcurrentHashMap<>();
+    /**
+     * 借出超过该时间记录疑似泄漏（单位：毫秒），0表示不检测
+     */
+    private volatile long leakDetectionThreshold;
+    /**
+     * 借出超过该时间强制回收（单位：毫秒），0表示不回收
+     */
+    private volatile long abandonedTimeout;
+    /**
+     * 借出时是否记录调用栈
+     */
+    private volatile boolean leakStackTrace;
+
+    /**
+     * 累计创建的连接数
+     */
+    private final LongAdder created = new LongAdder();
+    /**
+     * 累计强制回收的连接数
+     */
+    private final LongAdder abandoned = new LongAdder();
+    /**
+     * 累计关闭的连接数
+     */
+    private final LongAdder destroyed = new LongAdder();
+    /**
+     * 指标记录
+     */
+    private volatile FastdfsMetrics metrics = FastdfsMetrics.NOOP;
+    /**
+     * 是否已关闭，关闭后不再借出和补充连接
+     */
+    private volatile boolean closed;
+    /**
+     * 连接检测，为空时不检测
+     */
+    private volatile ConnectionTester<T> tester;
+    /**
+     * 是否在借出前检测
+     */
+    private volatile boolean testOnBorrow;
+    /**
+     * 距上次确认可用不超过该时间的连接借出前不检测（单位：毫秒）
+     */
+    private volatile long skipWindow;
+    /**
+     * 连接最大存活时间（单位：毫秒），0表示不限制
+     */
+    private volatile long maxLifetime;
+
+    /**
+     * 创建连接失败后重试间隔（单位：毫秒）
+     */
+    private static final long RETRY_DELAY = 1000;
+
+    /**
+     * @param connector        后台建连线程
+     * @param maxGrowers       同时为该连接池建连的线程数上限
+     * @param spareConnections 预先准备的空闲连接数
+     * @param lowWaterMark     空闲连接低于该值时开始补充
+     */
+    public BoundedConnectionPool(String name, int maxPoolSize, ConnectionFactory<T> factory,
+                                 ScheduledExecutorService connector, int maxGrowers,
+                                 int spareConnections, int lowWaterMark) {
+        this.name = name;
+        this.maxPoolSize = maxPoolSize;
+        this.permits = new Semaphore(maxPoolSize, true);
+        this.factory = factory;
+        this.connector = connector;
+        this.maxGrowers = Math.max(maxGrowers, 1);
+        this.spareConnections = Math.min(spareConnections, maxPoolSize);
+        this.lowWaterMark = Math.min(lowWaterMark, this.spareConnections);
+    }
+
+    /**
+     * @param count 连接数
+     * @Description: 在当前线程上创建初始连接，用于连接池初始化
+     */
+    public void prefill(OperationId logId, int count) {
+        for (int i = 0; i < count; i++) {
+            T connection = reserveAndCreate(logId);
+            if (connection == null) {
+                break;
+            }
+            idle.offerLast(connection);
+        }
+        grow();
+    }
+
+    /**
+     * @param maxWaitTime 最大等待时间（单位：毫秒）
+     * @return 连接
+     * @throws FastdfsException
+     * @Description: 借用连接 1).在maxWaitTime内按FIFO顺序等待许可；2).优先复用最近归还的空闲连接；
+     * 3).没有空闲连接时通知connector建连，在剩余时间内等待空闲队列
+     */
+    public T borrow(OperationId logId, long maxWaitTime) throws FastdfsException {
+        long start = System.nanoTime();
+        T connection = null;
+        try {
+            connection = acquire(logId, maxWaitTime, start + TimeUnit.MILLISECONDS.toNanos(maxWaitTime));
+            return connection;
+        } finally {
+            metrics.recordCheckout(this, System.nanoTime() - start, connection != null);
+        }
+    }
+
+    private T acquire(OperationId logId, long maxWaitTime, long deadline) throws FastdfsException {
+        if (closed) {
+            throw ERRORS.POOL_CLOSED.ERROR();
+        }
+        try {
+            if (!permits.tryAcquire(maxWaitTime, TimeUnit.MILLISECONDS)) {
+                LOGGER.error("[获取空闲连接(borrow)-error][{}][{}][error:获取连接超时（{}ms）]", name, logId, maxWaitTime);
+                throw ERRORS.WAIT_IDLECONNECTION_TIMEOUT.ERROR();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw ERRORS.WAIT_IDLECONNECTION_TIMEOUT.ERROR();
+        }
+
+        T connection;
+        do {
+            connection = idle.pollFirst();
+            if (connection == null) {
+                waiting.incrementAndGet();
+                try {
+                    grow();
+                    connection = idle.pollFirst(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    waiting.decrementAndGet();
+                }
+                if (connection == null) {
+                    permits.release();
+                    LOGGER.error("[获取空闲连接(borrow)-error][{}][{}][error:等待新建连接超时（{}ms）]", name, logId, maxWaitTime);
+                    throw ERRORS.WAIT_IDLECONNECTION_TIMEOUT.ERROR();
+                }
+            }
+        } while (!usable(logId, connection));
+        checkedOut.put(connection, new Checkout(logId, leakStackTrace));
+        if (idle.size() < lowWaterMark) {
+            grow();
+        }
+        return connection;
+    }
+
+    /**
+     * @return 连接是否可以借出，不可用的连接被关闭
+     */
+    private boolean usable(OperationId logId, T connection) {
+        long now = System.currentTimeMillis();
+        boolean valid;
+        if (expired(connection, now)) {
+            valid = false;
+        } else if (testOnBorrow && tester != null && now - connection.getLastValidatedTime() > skipWindow) {
+            valid = test(connection);
+        } else {
+            return true;
+        }
+        if (!valid) {
+            LOGGER.info("[借出前检测(borrow)][{}][{}][连接已不可用或超过最大存活时间，关闭后重新获取]", name, logId);
+            close(logId, connection);
+            grow();
+        }
+        return valid;
+    }
+
+    private boolean expired(T connection, long now) {
+        return maxLifetime > 0 && now - connection.getCreatedTime() >= maxLifetime;
+    }
+
+    private boolean test(T connection) {
+        try {
+            if (tester.test(connection)) {
+                connection.markValidated();
+                return true;
+            }
+        } catch (IOException | RuntimeException e) {
+            LOGGER.info("[检测连接(test)][{}][异常：{}]", name, e.toString());
+        }
+        return false;
+    }
+
+    /**
+     * @Description: 归还连接，放回空闲队列队首
+     */
+    public void release(T connection) {
+        if (!returned(connection)) {
+            return;
+        }
+        if (closed || expired(connection, System.currentTimeMillis())) {
+            /** 连接池已关闭或超过最大存活时间，关闭后由connector补充新连接 */
+            discard(OperationIds.next(), connection);
+            return;
+        }
+        connection.touch();
+        idle.offerFirst(connection);
+        permits.release();
+        if (closed && idle.removeFirstOccurrence(connection)) {
+            /** 与shutdown同时归还的连接 */
+            close(OperationIds.next(), connection);
+        }
+    }
+
+    /**
+     * @Description: 关闭不可用的连接，释放其占用的许可
+     */
+    public void invalidate(OperationId logId, T connection) {
+        if (returned(connection)) {
+            discard(logId, connection);
+        }
+    }
+
+    private void discard(OperationId logId, T connection) {
+        close(logId, connection);
+        permits.release();
+        grow();
+    }
+
+    /**
+     * @return 连接是否由本池借出且尚未归还；已被强制回收或重复归还时关闭socket并返回false
+     */
+    private boolean returned(T connection) {
+        if (checkedOut.remove(connection) != null) {
+            return true;
+        }
+        LOGGER.error("[归还连接(release)-error][{}][连接已被强制回收或重复归还，忽略]", name);
+        try {
+            connection.close();
+        } catch (IOException e) {
+            LOGGER.info("[关闭连接(close)][{}][异常：{}]", name, e.toString());
+        }
+        return false;
+    }
+
+    /**
+     * @param leakDetectionThreshold 借出超过该时间记录疑似泄漏（单位：毫秒），0表示不检测
+     * @param abandonedTimeout       借出超过该时间强制回收（单位：毫秒），0表示不回收
+     * @param leakStackTrace         借出时是否记录调用栈
+     */
+    public void setLeakDetection(long leakDetectionThreshold, long abandonedTimeout, boolean leakStackTrace) {
+        this.leakDetectionThreshold = leakDetectionThreshold;
+        this.abandonedTimeout = abandonedTimeout;
+        this.leakStackTrace = leakStackTrace;
+    }
+
+    /**
+     * @Description: 检查借出的连接，超过leakDetectionThreshold的记录一次日志；超过abandonedTimeout的关闭连接、释放许可，
+     * 正在使用该连接的线程会收到IO异常
+     */
+    public void checkLeaks(OperationId logId) {
+        long threshold = leakDetectionThreshold;
+        long timeout = abandonedTimeout;
+        if (threshold <= 0 && timeout <= 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        int reclaimed = 0;
+        for (Map.Entry<T, Checkout> entry : checkedOut.entrySet()) {
+            Checkout checkout = entry.getValue();
+            long age = now - checkout.time;
+            if (timeout > 0 && age >= timeout) {
+                if (checkedOut.remove(entry.getKey(), checkout)) {
+                    LOGGER.error("[回收泄漏连接(checkLeaks)][{}][{}][借出logId:{},线程:{},已借出{}ms，强制关闭]",
+                            name, logId, checkout.logId, checkout.thread, age, checkout.stackTrace);
+                    abandoned.increment();
+                    discard(logId, entry.getKey());
+                    reclaimed++;
+                }
+            } else if (threshold > 0 && age >= threshold && checkout.reported.compareAndSet(false, true)) {
+                LOGGER.warn("[疑似连接泄漏(checkLeaks)][{}][{}][借出logId:{},线程:{},已借出{}ms]",
+                        name, logId, checkout.logId, checkout.thread, age, checkout.stackTrace);
+            }
+        }
+        if (reclaimed > 0) {
+            LOGGER.error("[回收泄漏连接(checkLeaks)][{}][{}][强制回收{}个连接]", name, logId, reclaimed);
+        }
+    }
+
+    /**
+     * @Description: 需要补充连接时提交补充任务，同时执行的任务不超过maxGrowers个
+     */
+    private void grow() {
+        int n;
+        do {
+            n = growers.get();
+            if (n >= maxGrowers || !needsGrowth()) {
+                return;
+            }
+        } while (!growers.compareAndSet(n, n + 1));
+        try {
+            connector.execute(this::replenish);
+        } catch (RejectedExecutionException e) {
+            growers.decrementAndGet();
+        }
+    }
+
+    /**
+     * @Description: 在connector线程上补充连接，直到空闲和正在创建的连接满足等待线程数与spareConnections，或连接数达到上限
+     */
+    private void replenish() {
+        OperationId logId = OperationIds.next();
+        boolean failed = false;
+        try {
+            while (needsGrowth()) {
+                T connection = reserveAndCreate(logId);
+                if (connection == null) {
+                    failed = total.get() < maxPoolSize;
+                    break;
+                }
+                idle.offerLast(connection);
+            }
+        } finally {
+            growers.decrementAndGet();
+        }
+        if (failed) {
+            /** 建连失败，稍后重试，等待的线程按各自的截止时间超时 */
+            try {
+                connector.schedule(this::grow, RETRY_DELAY, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                LOGGER.info("[补充连接(replenish)][{}][{}][connector已关闭]", name, logId);
+            }
+        } else {
+            grow();
+        }
+    }
+
+    private boolean needsGrowth() {
+        return !closed && total.get() < maxPoolSize
+                && idle.size() + creating.get() < Math.max(waiting.get(), spareConnections);
+    }
+
+    /**
+     * @return 新连接，连接数已达上限或创建失败时返回null
+     */
+    private T reserveAndCreate(OperationId logId) {
+        int n;
+        do {
+            n = total.get();
+            if (n >= maxPoolSize) {
+                return null;
+            }
+        } while (!total.compareAndSet(n, n + 1));
+        creating.incrementAndGet();
+        try {
+            T connection = factory.create(logId);
+            created.increment();
+            return connection;
+        } catch (IOException | RuntimeException e) {
+            total.decrementAndGet();
+            LOGGER.error("[创建连接(create)-error][{}][{}][异常：{}]", name, logId, e);
+            return null;
+        } finally {
+            creating.decrementAndGet();
+        }
+    }
+
+    /**
+     * @param minPoolSize 保留的最小连接数
+     * @param maxIdleTime 最大空闲时间（单位：毫秒）
+     * @Description: 从队尾回收超过最大空闲时间的连接，同时保留spareConnections个空闲连接
+     */
+    public void evictIdle(OperationId logId, int minPoolSize, long maxIdleTime) {
+        long deadline = System.currentTimeMillis() - maxIdleTime;
+        Iterator<T> it = idle.descendingIterator();
+        while (it.hasNext() && total.get() > minPoolSize && idle.size() > spareConnections) {
+            T connection = it.next();
+            if (connection.getLastUsedTime() < deadline && idle.removeLastOccurrence(connection)) {
+                close(logId, connection);
+            }
+        }
+    }
+
+    /**
+     * @param filter 返回true的空闲连接被关闭
+     * @Description: 关闭满足条件的空闲连接，例如连到已摘除节点的连接，并按需补充
+     */
+    public void evictIdleIf(OperationId logId, Predicate<T> filter) {
+        for (T connection : idle) {
+            if (filter.test(connection) && idle.removeFirstOccurrence(connection)) {
+                close(logId, connection);
+            }
+        }
+        grow();
+    }
+
+    /**
+     * @param tester       检测方法，返回false或抛出异常表示连接不可用
+     * @param testOnBorrow 是否在借出前检测
+     * @param skipWindow   距上次确认可用不超过该时间的连接不检测（单位：毫秒）
+     * @param maxLifetime  连接最大存活时间（单位：毫秒），0表示不限制
+     */
+    public void setValidation(ConnectionTester<T> tester, boolean testOnBorrow, long skipWindow, long maxLifetime) {
+        this.tester = tester;
+        this.testOnBorrow = testOnBorrow;
+        this.skipWindow = skipWindow;
+        this.maxLifetime = maxLifetime;
+    }
+
+    /**
+     * @Description: 检测超过skipWindow未确认可用的空闲连接，关闭不可用和超过最大存活时间的连接；
+     * 每次只从空闲队列中取出正在检测的一个连接，不占用许可，其余连接照常借出
+     */
+    public void validateIdle(OperationId logId) {
+        ConnectionTester<T> tester = this.tester;
+        if (tester == null && maxLifetime <= 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        int closed = 0;
+        for (T connection : idle) {
+            boolean expired = expired(connection, now);
+            if (!expired && (tester == null || now - connection.getLastValidatedTime() <= skipWindow)) {
+                continue;
+            }
+            if (!idle.removeFirstOccurrence(connection)) {
+                /** 已被借出 */
+                continue;
+            }
+            if (!expired && test(connection)) {
+                idle.offerLast(connection);
+            } else {
+                close(logId, connection);
+                closed++;
+            }
+        }
+        if (closed > 0) {
+            LOGGER.info("[检测空闲连接(validateIdle)][{}][{}][关闭{}个不可用或超过最大存活时间的连接]", name, logId, closed);
+            grow();
+        }
+    }
+
+    /**
+     * @Description: 关闭连接池，立即关闭空闲连接，借出的连接归还时关闭，之后借用连接抛出POOL_CLOSED
+     */
+    public void shutdown(OperationId logId) {
+        closed = true;
+        int count = 0;
+        for (T connection; (connection = idle.pollFirst()) != null; count++) {
+            close(logId, connection);
+        }
+        LOGGER.info("[关闭连接池(shutdown)][{}][{}][关闭{}个空闲连接，{}个借出的连接归还时关闭]",
+                name, logId, count, checkedOut.size());
+    }
+
+    private void close(OperationId logId, T connection) {
+        total.decrementAndGet();
+        destroyed.increment();
+        try {
+            connection.close();
+        } catch (IOException e) {
+            LOGGER.info("[关闭连接(close)][{}][{}][异常：{}]", name, logId, e);
+        }
+    }
+
+    /**
+     * 当前创建的连接数
+     */
+    public int getTotal() {
+        return total.get();
+    }
+
+    /**
+     * 空闲连接数
+     */
+    public int getIdle() {
+        return idle.size();
+    }
+
+    /**
+     * 借出的连接数
+     */
+    public int getActive() {
+        return maxPoolSize - permits.availablePermits();
+    }
+
+    /**
+     * 等待连接的线程数，包括等待许可的线程和持有许可、等待connector新建连接的线程
+     */
+    public int getPending() {
+        return permits.getQueueLength() + waiting.get();
+    }
+
+    public int getMaxPoolSize() {
+        return maxPoolSize;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * 累计创建的连接数
+     */
+    public long getCreatedCount() {
+        return created.sum();
+    }
+
+    /**
+     * 累计关闭的连接数
+     */
+    public long getDestroyedCount() {
+        return destroyed.sum();
+    }
+
+    /**
+     * 累计强制回收的泄漏连接数
+     */
+    public long getAbandonedCount() {
+        return abandoned.sum();
+    }
+
+    public void setMetrics(FastdfsMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * 借出信息
+     */
+    private static class Checkout {
+
+        private final long time = System.currentTimeMillis();
+
+        private final OperationId logId;
+
+        private final String thread = Thread.currentThread().getName();
+        /**
+         * 借出位置，未开启leakStackTrace时为null
+         */
+        private final Throwable stackTrace;
+        /**
+         * 是否已记录疑似泄漏日志
+         */
+        private final AtomicBoolean reported = new AtomicBoolean();
+
+        Checkout(OperationId logId, boolean captureStackTrace) {
+            this.logId = logId;
+            this.stackTrace = captureStackTrace ? new Throwable("连接借出位置") : null;
+        }
+    }
+
+    /**
+     * 连接工厂
+     */
+    public interface ConnectionFactory<T> {
+        T create(OperationId logId) throws IOException;
+    }
+
+    /**
+     * 连接检测
+     */
+    public interface ConnectionTester<T> {
+        boolean test(T connection) throws IOException;
+    }
+}
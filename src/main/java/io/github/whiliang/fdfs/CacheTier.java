@@ -0,0 +1,22 @@
+package io.github.whiliang.fdfs;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 下载缓存的内存层
+ *
+ * @author whiliang
+ */
+interface CacheTier {
+
+    ByteBuffer get(String fileId);
+
+    void put(String fileId, ByteBuffer content);
+
+    void invalidate(String fileId);
+
+    /**
+     * 缓存的字节数
+     */
+    long weight();
+}
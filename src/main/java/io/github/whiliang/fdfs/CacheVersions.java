@@ -0,0 +1,46 @@
+package io.github.whiliang.fdfs;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 缓存项的版本号，防止与移除并发的加载把旧内容写回缓存
+ * <p>
+ * 1).加载前取得version，移除时先增加版本号再移除缓存项；
+ * 2).写入缓存前后各检查一次版本号，写入前已变化时不写入，写入后才变化时移除刚写入的项；
+ * 3).版本号按文件ID的hash分段保存，占用内存固定，同一分段的其它文件被移除时只会少写入一次缓存
+ *
+ * @author whiliang
+ */
+final class CacheVersions {
+
+    private static final int STRIPES = 4096;
+
+    private final AtomicLongArray versions = new AtomicLongArray(STRIPES);
+
+    /**
+     * @return 加载前调用，作为changed的参数
+     */
+    long version(String key) {
+        return versions.get(stripe(key));
+    }
+
+    /**
+     * @param version 加载前取得的版本号
+     * @return 加载期间是否有移除
+     */
+    boolean changed(String key, long version) {
+        return versions.get(stripe(key)) != version;
+    }
+
+    /**
+     * @Description: 移除缓存项前调用
+     */
+    void increment(String key) {
+        versions.incrementAndGet(stripe(key));
+    }
+
+    private static int stripe(String key) {
+        int h = key.hashCode();
+        return (h ^ (h >>> 16)) & (STRIPES - 1);
+    }
+}
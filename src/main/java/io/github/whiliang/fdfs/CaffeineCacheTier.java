@@ -0,0 +1,50 @@
+package io.github.whiliang.fdfs;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 基于Caffeine的W-TinyLFU缓存，只在classpath中存在Caffeine时加载
+ *
+ * @author whiliang
+ */
+class CaffeineCacheTier implements CacheTier {
+
+    private final Cache<String, ByteBuffer> cache;
+
+    CaffeineCacheTier(long maxSize, LongAdder evictions) {
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maxSize)
+                .weigher((String fileId, ByteBuffer content) -> content.capacity())
+                .executor(Runnable::run)
+                .removalListener((String fileId, ByteBuffer content, com.github.benmanes.caffeine.cache.RemovalCause cause) -> {
+                    if (cause.wasEvicted()) {
+                        evictions.increment();
+                    }
+                })
+                .build();
+    }
+
+    @Override
+    public ByteBuffer get(String fileId) {
+        return cache.getIfPresent(fileId);
+    }
+
+    @Override
+    public void put(String fileId, ByteBuffer content) {
+        cache.put(fileId, content);
+    }
+
+    @Override
+    public void invalidate(String fileId) {
+        cache.invalidate(fileId);
+    }
+
+    @Override
+    public long weight() {
+        return cache.policy().eviction().map(eviction -> eviction.weightedSize().orElse(0L)).orElse(0L);
+    }
+}
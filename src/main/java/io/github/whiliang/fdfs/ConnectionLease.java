@@ -0,0 +1,83 @@
+package io.github.whiliang.fdfs;
+
+import java.util.function.BiConsumer;
+
+/**
+ * 连接租约，配合try-with-resources使用，保证每条路径都归还或丢弃连接
+ * <p>
+ * 1).请求与应答完整结束、连接可以复用时调用markReusable，close时归还连接；
+ * 2).未调用markReusable时（网络异常、运行时异常、写出失败等）close时丢弃连接，不会把状态未知的连接放回连接池；
+ * 3).close可以重复调用，只有第一次生效
+ *
+ * <pre>
+ * try (ConnectionLease&lt;TrackerServer&gt; lease = connectionPool.lease(logId, deadline)) {
+ *     StorageServer storage = tracker.getStoreStorage(lease.get());
+ *     lease.markReusable();
+ * }
+ * </pre>
+ *
+ * @author whiliang
+ */
+public final class ConnectionLease<T> implements AutoCloseable {
+
+    private final T connection;
+
+    private final OperationId logId;
+    /**
+     * 归还连接
+     */
+    private final BiConsumer<T, OperationId> release;
+    /**
+     * 丢弃连接
+     */
+    private final BiConsumer<T, OperationId> drop;
+
+    private boolean reusable;
+
+    private boolean closed;
+
+    ConnectionLease(T connection, OperationId logId, BiConsumer<T, OperationId> release, BiConsumer<T, OperationId> drop) {
+        this.connection = connection;
+        this.logId = logId;
+        this.release = release;
+        this.drop = drop;
+    }
+
+    public T get() {
+        if (closed) {
+            throw new IllegalStateException("Connection lease is closed.");
+        }
+        return connection;
+    }
+
+    /**
+     * @Description: 标记连接可以复用，close时归还连接池
+     */
+    public void markReusable() {
+        this.reusable = true;
+    }
+
+    /**
+     * @Description: 标记连接不可复用，close时丢弃
+     */
+    public void markBroken() {
+        this.reusable = false;
+    }
+
+    public boolean isReusable() {
+        return reusable;
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (reusable) {
+            release.accept(connection, logId);
+        } else {
+            drop.accept(connection, logId);
+        }
+    }
+}
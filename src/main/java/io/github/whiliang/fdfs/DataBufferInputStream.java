@@ -0,0 +1,147 @@
+package io.github.whiliang.fdfs;
+
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 把DataBuffer流转换为输入流，供上传线程阻塞读取
+ * <p>
+ * 1).订阅时请求prefetch个DataBuffer，每读完一个释放并再请求一个，未读取的DataBuffer不超过prefetch个；
+ * 2).超过timeout未收到数据时抛出异常；
+ * 3).close时取消订阅并释放未读取的DataBuffer
+ *
+ * @author whiliang
+ */
+class DataBufferInputStream extends InputStream implements Subscriber<DataBuffer> {
+
+    private static final Object COMPLETE = new Object();
+
+    private final BlockingQueue<Object> signals = new LinkedBlockingQueue<>();
+
+    private final int prefetch;
+
+    /**
+     * 等待数据的最长时间（单位：毫秒）
+     */
+    private final long timeout;
+
+    private volatile Subscription subscription;
+
+    private DataBuffer current;
+
+    private boolean done;
+
+    private volatile boolean closed;
+
+    DataBufferInputStream(int prefetch, long timeout) {
+        this.prefetch = Math.max(prefetch, 1);
+        this.timeout = timeout;
+    }
+
+    @Override
+    public void onSubscribe(Subscription subscription) {
+        this.subscription = subscription;
+        if (closed) {
+            subscription.cancel();
+            return;
+        }
+        subscription.request(prefetch);
+    }
+
+    @Override
+    public void onNext(DataBuffer buffer) {
+        if (closed) {
+            DataBufferUtils.release(buffer);
+            return;
+        }
+        signals.offer(buffer);
+    }
+
+    @Override
+    public void onError(Throwable error) {
+        signals.offer(error);
+    }
+
+    @Override
+    public void onComplete() {
+        signals.offer(COMPLETE);
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] one = new byte[1];
+        return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (current == null || current.readableByteCount() == 0) {
+            if (current != null) {
+                DataBufferUtils.release(current);
+                current = null;
+                subscription.request(1);
+            }
+            if (done) {
+                return -1;
+            }
+            Object signal = poll();
+            if (signal == COMPLETE) {
+                done = true;
+            } else if (signal instanceof Throwable) {
+                done = true;
+                throw new IOException("Upload content failed", (Throwable) signal);
+            } else {
+                current = (DataBuffer) signal;
+            }
+        }
+        int n = Math.min(len, current.readableByteCount());
+        current.read(b, off, n);
+        return n;
+    }
+
+    private Object poll() throws IOException {
+        try {
+            Object signal = signals.poll(timeout, TimeUnit.MILLISECONDS);
+            if (signal == null) {
+                throw new IOException("No upload content received within " + timeout + "ms");
+            }
+            return signal;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for upload content");
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        Subscription s = subscription;
+        if (s != null && !done) {
+            s.cancel();
+        }
+        if (current != null) {
+            DataBufferUtils.release(current);
+            current = null;
+        }
+        for (Object signal; (signal = signals.poll()) != null; ) {
+            if (signal instanceof DataBuffer) {
+                DataBufferUtils.release((DataBuffer) signal);
+            }
+        }
+    }
+}
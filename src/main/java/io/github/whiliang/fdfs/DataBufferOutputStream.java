@@ -0,0 +1,93 @@
+package io.github.whiliang.fdfs;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import reactor.core.publisher.FluxSink;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+/**
+ * 把下载线程写出的数据按下游的请求量发送到FluxSink
+ * <p>
+ * 1).每次write生成一个DataBuffer，下游没有请求时阻塞下载线程，storage连接暂停读取；
+ * 2).超过timeout没有请求、或下游取消时抛出异常，下载失败，连接被丢弃
+ *
+ * @author whiliang
+ */
+class DataBufferOutputStream extends OutputStream {
+
+    private final FluxSink<DataBuffer> sink;
+
+    private final DataBufferFactory bufferFactory;
+
+    /**
+     * 等待下游请求的最长时间（单位：毫秒）
+     */
+    private final long timeout;
+
+    private long demand;
+
+    private boolean cancelled;
+
+    DataBufferOutputStream(FluxSink<DataBuffer> sink, DataBufferFactory bufferFactory, long timeout) {
+        this.sink = sink;
+        this.bufferFactory = bufferFactory;
+        this.timeout = timeout;
+        sink.onRequest(this::request);
+        sink.onCancel(this::cancel);
+    }
+
+    private synchronized void request(long n) {
+        demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+        notifyAll();
+    }
+
+    private synchronized void cancel() {
+        cancelled = true;
+        notifyAll();
+    }
+
+    synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return;
+        }
+        awaitDemand();
+        DataBuffer buffer = bufferFactory.allocateBuffer(len);
+        buffer.write(b, off, len);
+        sink.next(buffer);
+    }
+
+    private synchronized void awaitDemand() throws IOException {
+        long deadline = System.currentTimeMillis() + timeout;
+        while (demand == 0 && !cancelled) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                throw new IOException("Downstream requested no data within " + timeout + "ms");
+            }
+            try {
+                wait(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for downstream demand");
+            }
+        }
+        if (cancelled) {
+            throw new IOException("Download cancelled by downstream");
+        }
+        if (demand != Long.MAX_VALUE) {
+            demand--;
+        }
+    }
+}
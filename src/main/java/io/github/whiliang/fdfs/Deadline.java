@@ -0,0 +1,175 @@
+package io.github.whiliang.fdfs;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.time.Duration;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 单次文件操作的截止时间，覆盖获取连接、tracker查询和文件传输
+ * <p>
+ * 1).获取连接时最多等待maxWaitTime与剩余时间中较小的一个；
+ * 2).tracker查询和文件传输期间由看门狗线程在截止时间关闭socket，阻塞中的读写立即失败，该连接被丢弃，不再归还连接池；
+ * 3).请求结束后先disarm，看门狗已经触发（即使读写已经返回）时连接同样被丢弃
+ *
+ * @author whiliang
+ */
+public final class Deadline {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Deadline.class);
+
+    /**
+     * 没有截止时间，只受maxWaitTime和networkTimeout限制
+     */
+    public static final Deadline NONE = new Deadline(0, false);
+
+    /**
+     * 到期关闭socket的看门狗线程，所有截止时间共用
+     */
+    private static final ScheduledThreadPoolExecutor WATCHDOG = newWatchdog();
+
+    private static final Watch NO_WATCH = new Watch(null, Watch.DISARMED);
+
+    /**
+     * 截止时间（System.nanoTime）
+     */
+    private final long deadlineNanos;
+
+    private final boolean bounded;
+    /**
+     * 看门狗是否已因到期关闭socket
+     */
+    private volatile boolean fired;
+
+    private Deadline(long deadlineNanos, boolean bounded) {
+        this.deadlineNanos = deadlineNanos;
+        this.bounded = bounded;
+    }
+
+    /**
+     * @param timeout 从现在开始的超时时间，为空时没有截止时间
+     */
+    public static Deadline after(Duration timeout) {
+        if (timeout == null) {
+            return NONE;
+        }
+        return new Deadline(System.nanoTime() + timeout.toNanos(), true);
+    }
+
+    /**
+     * @return 是否已过截止时间
+     */
+    public boolean isExpired() {
+        return bounded && (fired || System.nanoTime() - deadlineNanos >= 0);
+    }
+
+    /**
+     * @param millis 需要的时间（单位：毫秒）
+     * @return 剩余时间是否足够
+     */
+    boolean hasRemaining(long millis) {
+        return !bounded || !fired && deadlineNanos - System.nanoTime() > TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    /**
+     * @return 剩余时间（单位：纳秒），没有截止时间时返回Long.MAX_VALUE
+     */
+    long remainingNanos() {
+        return bounded ? deadlineNanos - System.nanoTime() : Long.MAX_VALUE;
+    }
+
+    /**
+     * @param maxWaitTime 连接池配置的最大等待时间（单位：毫秒）
+     * @return 本次获取连接最多等待的时间（单位：毫秒）
+     * @throws FastdfsException 已过截止时间
+     */
+    long waitMillis(long maxWaitTime) throws FastdfsException {
+        if (!bounded) {
+            return maxWaitTime;
+        }
+        long remaining = TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+        if (remaining <= 0) {
+            throw ERRORS.OPERATION_TIMEOUT.ERROR();
+        }
+        return Math.min(maxWaitTime, remaining);
+    }
+
+    /**
+     * @param socket 本次操作使用的连接
+     * @return 操作结束后调用disarm，返回true时连接才能归还连接池
+     * @throws FastdfsException 已过截止时间
+     */
+    Watch watch(Socket socket) throws FastdfsException {
+        if (!bounded) {
+            return NO_WATCH;
+        }
+        long remaining = deadlineNanos - System.nanoTime();
+        if (remaining <= 0) {
+            throw ERRORS.OPERATION_TIMEOUT.ERROR();
+        }
+        Watch watch = new Watch(this, Watch.ARMED);
+        watch.future = WATCHDOG.schedule(() -> {
+            if (!watch.state.compareAndSet(Watch.ARMED, Watch.FIRED)) {
+                return;
+            }
+            fired = true;
+            try {
+                socket.close();
+            } catch (IOException e) {
+                LOGGER.info("[截止时间关闭连接(watch)][异常：{}]", e.toString());
+            }
+        }, remaining, TimeUnit.NANOSECONDS);
+        return watch;
+    }
+
+    private static ScheduledThreadPoolExecutor newWatchdog() {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1,
+                new FastdfsThreadFactory("fastdfs-deadline-", true));
+        executor.setRemoveOnCancelPolicy(true);
+        return executor;
+    }
+
+    /**
+     * 看门狗，disarm与到期关闭socket竞争同一个状态，只有一方生效
+     */
+    static final class Watch implements AutoCloseable {
+
+        private static final int ARMED = 0;
+
+        private static final int DISARMED = 1;
+
+        private static final int FIRED = 2;
+
+        private final Deadline deadline;
+
+        private final AtomicInteger state;
+
+        private volatile ScheduledFuture<?> future;
+
+        private Watch(Deadline deadline, int state) {
+            this.deadline = deadline;
+            this.state = new AtomicInteger(state);
+        }
+
+        /**
+         * @return 看门狗没有关闭socket，连接可以归还连接池；可以重复调用
+         */
+        boolean disarm() {
+            if (state.compareAndSet(ARMED, DISARMED)) {
+                future.cancel(false);
+            }
+            return state.get() == DISARMED && (deadline == null || !deadline.fired);
+        }
+
+        @Override
+        public void close() {
+            disarm();
+        }
+    }
+}
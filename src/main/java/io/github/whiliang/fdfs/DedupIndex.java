@@ -0,0 +1,33 @@
+package io.github.whiliang.fdfs;
+
+/**
+ * 去重上传的内容索引，记录 内容摘要 到 文件ID 的对应关系
+ * <p>
+ * 默认为进程内的LRU索引（MemoryDedupIndex），多实例共享时可以实现该接口（如保存到Redis、数据库），
+ * 通过FastdfsFileServiceImpl.setDedupIndex替换。实现需要线程安全
+ *
+ * @author whiliang
+ */
+public interface DedupIndex {
+
+    /**
+     * @param key 组名:后缀名:内容摘要[:元数据摘要]
+     * @return 文件ID，不存在时返回null
+     */
+    String get(String key);
+
+    /**
+     * 上传完成后记录，覆盖同一key的旧记录
+     *
+     * @param key    组名:后缀名:内容摘要[:元数据摘要]
+     * @param fileId 文件ID
+     */
+    void put(String key, String fileId);
+
+    /**
+     * 文件被删除或已不存在时移除指向该文件的记录
+     *
+     * @param fileId 文件ID
+     */
+    void removeFile(String fileId);
+}
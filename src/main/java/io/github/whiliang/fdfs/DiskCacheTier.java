@@ -0,0 +1,147 @@
+package io.github.whiliang.fdfs;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * 本地磁盘缓存，按字节数限制大小，LRU淘汰
+ *
+ * @author whiliang
+ */
+class DiskCacheTier {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DiskCacheTier.class);
+
+    private final Path dir;
+
+    private final long maxSize;
+
+    private final LongAdder evictions;
+
+    /**
+     * 文件名 -> 文件大小，按访问顺序排列
+     */
+    private final LinkedHashMap<String, Long> index = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long size;
+
+    DiskCacheTier(Path dir, long maxSize, LongAdder evictions) throws IOException {
+        this.dir = Files.createDirectories(dir);
+        this.maxSize = maxSize;
+        this.evictions = evictions;
+        /** 加载上次运行留下的缓存文件，较早修改的先淘汰 */
+        try (Stream<Path> files = Files.list(this.dir)) {
+            files.filter(Files::isRegularFile)
+                    .sorted(Comparator.comparingLong(DiskCacheTier::lastModified))
+                    .forEach(file -> {
+                        String name = file.getFileName().toString();
+                        if (name.endsWith(".tmp")) {
+                            deleteQuietly(file);
+                        } else {
+                            long length = file.toFile().length();
+                            index.put(name, length);
+                            size += length;
+                        }
+                    });
+        }
+        synchronized (this) {
+            evict();
+        }
+    }
+
+    byte[] get(String fileId) {
+        String name = fileName(fileId);
+        synchronized (this) {
+            if (index.get(name) == null) {
+                return null;
+            }
+        }
+        try {
+            return Files.readAllBytes(dir.resolve(name));
+        } catch (IOException e) {
+            remove(name);
+            return null;
+        }
+    }
+
+    void put(String fileId, byte[] content) {
+        String name = fileName(fileId);
+        Path target = dir.resolve(name);
+        try {
+            /** 先写临时文件再原子替换，读到的文件总是完整的 */
+            Path tmp = Files.createTempFile(dir, "download", ".tmp");
+            Files.write(tmp, content);
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOGGER.info("[写入磁盘缓存(put)][fileId:{}][异常：{}]", fileId, e.toString());
+            return;
+        }
+        synchronized (this) {
+            Long previous = index.put(name, (long) content.length);
+            size += content.length - (previous == null ? 0 : previous);
+            evict();
+        }
+    }
+
+    void invalidate(String fileId) {
+        remove(fileName(fileId));
+    }
+
+    synchronized long size() {
+        return size;
+    }
+
+    private void remove(String name) {
+        synchronized (this) {
+            Long previous = index.remove(name);
+            if (previous != null) {
+                size -= previous;
+            }
+        }
+        deleteQuietly(dir.resolve(name));
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Long>> it = index.entrySet().iterator();
+        while (size > maxSize && it.hasNext()) {
+            Map.Entry<String, Long> eldest = it.next();
+            size -= eldest.getValue();
+            it.remove();
+            deleteQuietly(dir.resolve(eldest.getKey()));
+            evictions.increment();
+        }
+    }
+
+    private static String fileName(String fileId) {
+        try {
+            return URLEncoder.encode(fileId, FdfsConnectionPool.DEFAULT_CHARSET);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static long lastModified(Path file) {
+        return file.toFile().lastModified();
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            LOGGER.info("[删除磁盘缓存(delete)][file:{}][异常：{}]", file, e.toString());
+        }
+    }
+}
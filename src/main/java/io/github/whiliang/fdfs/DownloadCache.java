@@ -0,0 +1,257 @@
+package io.github.whiliang.fdfs;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 下载缓存，FastDFS文件ID对应的内容不会改变，命中时不访问storage
+ * <p>
+ * 1).内存层按字节数限制大小，存在Caffeine时使用W-TinyLFU淘汰，否则使用LRU；
+ * 2).offHeap为true时内容保存在堆外内存；
+ * 3).配置diskDir时内存未命中再查本地磁盘，命中后放回内存；
+ * 4).删除文件时同时移除缓存，与删除并发的下载不会把已删除的文件写回缓存；
+ * 5).分段下载命中时只写出请求的区间，不复制整个文件
+ *
+ * @author whiliang
+ */
+public class DownloadCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DownloadCache.class);
+
+    private static final String CAFFEINE_CLASS = "com.github.benmanes.caffeine.cache.Caffeine";
+
+    private final CacheTier memory;
+
+    private final DiskCacheTier disk;
+
+    /**
+     * 单个文件超过该大小时不缓存
+     */
+    private final long maxEntrySize;
+
+    private final boolean offHeap;
+
+    private final CacheVersions versions = new CacheVersions();
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder diskHits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder hitBytes = new LongAdder();
+
+    private final LongAdder loadBytes = new LongAdder();
+
+    private final LongAdder evictions = new LongAdder();
+
+    public DownloadCache(FastdfsProperties.Cache properties) {
+        this.maxEntrySize = Math.min(properties.getMaxEntrySize(), properties.getMaxSize());
+        this.offHeap = properties.isOffHeap();
+        this.memory = createMemoryTier(properties);
+        this.disk = createDiskTier(properties);
+        LOGGER.info("[下载缓存(DownloadCache)][参数：maxSize={},maxEntrySize={},memory={},offHeap={},diskDir={}]",
+                properties.getMaxSize(), maxEntrySize, memory.getClass().getSimpleName(), offHeap, properties.getDiskDir());
+    }
+
+    private CacheTier createMemoryTier(FastdfsProperties.Cache properties) {
+        if (properties.getEviction() == FastdfsProperties.CacheEviction.TINY_LFU) {
+            try {
+                Class.forName(CAFFEINE_CLASS, false, DownloadCache.class.getClassLoader());
+                return new CaffeineCacheTier(properties.getMaxSize(), evictions);
+            } catch (ClassNotFoundException e) {
+                LOGGER.warn("[下载缓存(DownloadCache)][classpath中没有Caffeine，使用LRU淘汰]");
+            }
+        }
+        return new LruCacheTier(properties.getMaxSize(), evictions);
+    }
+
+    private DiskCacheTier createDiskTier(FastdfsProperties.Cache properties) {
+        if (properties.getDiskDir() == null || properties.getDiskDir().isEmpty()) {
+            return null;
+        }
+        try {
+            return new DiskCacheTier(Paths.get(properties.getDiskDir()), properties.getDiskMaxSize(), evictions);
+        } catch (IOException e) {
+            LOGGER.error("[下载缓存(DownloadCache)][磁盘缓存目录不可用：{}][异常：{}]", properties.getDiskDir(), e.toString());
+            return null;
+        }
+    }
+
+    /**
+     * @param fileId 文件ID
+     * @return 文件内容，未命中时返回null
+     */
+    public byte[] get(String fileId) {
+        ByteBuffer content = memory.get(fileId);
+        if (content != null) {
+            byte[] bytes = new byte[content.capacity()];
+            content.duplicate().get(bytes);
+            hits.increment();
+            hitBytes.add(bytes.length);
+            return bytes;
+        }
+        byte[] bytes = disk == null ? null : disk.get(fileId);
+        if (bytes != null) {
+            memory.put(fileId, wrap(bytes));
+            hits.increment();
+            diskHits.increment();
+            hitBytes.add(bytes.length);
+            return bytes;
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * @param offset 起始位置
+     * @param length 字节数，0表示到文件末尾
+     * @return 命中时写出的字节数，未命中或offset超出文件长度时返回-1
+     * @throws IOException 写出失败
+     */
+    public long write(String fileId, long offset, long length, OutputStream outputStream) throws IOException {
+        ByteBuffer content = memory.get(fileId);
+        boolean fromDisk = false;
+        if (content == null) {
+            byte[] bytes = disk == null ? null : disk.get(fileId);
+            if (bytes == null) {
+                misses.increment();
+                return -1;
+            }
+            memory.put(fileId, wrap(bytes));
+            content = ByteBuffer.wrap(bytes);
+            fromDisk = true;
+        }
+        if (offset > content.capacity()) {
+            return -1;
+        }
+        int count = (int) (length == 0 ? content.capacity() - offset : Math.min(length, content.capacity() - offset));
+        ByteBuffer range = content.duplicate();
+        range.position((int) offset);
+        range.limit((int) offset + count);
+        if (range.hasArray()) {
+            outputStream.write(range.array(), range.arrayOffset() + range.position(), count);
+        } else {
+            byte[] chunk = new byte[Math.min(count, 64 * 1024)];
+            while (range.hasRemaining()) {
+                int n = Math.min(chunk.length, range.remaining());
+                range.get(chunk, 0, n);
+                outputStream.write(chunk, 0, n);
+            }
+        }
+        hits.increment();
+        if (fromDisk) {
+            diskHits.increment();
+        }
+        hitBytes.add(count);
+        return count;
+    }
+
+    /**
+     * @return 从storage下载前调用，作为put的参数
+     */
+    public long version(String fileId) {
+        return versions.version(fileId);
+    }
+
+    /**
+     * @param fileId  文件ID
+     * @param content 从storage下载的文件内容
+     * @param version 下载前取得的版本号，下载期间文件被删除时不写入
+     */
+    public void put(String fileId, byte[] content, long version) {
+        loadBytes.add(content.length);
+        if (content.length > maxEntrySize || versions.changed(fileId, version)) {
+            return;
+        }
+        memory.put(fileId, wrap(content));
+        if (disk != null) {
+            disk.put(fileId, content);
+        }
+        if (versions.changed(fileId, version)) {
+            /** 写入期间文件被删除 */
+            remove(fileId);
+        }
+    }
+
+    /**
+     * @param fileId 已删除的文件ID
+     */
+    public void invalidate(String fileId) {
+        versions.increment(fileId);
+        remove(fileId);
+    }
+
+    private void remove(String fileId) {
+        memory.invalidate(fileId);
+        if (disk != null) {
+            disk.invalidate(fileId);
+        }
+    }
+
+    private ByteBuffer wrap(byte[] content) {
+        ByteBuffer buffer = offHeap ? ByteBuffer.allocateDirect(content.length) : ByteBuffer.allocate(content.length);
+        buffer.put(content);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * 命中次数，包括磁盘命中
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getDiskHitCount() {
+        return diskHits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public double getHitRatio() {
+        long hitCount = hits.sum();
+        long total = hitCount + misses.sum();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    /**
+     * 从缓存返回的字节数
+     */
+    public long getHitBytes() {
+        return hitBytes.sum();
+    }
+
+    /**
+     * 从storage下载的字节数
+     */
+    public long getLoadBytes() {
+        return loadBytes.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * 内存中缓存的字节数
+     */
+    public long getMemorySize() {
+        return memory.weight();
+    }
+
+    /**
+     * 磁盘中缓存的字节数
+     */
+    public long getDiskSize() {
+        return disk == null ? 0 : disk.size();
+    }
+}
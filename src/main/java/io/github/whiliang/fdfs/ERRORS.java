@@ -1,69 +1,90 @@
-package io.github.whiliang.fdfs;
-
-
-/**
- * 错误码定义
- *
- * @author whiliang
- */
-
-public enum ERRORS {
-
-    TRACKERS_ADDRESS_INVALID("100001", "No tracker server is found from config center."),
-
-    PARAMETER_IS_NULL("21001", "必填参数为空", "必填参数为空"),
-
-    FASTDFS_CONNECTION_FAIL("21002", "连接fastdfs服务器失败", "文件上传异常，请重试"),
-
-    WAIT_IDLECONNECTION_TIMEOUT("21003", "等待空闲连接超时", "连接超时，请重试"),
-
-    NOT_EXIST_GROUP("21004", "文件组不存在", "文件组不存在"),
-
-    UPLOAD_RESULT_ERROR("21005", "fastdfs文件系统上传返回结果错误", "文件上传异常，请重试"),
-
-    NOT_EXIST_PORTURL("21006", "未找到对应的端口和访问地址", "文件上传异常，请重试"),
-
-    SYS_ERROR("21007", "系统错误", "系统错误"),
-
-    FILE_PATH_ERROR("21008", "文件访问地址格式不对", "文件访问地址格式不对"),
-
-    DELETE_RESULT_ERROR("21009", "fastdfs文件系统删除文件返回结果错误", "文件删除异常，请重试"),
-
-    NOT_EXIST_FILE("21010", "文件不存在", "文件不存在");
-
-    /**
-     * 错误码
-     */
-    String code;
-
-    /**
-     * 错误信息，用于日志输出，便于问题定位
-     */
-    String message;
-
-    /**
-     * 错误提示，用于客户端提示
-     */
-    String descreption;
-
-    ERRORS(String code, String message) {
-        this.message = message;
-        this.code = code;
-    }
-
-    ERRORS(String code, String message, String descreption) {
-        this.message = message;
-        this.code = code;
-        this.descreption = descreption;
-    }
-
-    public FastdfsException ERROR() {
-        return new FastdfsException(this.code, this.message,
-                this.descreption);
-    }
-
-    public FastdfsException ERROR(String descreption) {
-        return new FastdfsException(this.code, this.message,
-                descreption);
-    }
-}
+package io.github.whiliang.fdfs;
+
+
+/**
+ * 错误码定义
+ *
+ * @author whiliang
+ */
+
+public enum ERRORS {
+
+    TRACKERS_ADDRESS_INVALID("100001", "No tracker server is found from config center."),
+
+    PARAMETER_IS_NULL("21001", "必填参数为空", "必填参数为空"),
+
+    FASTDFS_CONNECTION_FAIL("21002", "连接fastdfs服务器失败", "文件上传异常，请重试"),
+
+    WAIT_IDLECONNECTION_TIMEOUT("21003", "等待空闲连接超时", "连接超时，请重试"),
+
+    NOT_EXIST_GROUP("21004", "文件组不存在", "文件组不存在"),
+
+    UPLOAD_RESULT_ERROR("21005", "fastdfs文件系统上传返回结果错误", "文件上传异常，请重试"),
+
+    NOT_EXIST_PORTURL("21006", "未找到对应的端口和访问地址", "文件上传异常，请重试"),
+
+    SYS_ERROR("21007", "系统错误", "系统错误"),
+
+    FILE_PATH_ERROR("21008", "文件访问地址格式不对", "文件访问地址格式不对"),
+
+    DELETE_RESULT_ERROR("21009", "fastdfs文件系统删除文件返回结果错误", "文件删除异常，请重试"),
+
+    NOT_EXIST_FILE("21010", "文件不存在", "文件不存在"),
+
+    DOWNLOAD_RESULT_ERROR("21011", "fastdfs文件系统下载文件返回结果错误", "文件下载异常，请重试"),
+
+    EXECUTOR_REJECTED("21012", "异步任务队列已满", "系统繁忙，请重试"),
+
+    NOT_EXIST_CLUSTER("21013", "fastdfs集群不存在", "文件服务配置错误"),
+
+    OPERATION_TIMEOUT("21014", "文件操作超过截止时间", "请求超时，请重试"),
+
+    METADATA_RESULT_ERROR("21015", "fastdfs文件系统读写元数据返回结果错误", "文件元数据异常，请重试"),
+
+    TRANSFORM_ERROR("21016", "生成从文件失败", "文件处理异常"),
+
+    POOL_CLOSED("21017", "连接池已关闭", "文件服务已关闭");
+
+    /**
+     * 错误码
+     */
+    String code;
+
+    /**
+     * 错误信息，用于日志输出，便于问题定位
+     */
+    String message;
+
+    /**
+     * 错误提示，用于客户端提示
+     */
+    String descreption;
+
+    ERRORS(String code, String message) {
+        this.message = message;
+        this.code = code;
+    }
+
+    ERRORS(String code, String message, String descreption) {
+        this.message = message;
+        this.code = code;
+        this.descreption = descreption;
+    }
+
+    public FastdfsException ERROR() {
+        return new FastdfsException(this.code, this.message,
+                this.descreption);
+    }
+
+    public FastdfsException ERROR(String descreption) {
+        return new FastdfsException(this.code, this.message,
+                descreption);
+    }
+
+    /**
+     * @return 异常是否为该错误码
+     */
+    public boolean matches(FastdfsException e) {
+        return e != null && this.code.equals(e.getCode());
+    }
+}
@@ -0,0 +1,92 @@
+package io.github.whiliang.fdfs;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.config.RuntimeBeanReference;
+import org.springframework.beans.factory.support.BeanDefinitionBuilder;
+import org.springframework.beans.factory.support.BeanDefinitionRegistry;
+import org.springframework.beans.factory.support.ManagedMap;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.EnvironmentAware;
+import org.springframework.context.annotation.ImportBeanDefinitionRegistrar;
+import org.springframework.core.env.Environment;
+import org.springframework.core.type.AnnotationMetadata;
+import org.springframework.util.ClassUtils;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 为spring.fastdfs.clusters下的每个集群注册FastdfsFileService bean（名称为 集群名称+FastdfsFileService），
+ * classpath中存在Micrometer时同时注册带cluster tag的指标，最后注册汇总所有集群的FastdfsClusters
+ *
+ * @author whiliang
+ */
+public class FastdfsClusterRegistrar implements ImportBeanDefinitionRegistrar, EnvironmentAware {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FastdfsClusterRegistrar.class);
+
+    private static final String PREFIX = "spring.fastdfs";
+
+    /**
+     * spring.fastdfs下配置的集群对应的bean名称
+     */
+    static final String DEFAULT_SERVICE_BEAN = "fastdfsFileServiceImpl";
+
+    private static final boolean MICROMETER_PRESENT = ClassUtils.isPresent(
+            "io.micrometer.core.instrument.MeterRegistry", FastdfsClusterRegistrar.class.getClassLoader());
+
+    private Environment environment;
+
+    @Override
+    public void setEnvironment(Environment environment) {
+        this.environment = environment;
+    }
+
+    @Override
+    public void registerBeanDefinitions(AnnotationMetadata metadata, BeanDefinitionRegistry registry) {
+        Binder binder = Binder.get(environment);
+        Map<String, FastdfsProperties> clusters = binder.bind(PREFIX + ".clusters",
+                Bindable.mapOf(String.class, FastdfsProperties.class)).orElse(Collections.emptyMap());
+        ManagedMap<String, Object> services = new ManagedMap<>();
+        if (hasDefaultCluster(environment)) {
+            services.put(FastdfsClusters.DEFAULT_CLUSTER, new RuntimeBeanReference(DEFAULT_SERVICE_BEAN));
+        }
+        for (Map.Entry<String, FastdfsProperties> entry : clusters.entrySet()) {
+            String cluster = entry.getKey();
+            if (FastdfsClusters.DEFAULT_CLUSTER.equals(cluster)) {
+                LOGGER.error("[注册fastdfs集群(register)][集群名称{}已被spring.fastdfs占用，忽略该配置]", cluster);
+                continue;
+            }
+            String serviceBean = cluster + "FastdfsFileService";
+            registry.registerBeanDefinition(serviceBean, BeanDefinitionBuilder
+                    .genericBeanDefinition(FastdfsFileServiceImpl.class)
+                    .addConstructorArgValue(entry.getValue())
+                    .setDestroyMethodName("shutdown")
+                    .getBeanDefinition());
+            if (MICROMETER_PRESENT) {
+                registry.registerBeanDefinition(cluster + "FastdfsMetrics", BeanDefinitionBuilder
+                        .genericBeanDefinition(MicrometerFastdfsMetrics.class)
+                        .addConstructorArgReference(serviceBean)
+                        .addConstructorArgValue(cluster)
+                        .getBeanDefinition());
+            }
+            services.put(cluster, new RuntimeBeanReference(serviceBean));
+            LOGGER.info("[注册fastdfs集群(register)][cluster:{}][trackerList:{}]", cluster, entry.getValue().getTrackerList());
+        }
+        registry.registerBeanDefinition("fastdfsClusters", BeanDefinitionBuilder
+                .genericBeanDefinition(FastdfsClusters.class)
+                .addConstructorArgValue(services)
+                .getBeanDefinition());
+    }
+
+    /**
+     * @return spring.fastdfs下是否配置了tracker-list
+     */
+    static boolean hasDefaultCluster(Environment environment) {
+        return Binder.get(environment).bind(PREFIX + ".tracker-list", Bindable.listOf(String.class))
+                .map(List::isEmpty).map(empty -> !empty).orElse(false);
+    }
+}
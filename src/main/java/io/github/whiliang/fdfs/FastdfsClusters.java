@@ -0,0 +1,47 @@
+package io.github.whiliang.fdfs;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 按名称获取各fastdfs集群的文件服务
+ * <p>
+ * spring.fastdfs下配置的集群名称为default，spring.fastdfs.clusters下的集群使用各自的名称，
+ * 每个集群有独立的tracker、连接池和后台线程，互不影响
+ *
+ * @author whiliang
+ */
+public class FastdfsClusters {
+
+    /**
+     * spring.fastdfs下配置的集群名称
+     */
+    public static final String DEFAULT_CLUSTER = "default";
+
+    private final Map<String, FastdfsFileServiceImpl> services;
+
+    public FastdfsClusters(Map<String, FastdfsFileServiceImpl> services) {
+        this.services = Collections.unmodifiableMap(new LinkedHashMap<>(services));
+    }
+
+    /**
+     * @param cluster 集群名称
+     * @return 该集群的文件服务
+     * @throws FastdfsException 集群不存在
+     */
+    public FastdfsFileService get(String cluster) throws FastdfsException {
+        FastdfsFileService service = services.get(cluster);
+        if (service == null) {
+            throw ERRORS.NOT_EXIST_CLUSTER.ERROR();
+        }
+        return service;
+    }
+
+    /**
+     * 所有集群的文件服务，key为集群名称
+     */
+    public Map<String, FastdfsFileServiceImpl> getServices() {
+        return services;
+    }
+}
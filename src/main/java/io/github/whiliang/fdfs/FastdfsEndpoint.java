@@ -0,0 +1,82 @@
+package io.github.whiliang.fdfs;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * actuator端点fastdfs，按集群展示tracker、各storage节点连接池和下载缓存的状态
+ *
+ * @author whiliang
+ */
+@Endpoint(id = "fastdfs")
+public class FastdfsEndpoint {
+
+    private final FastdfsClusters fastdfsClusters;
+
+    public FastdfsEndpoint(FastdfsClusters fastdfsClusters) {
+        this.fastdfsClusters = fastdfsClusters;
+    }
+
+    @ReadOperation
+    public Map<String, Object> fastdfs() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        fastdfsClusters.getServices().forEach((cluster, service) -> result.put(cluster, clusterState(service)));
+        return result;
+    }
+
+    private static Map<String, Object> clusterState(FastdfsFileServiceImpl fastdfsFileService) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        BoundedConnectionPool<PooledTrackerServer> trackerPool = fastdfsFileService.getConnectionPool().getConnections();
+        if (trackerPool != null) {
+            result.put("tracker", poolState(trackerPool));
+        }
+        TrackerSelector selector = fastdfsFileService.getConnectionPool().getSelector();
+        if (selector != null) {
+            Map<String, Object> trackers = new LinkedHashMap<>();
+            for (TrackerSelector.TrackerHealth tracker : selector.getTrackers()) {
+                Map<String, Object> state = new LinkedHashMap<>();
+                state.put("latencyMicros", (long) (tracker.getLatency() / 1000));
+                state.put("errorRate", tracker.getErrorRate());
+                state.put("connections", tracker.getConnections());
+                state.put("ejected", tracker.isEjected());
+                trackers.put(tracker.getAddress().getHostString() + ":" + tracker.getAddress().getPort(), state);
+            }
+            result.put("trackers", trackers);
+        }
+        Map<String, Object> storage = new LinkedHashMap<>();
+        fastdfsFileService.getStorageConnectionPool().getNodePools()
+                .forEach((node, pool) -> storage.put(node, poolState(pool)));
+        result.put("storage", storage);
+        DownloadCache cache = fastdfsFileService.getDownloadCache();
+        if (cache != null) {
+            Map<String, Object> cacheState = new LinkedHashMap<>();
+            cacheState.put("hitCount", cache.getHitCount());
+            cacheState.put("diskHitCount", cache.getDiskHitCount());
+            cacheState.put("missCount", cache.getMissCount());
+            cacheState.put("hitRatio", cache.getHitRatio());
+            cacheState.put("hitBytes", cache.getHitBytes());
+            cacheState.put("loadBytes", cache.getLoadBytes());
+            cacheState.put("evictionCount", cache.getEvictionCount());
+            cacheState.put("memorySize", cache.getMemorySize());
+            cacheState.put("diskSize", cache.getDiskSize());
+            result.put("downloadCache", cacheState);
+        }
+        return result;
+    }
+
+    private static Map<String, Object> poolState(BoundedConnectionPool<?> pool) {
+        Map<String, Object> state = new LinkedHashMap<>();
+        state.put("max", pool.getMaxPoolSize());
+        state.put("total", pool.getTotal());
+        state.put("active", pool.getActive());
+        state.put("idle", pool.getIdle());
+        state.put("pending", pool.getPending());
+        state.put("created", pool.getCreatedCount());
+        state.put("destroyed", pool.getDestroyedCount());
+        state.put("abandoned", pool.getAbandonedCount());
+        return state;
+    }
+}
@@ -0,0 +1,139 @@
+package io.github.whiliang.fdfs;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 文件操作线程池
+ *
+ * @author whiliang
+ */
+public final class FastdfsExecutors {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FastdfsExecutors.class);
+
+    private FastdfsExecutors() {
+    }
+
+    /**
+     * @param properties 配置
+     * @return 异步文件服务使用的线程池
+     * @Description: 按spring.fastdfs.executor创建线程池，VIRTUAL在当前JVM不支持虚拟线程时回退到平台线程池
+     */
+    public static ExecutorService newAsyncExecutor(FastdfsProperties properties) {
+        if (properties.getExecutor() == FastdfsProperties.ExecutorType.VIRTUAL) {
+            ExecutorService virtual = newVirtualThreadExecutor();
+            if (virtual != null) {
+                FastdfsProperties.Async async = properties.getAsync();
+                return new BoundedExecutorService(virtual, async.getMaxConcurrency(),
+                        async.getRejectionPolicy() == FastdfsProperties.RejectionPolicy.CALLER_RUNS);
+            }
+            LOGGER.warn("[创建线程池(newAsyncExecutor)][当前JVM不支持虚拟线程，使用平台线程池]");
+        }
+        return newAsyncExecutor(properties.getAsync());
+    }
+
+    /**
+     * @param async 异步线程池配置
+     * @return 有界队列的线程池
+     * @Description: 创建异步文件服务使用的线程池，队列满时按rejectionPolicy处理
+     */
+    public static ExecutorService newAsyncExecutor(FastdfsProperties.Async async) {
+        RejectedExecutionHandler handler = async.getRejectionPolicy() == FastdfsProperties.RejectionPolicy.CALLER_RUNS
+                ? new ThreadPoolExecutor.CallerRunsPolicy() : new ThreadPoolExecutor.AbortPolicy();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(async.getCorePoolSize(), async.getMaxPoolSize(),
+                async.getKeepAliveTime(), TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(async.getQueueCapacity()),
+                new FastdfsThreadFactory("fastdfs-async-", true), handler);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * @return 每个任务一个虚拟线程的线程池，JDK 21以下返回null
+     */
+    static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method method = java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 限制同时执行任务数的线程池，超过上限时拒绝或在调用线程上执行
+     */
+    static class BoundedExecutorService extends AbstractExecutorService {
+
+        private final ExecutorService delegate;
+
+        private final Semaphore permits;
+
+        private final boolean callerRuns;
+
+        BoundedExecutorService(ExecutorService delegate, int maxConcurrency, boolean callerRuns) {
+            this.delegate = delegate;
+            this.permits = new Semaphore(maxConcurrency);
+            this.callerRuns = callerRuns;
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            if (!permits.tryAcquire()) {
+                if (callerRuns && !delegate.isShutdown()) {
+                    command.run();
+                    return;
+                }
+                throw new RejectedExecutionException("fastdfs async tasks exceed max concurrency");
+            }
+            try {
+                delegate.execute(() -> {
+                    try {
+                        command.run();
+                    } finally {
+                        permits.release();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                permits.release();
+                throw e;
+            }
+        }
+
+        @Override
+        public void shutdown() {
+            delegate.shutdown();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return delegate.shutdownNow();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return delegate.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return delegate.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return delegate.awaitTermination(timeout, unit);
+        }
+    }
+}
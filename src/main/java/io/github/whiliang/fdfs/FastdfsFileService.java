@@ -1,49 +1,381 @@
-package io.github.whiliang.fdfs;
-
-/**
- * 文件服务
- *
- * @author whiliang
- */
-public interface FastdfsFileService {
-
-    /**
-     * 上传文件到FastDFS指定group
-     *
-     * @param file    文件字节流
-     * @param group   组名
-     * @param extName 后缀名
-     * @return
-     * @throws FastdfsException
-     */
-    String uploadWithGroup(byte[] file, String group, String extName) throws FastdfsException;
-
-    /**
-     * 不指定group上传文件到FastDFS
-     *
-     * @param fileBytes 文件字节流
-     * @param extName   后缀名
-     * @return
-     * @throws FastdfsException
-     */
-    String uploadWithoutGroup(byte[] fileBytes, String extName) throws FastdfsException;
-
-    /**
-     * 文件下载
-     *
-     * @param fileId 文件ID
-     * @return 字节流
-     * @throws FastdfsException
-     */
-    byte[] download(String fileId) throws FastdfsException;
-
-    /**
-     * 删除FastDFS指定的文件
-     *
-     * @param fileId 文件ID
-     * @throws FastdfsException
-     */
-    void delete(String fileId) throws FastdfsException;
-
-
-}
+package io.github.whiliang.fdfs;
+
+import org.csource.common.MyException;
+import org.csource.fastdfs.ProtoCommon;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 文件服务
+ *
+ * @author whiliang
+ */
+public interface FastdfsFileService {
+
+    /**
+     * 上传文件到FastDFS指定group
+     *
+     * @param file    文件字节流
+     * @param group   组名
+     * @param extName 后缀名
+     * @return
+     * @throws FastdfsException
+     */
+    String uploadWithGroup(byte[] file, String group, String extName) throws FastdfsException;
+
+    /**
+     * 上传文件到FastDFS指定group，获取连接、查询tracker和传输共用一个截止时间
+     *
+     * @param file    文件字节流
+     * @param group   组名，为空时不指定group
+     * @param extName 后缀名
+     * @param timeout 超时时间，超时后连接被丢弃并抛出错误码21014
+     * @return 文件ID
+     * @throws FastdfsException
+     */
+    String uploadWithGroup(byte[] file, String group, String extName, Duration timeout) throws FastdfsException;
+
+    /**
+     * 上传文件并设置元数据，没有元数据时不发送设置元数据的请求
+     *
+     * @param file     文件字节流
+     * @param group    组名，为空时不指定group
+     * @param extName  后缀名
+     * @param metadata 元数据，例如原文件名、contentType
+     * @return 文件ID
+     * @throws FastdfsException
+     */
+    String uploadWithGroup(byte[] file, String group, String extName, Map<String, String> metadata) throws FastdfsException;
+
+    /**
+     * 不指定group上传文件到FastDFS
+     *
+     * @param fileBytes 文件字节流
+     * @param extName   后缀名
+     * @return
+     * @throws FastdfsException
+     */
+    String uploadWithoutGroup(byte[] fileBytes, String extName) throws FastdfsException;
+
+    /**
+     * 以流的方式上传文件，按固定大小的缓冲区分块发送，不会把整个文件读入内存。
+     * 启用dedup时先把流写入临时文件并计算摘要，索引命中时不上传，直接返回已有的文件ID，未命中时从临时文件上传
+     *
+     * @param inputStream 文件输入流，由调用方关闭
+     * @param size        文件大小，必须与流中可读取的字节数一致
+     * @param group       组名，为空时不指定group
+     * @param extName     后缀名
+     * @return 文件ID
+     * @throws FastdfsException
+     */
+    String upload(InputStream inputStream, long size, String group, String extName) throws FastdfsException;
+
+    /**
+     * 以流的方式上传文件，获取连接、查询tracker和传输共用一个截止时间
+     *
+     * @param inputStream 文件输入流，由调用方关闭
+     * @param size        文件大小，必须与流中可读取的字节数一致
+     * @param group       组名，为空时不指定group
+     * @param extName     后缀名
+     * @param timeout     超时时间，超时后连接被丢弃并抛出错误码21014
+     * @return 文件ID
+     * @throws FastdfsException
+     */
+    String upload(InputStream inputStream, long size, String group, String extName, Duration timeout) throws FastdfsException;
+
+    /**
+     * 以流的方式上传文件并设置元数据
+     *
+     * @param inputStream 文件输入流，由调用方关闭
+     * @param size        文件大小，必须与流中可读取的字节数一致
+     * @param group       组名，为空时不指定group
+     * @param extName     后缀名
+     * @param metadata    元数据，例如原文件名、contentType
+     * @return 文件ID
+     * @throws FastdfsException
+     */
+    String upload(InputStream inputStream, long size, String group, String extName, Map<String, String> metadata)
+            throws FastdfsException;
+
+    /**
+     * 上传本地文件，通过FileChannel.transferTo发送
+     *
+     * @param path    本地文件路径
+     * @param group   组名，为空时不指定group
+     * @param extName 后缀名
+     * @return 文件ID
+     * @throws FastdfsException
+     */
+    String upload(Path path, String group, String extName) throws FastdfsException;
+
+    /**
+     * 上传本地文件并设置元数据
+     *
+     * @param path     本地文件路径
+     * @param group    组名，为空时不指定group
+     * @param extName  后缀名
+     * @param metadata 元数据，例如原文件名、contentType
+     * @return 文件ID
+     * @throws FastdfsException
+     */
+    String upload(Path path, String group, String extName, Map<String, String> metadata) throws FastdfsException;
+
+    /**
+     * 上传本地文件
+     *
+     * @param file    本地文件
+     * @param group   组名，为空时不指定group
+     * @param extName 后缀名
+     * @return 文件ID
+     * @throws FastdfsException
+     * @see #upload(Path, String, String)
+     */
+    String upload(File file, String group, String extName) throws FastdfsException;
+
+    /**
+     * 上传从文件，从文件与主文件保存在同一个storage上，文件ID可由主文件ID计算，见{@link #slaveFileId(String, String, String)}
+     *
+     * @param masterFileId 主文件ID
+     * @param prefix       从文件前缀，例如"_150x150"，最长16个字节
+     * @param file         文件字节流
+     * @param extName      后缀名，为null时与主文件相同
+     * @return 从文件ID
+     * @throws FastdfsException 同一主文件下前缀已存在时错误码为21005
+     */
+    String uploadSlave(String masterFileId, String prefix, byte[] file, String extName) throws FastdfsException;
+
+    /**
+     * 上传主文件并生成、上传从文件：transforms在独立的有界线程池中与主文件上传并行执行，
+     * 主文件和从文件在同一个storage连接上顺序上传，只查询一次tracker
+     *
+     * @param file       主文件字节流
+     * @param group      组名，为空时不指定group
+     * @param extName    主文件后缀名
+     * @param transforms 从文件生成方式，前缀不能重复
+     * @return 主文件ID和与transforms顺序一致的从文件结果
+     * @throws FastdfsException 主文件上传失败
+     */
+    SlaveUploadResult uploadWithSlaves(byte[] file, String group, String extName, List<FileTransform> transforms)
+            throws FastdfsException;
+
+    /**
+     * 计算从文件ID，与uploadSlave、uploadWithSlaves返回的一致
+     *
+     * @param masterFileId 主文件ID
+     * @param prefix       从文件前缀
+     * @param extName      从文件后缀名，为null时与主文件相同
+     * @return 从文件ID
+     * @throws FastdfsException 主文件ID格式不对时错误码为21008
+     */
+    static String slaveFileId(String masterFileId, String prefix, String extName) throws FastdfsException {
+        int index = masterFileId == null ? -1 : masterFileId.indexOf('/');
+        if (index <= 0) {
+            throw ERRORS.FILE_PATH_ERROR.ERROR();
+        }
+        try {
+            return masterFileId.substring(0, index + 1)
+                    + ProtoCommon.genSlaveFilename(masterFileId.substring(index + 1), prefix, extName);
+        } catch (MyException e) {
+            throw ERRORS.FILE_PATH_ERROR.ERROR();
+        }
+    }
+
+    /**
+     * 断点续传上传本地文件：先以第一个分块创建appender文件，再逐块追加，每块写入后保存检查点。
+     * 分块失败时按retry配置只重发该分块；重试后仍失败或进程退出时，以相同uploadId再次调用从检查点继续。
+     * 源文件大小或修改时间变化时放弃旧的appender文件重新上传
+     *
+     * @param uploadId 上传ID，同一个源文件续传时使用相同的ID
+     * @param path     本地文件路径
+     * @param group    组名，为空时不指定group
+     * @param extName  后缀名
+     * @return 文件ID（appender文件）
+     * @throws FastdfsException
+     */
+    String uploadResumable(String uploadId, Path path, String group, String extName) throws FastdfsException;
+
+    /**
+     * 放弃断点续传，删除已上传的appender文件和检查点
+     *
+     * @param uploadId 上传ID
+     * @return 存在未完成的上传时返回true
+     * @throws FastdfsException
+     */
+    boolean abortResumableUpload(String uploadId) throws FastdfsException;
+
+    /**
+     * 文件下载
+     *
+     * @param fileId 文件ID
+     * @return 字节流
+     * @throws FastdfsException
+     */
+    byte[] download(String fileId) throws FastdfsException;
+
+    /**
+     * 文件下载，获取连接、查询tracker和传输共用一个截止时间
+     *
+     * @param fileId  文件ID
+     * @param timeout 超时时间，超时后连接被丢弃并抛出错误码21014
+     * @return 字节流
+     * @throws FastdfsException
+     */
+    byte[] download(String fileId, Duration timeout) throws FastdfsException;
+
+    /**
+     * 文件下载，数据直接写入输出流
+     *
+     * @param fileId       文件ID
+     * @param outputStream 输出流，由调用方关闭
+     * @return 写出的字节数
+     * @throws FastdfsException
+     */
+    long download(String fileId, OutputStream outputStream) throws FastdfsException;
+
+    /**
+     * 文件下载，数据直接写入通道
+     *
+     * @param fileId  文件ID
+     * @param channel 阻塞模式的通道，由调用方关闭
+     * @return 写出的字节数
+     * @throws FastdfsException
+     */
+    long download(String fileId, WritableByteChannel channel) throws FastdfsException;
+
+    /**
+     * 分段下载，可用于HTTP Range请求
+     *
+     * @param fileId       文件ID
+     * @param offset       起始位置
+     * @param length       下载字节数，0表示下载到文件末尾
+     * @param outputStream 输出流，由调用方关闭
+     * @return 写出的字节数
+     * @throws FastdfsException
+     */
+    long download(String fileId, long offset, long length, OutputStream outputStream) throws FastdfsException;
+
+    /**
+     * 分段下载，获取连接、查询tracker和传输共用一个截止时间
+     *
+     * @param fileId       文件ID
+     * @param offset       起始位置
+     * @param length       下载字节数，0表示下载到文件末尾
+     * @param outputStream 输出流，由调用方关闭
+     * @param timeout      超时时间，超时后连接被丢弃并抛出错误码21014，输出流中可能已写出部分数据
+     * @return 写出的字节数
+     * @throws FastdfsException
+     */
+    long download(String fileId, long offset, long length, OutputStream outputStream, Duration timeout) throws FastdfsException;
+
+    /**
+     * 分段下载，可用于HTTP Range请求
+     *
+     * @param fileId  文件ID
+     * @param offset  起始位置
+     * @param length  下载字节数，0表示下载到文件末尾
+     * @param channel 阻塞模式的通道，由调用方关闭
+     * @return 写出的字节数
+     * @throws FastdfsException
+     */
+    long download(String fileId, long offset, long length, WritableByteChannel channel) throws FastdfsException;
+
+    /**
+     * 并行分段下载到本地文件：按parallel-download.chunk-size切分，最多parallelism个分段同时从不同连接、不同副本下载，
+     * 写入文件的对应位置；单个分段失败时只重新下载该分段
+     *
+     * @param fileId 文件ID
+     * @param path   本地文件，已存在时被覆盖
+     * @return 文件大小
+     * @throws FastdfsException
+     */
+    long downloadParallel(String fileId, Path path) throws FastdfsException;
+
+    /**
+     * 并行分段下载，写入通道的[0, 文件大小)区间，不改变通道的当前位置
+     *
+     * @param fileId  文件ID
+     * @param channel 文件通道，需可写；使用内存映射时需以READ、WRITE方式打开，由调用方关闭
+     * @return 文件大小
+     * @throws FastdfsException
+     */
+    long downloadParallel(String fileId, FileChannel channel) throws FastdfsException;
+
+    /**
+     * 删除FastDFS指定的文件
+     *
+     * @param fileId 文件ID
+     * @throws FastdfsException
+     */
+    void delete(String fileId) throws FastdfsException;
+
+    /**
+     * 删除FastDFS指定的文件，获取连接、查询tracker和删除共用一个截止时间
+     *
+     * @param fileId  文件ID
+     * @param timeout 超时时间，超时后连接被丢弃
+     * @throws FastdfsException
+     */
+    void delete(String fileId, Duration timeout) throws FastdfsException;
+
+    /**
+     * 删除FastDFS指定的文件，网络异常时按retry配置重试；重试时文件已不存在说明上一次删除已生效、只是应答丢失，返回true
+     *
+     * @param fileId 文件ID
+     * @return 文件存在并已删除时返回true，文件不存在时返回false
+     * @throws FastdfsException 重试后仍失败
+     */
+    boolean deleteIfExists(String fileId) throws FastdfsException;
+
+    /**
+     * 批量上传，按组分配storage节点，每个节点复用一个连接顺序上传，不同节点并行执行
+     *
+     * @param requests 待上传的文件
+     * @return 与requests顺序一致的结果，单个文件失败不影响其它文件
+     */
+    List<BatchResult<String>> uploadBatch(List<UploadRequest> requests);
+
+    /**
+     * 批量删除，按文件源storage分组，每个节点复用一个连接顺序删除，不同节点并行执行
+     *
+     * @param fileIds 文件ID
+     * @return 与fileIds迭代顺序一致的结果，成功时value为文件ID
+     */
+    List<BatchResult<String>> deleteBatch(Collection<String> fileIds);
+
+    /**
+     * 读取文件元数据，启用metadata-cache时优先从缓存读取
+     *
+     * @param fileId 文件ID
+     * @return 不可修改的元数据，没有元数据时为空
+     * @throws FastdfsException 文件不存在时错误码为21010
+     */
+    Map<String, String> getMetadata(String fileId) throws FastdfsException;
+
+    /**
+     * 设置文件元数据
+     *
+     * @param fileId   文件ID
+     * @param metadata 元数据，OVERWRITE时为空表示清空
+     * @param mode     OVERWRITE覆盖全部元数据，MERGE只替换同名的项
+     * @throws FastdfsException 文件不存在时错误码为21010
+     */
+    void setMetadata(String fileId, Map<String, String> metadata, MetadataMode mode) throws FastdfsException;
+
+    /**
+     * 批量读取元数据，按文件源storage分组，每个节点最多使用batch-parallelism个连接并行读取
+     *
+     * @param fileIds 文件ID
+     * @return 与fileIds迭代顺序一致的结果，成功时value为不可修改的元数据
+     */
+    List<BatchResult<Map<String, String>>> getMetadataBatch(Collection<String> fileIds);
+
+}
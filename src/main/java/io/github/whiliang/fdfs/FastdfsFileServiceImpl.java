@@ -2,17 +2,58 @@ package io.github.whiliang.fdfs;
 
 import org.csource.common.MyException;
 import org.csource.common.NameValuePair;
+import org.csource.fastdfs.FileInfo;
 import org.csource.fastdfs.StorageClient1;
-import org.csource.fastdfs.StorageServer;
 import org.csource.fastdfs.TrackerServer;
+import org.csource.fastdfs.UploadCallback;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
 
+import java.io.File;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.SocketTimeoutException;
-import java.util.UUID;
-import java.util.stream.Collectors;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 
 
 /**
@@ -23,18 +64,99 @@ import java.util.stream.Collectors;
 public class FastdfsFileServiceImpl implements FastdfsFileService {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(FastdfsFileServiceImpl.class);
+    /**
+     * download(fileId)网络异常时的错误码，沿用原有异常
+     */
+    private static final String DOWNLOAD_IO_ERROR = "Error while downloading file.";
+    /**
+     * download(fileId)返回空时的错误码，沿用原有异常，message为storage返回的错误号
+     */
+    private static final String DOWNLOAD_FAILED = " Failed to download file : ";
     /**
      * 连接池
      */
     private FdfsConnectionPool connectionPool = null;
 
+    /**
+     * storage连接池
+     */
+    private StorageConnectionPool storageConnectionPool = null;
+
     /**
      * fastdfs配置
      */
     private FastdfsProperties fastdfsProperties;
 
+    /**
+     * 批量操作中并行处理各storage节点的线程
+     */
+    private ThreadPoolExecutor batchExecutor = null;
+
+    /**
+     * storage路由缓存，未启用时为null
+     */
+    private StorageRouteCache routeCache = null;
+
+    /**
+     * 下载缓存，未启用时为null
+     */
+    private DownloadCache downloadCache = null;
+
+    /**
+     * 元数据缓存，未启用时为null
+     */
+    private MetadataCache metadataCache = null;
+
+    /**
+     * 去重上传的内容索引，未启用时为null
+     */
+    private volatile DedupIndex dedupIndex = null;
+
+    /**
+     * 并行分段下载的线程
+     */
+    private ThreadPoolExecutor downloadExecutor = null;
+
+    /**
+     * 生成从文件的线程
+     */
+    private ThreadPoolExecutor transformExecutor = null;
+
+    /**
+     * 执行对冲下载的线程，未启用对冲时为null
+     */
+    private ThreadPoolExecutor hedgeExecutor = null;
+
+    /**
+     * 最近的下载延迟，用于确定对冲等待时间
+     */
+    private LatencyTracker downloadLatency = null;
+
+    /**
+     * 对冲下载轮流选择第一个副本
+     */
+    private final AtomicInteger hedgeCursor = new AtomicInteger();
+
+    /**
+     * 断点续传检查点
+     */
+    private volatile UploadCheckpointStore checkpointStore = new MemoryUploadCheckpointStore();
+
+    /**
+     * 指标记录
+     */
+    private volatile FastdfsMetrics metrics = FastdfsMetrics.NOOP;
+
+    /**
+     * 日志ID关联的MDC键，未配置时为null
+     */
+    private String traceMdcKey = null;
+
     public FastdfsFileServiceImpl(FastdfsProperties fdfsProperties) {
         this.fastdfsProperties = fdfsProperties;
+        if (StringUtils.hasText(fdfsProperties.getTraceMdcKey())) {
+            this.traceMdcKey = fdfsProperties.getTraceMdcKey();
+        }
         this.initConnectionPool();
     }
 
@@ -44,81 +166,728 @@ public class FastdfsFileServiceImpl implements FastdfsFileService {
      * @Description:
      */
     public void initConnectionPool() {
-        String logId = UUID.randomUUID().toString();
-        LOGGER.info("[初始化线程池(Init)][" + logId + "][默认参数：minPoolSize="
-                + fastdfsProperties.getMinPoolSize() + ",maxPoolSize=" + fastdfsProperties.getMaxPoolSize() + ",waitTimes="
-                + fastdfsProperties.getWaitTimes() + "]");
-        this.connectionPool = new FdfsConnectionPool(fastdfsProperties.getTrackerList().stream()
-                .collect(Collectors.joining(",")), fastdfsProperties.getMinPoolSize(), fastdfsProperties.getMaxPoolSize(), fastdfsProperties.getWaitTimes());
+        OperationId logId = OperationIds.next();
+        if (fastdfsProperties.isLegacyWaitTimes()) {
+            LOGGER.warn("[初始化线程池(Init)][{}][wait-times已废弃，按{}ms作为max-wait-time，请改用max-wait-time]",
+                    logId, fastdfsProperties.getMaxWaitTime());
+        }
+        LOGGER.info("[初始化线程池(Init)][{}][默认参数：minPoolSize={},maxPoolSize={},maxWaitTime={}]", logId,
+                fastdfsProperties.getMinPoolSize(), fastdfsProperties.getMaxPoolSize(), fastdfsProperties.getMaxWaitTime());
+        this.connectionPool = new FdfsConnectionPool(fastdfsProperties);
+        this.storageConnectionPool = new StorageConnectionPool(fastdfsProperties);
+        if (fastdfsProperties.isRouteCacheEnabled()) {
+            this.routeCache = new StorageRouteCache(fastdfsProperties);
+        }
+        if (fastdfsProperties.getDownloadCache().isEnabled()) {
+            this.downloadCache = new DownloadCache(fastdfsProperties.getDownloadCache());
+        }
+        if (fastdfsProperties.getMetadataCache().isEnabled()) {
+            this.metadataCache = new MetadataCache(fastdfsProperties.getMetadataCache());
+        }
+        if (fastdfsProperties.getDedup().isEnabled()) {
+            this.dedupIndex = new MemoryDedupIndex(fastdfsProperties.getDedup().getMaxEntries());
+        }
+        int parallelism = Math.max(fastdfsProperties.getBatchParallelism(), 1);
+        this.batchExecutor = new ThreadPoolExecutor(parallelism, parallelism, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), new FastdfsThreadFactory("fastdfs-batch-", true));
+        this.batchExecutor.allowCoreThreadTimeOut(true);
+        int downloadThreads = Math.max(fastdfsProperties.getParallelDownload().getParallelism(), 1);
+        this.downloadExecutor = new ThreadPoolExecutor(downloadThreads, downloadThreads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), new FastdfsThreadFactory("fastdfs-download-", true));
+        this.downloadExecutor.allowCoreThreadTimeOut(true);
+        int transformThreads = Math.max(fastdfsProperties.getTransformThreads(), 1);
+        this.transformExecutor = new ThreadPoolExecutor(transformThreads, transformThreads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), new FastdfsThreadFactory("fastdfs-transform-", true));
+        this.transformExecutor.allowCoreThreadTimeOut(true);
+        FastdfsProperties.Hedge hedge = fastdfsProperties.getHedge();
+        if (hedge.isEnabled()) {
+            this.hedgeExecutor = new ThreadPoolExecutor(0, Math.max(hedge.getMaxThreads(), 2), 60, TimeUnit.SECONDS,
+                    new SynchronousQueue<>(), new FastdfsThreadFactory("fastdfs-hedge-", true));
+            this.downloadLatency = new LatencyTracker(1024, hedge.getPercentile());
+        }
+        String checkpointDir = fastdfsProperties.getResumable().getCheckpointDir();
+        if (checkpointDir != null && !checkpointDir.isEmpty()) {
+            this.checkpointStore = new FileUploadCheckpointStore(Paths.get(checkpointDir));
+        }
+    }
+
+    /**
+     * @Description: 关闭文件服务 1).停止批量、分段下载、从文件和对冲下载线程池，已提交的任务执行完毕后线程退出；
+     * 2).停止路由刷新、心跳和后台建连线程；3).关闭空闲连接，借出的连接归还时关闭
+     */
+    public void shutdown() {
+        OperationId logId = OperationIds.next();
+        LOGGER.info("[关闭文件服务(shutdown)][{}]", logId);
+        batchExecutor.shutdown();
+        downloadExecutor.shutdown();
+        transformExecutor.shutdown();
+        if (hedgeExecutor != null) {
+            hedgeExecutor.shutdown();
+        }
+        if (routeCache != null) {
+            routeCache.shutdown();
+        }
+        connectionPool.shutdown(logId);
+        storageConnectionPool.shutdown(logId);
     }
 
     @Override
     public String uploadWithoutGroup(byte[] fileBytes, String extName) throws FastdfsException {
-        String logId = UUID.randomUUID().toString();
-        /** 封装文件信息参数 */
-        NameValuePair[] metaList = new NameValuePair[]{new NameValuePair(
-                "fileName", "")};
-        TrackerServer trackerServer = null;
+        return uploadWithGroup(fileBytes, null, extName);
+    }
+
+
+    @Override
+    public String uploadWithGroup(byte[] fileBytes, String group, String extName) throws FastdfsException {
+        return uploadWithGroup(fileBytes, group, extName, null, Deadline.NONE);
+    }
+
+    @Override
+    public String uploadWithGroup(byte[] fileBytes, String group, String extName, Duration timeout) throws FastdfsException {
+        Assert.notNull(timeout, "Timeout must not be null.");
+        return uploadWithGroup(fileBytes, group, extName, null, Deadline.after(timeout));
+    }
+
+    @Override
+    public String uploadWithGroup(byte[] fileBytes, String group, String extName, Map<String, String> metadata)
+            throws FastdfsException {
+        return uploadWithGroup(fileBytes, group, extName, metadata, Deadline.NONE);
+    }
+
+    private String uploadWithGroup(byte[] fileBytes, String group, String extName, Map<String, String> metadata,
+                                   Deadline deadline) throws FastdfsException {
+        Assert.notNull(fileBytes, "File bytes must not be null.");
+        UploadCallback callback = out -> {
+            out.write(fileBytes);
+            return 0;
+        };
+        if (dedupIndex == null) {
+            return upload(group, extName, fileBytes.length, callback, metadata, deadline);
+        }
+        MessageDigest digest = newDigest();
+        digest.update(fileBytes);
+        return uploadDeduplicated(group, extName, toHex(digest.digest()), metadata,
+                meta -> upload(group, extName, fileBytes.length, callback, meta, deadline));
+    }
+
+    @Override
+    public String upload(InputStream inputStream, long size, String group, String extName) throws FastdfsException {
+        return upload(inputStream, size, group, extName, null, Deadline.NONE);
+    }
+
+    @Override
+    public String upload(InputStream inputStream, long size, String group, String extName, Duration timeout) throws FastdfsException {
+        Assert.notNull(timeout, "Timeout must not be null.");
+        return upload(inputStream, size, group, extName, null, Deadline.after(timeout));
+    }
+
+    @Override
+    public String upload(InputStream inputStream, long size, String group, String extName, Map<String, String> metadata)
+            throws FastdfsException {
+        return upload(inputStream, size, group, extName, metadata, Deadline.NONE);
+    }
+
+    private String upload(InputStream inputStream, long size, String group, String extName, Map<String, String> metadata,
+                          Deadline deadline) throws FastdfsException {
+        Assert.notNull(inputStream, "Input stream must not be null.");
+        Assert.isTrue(size >= 0, "File size must not be negative.");
+        if (dedupIndex == null) {
+            return upload(group, extName, size,
+                    new InputStreamUploadCallback(inputStream, size, fastdfsProperties.getUploadBufferSize()), metadata, deadline);
+        }
+        /** 流只能读取一次，先写入临时文件并计算摘要，命中时不上传，未命中时从临时文件上传 */
+        Path spool = null;
+        try {
+            spool = Files.createTempFile("fastdfs-dedup", ".tmp");
+            MessageDigest digest = newDigest();
+            try (OutputStream out = Files.newOutputStream(spool)) {
+                new InputStreamUploadCallback(new DigestInputStream(inputStream, digest), size,
+                        fastdfsProperties.getUploadBufferSize()).send(out);
+            }
+            try (FileChannel fileChannel = FileChannel.open(spool, StandardOpenOption.READ)) {
+                return uploadDeduplicated(group, extName, toHex(digest.digest()), metadata, meta -> upload(group, extName,
+                        size, new FileChannelUploadCallback(fileChannel, size), meta, deadline));
+            }
+        } catch (IOException e) {
+            LOGGER.error("[去重上传（dedup)][写入临时文件异常：{}][异常：{}]", spool, e.toString());
+            throw ERRORS.SYS_ERROR.ERROR();
+        } finally {
+            deleteSpool(spool);
+        }
+    }
+
+    private static void deleteSpool(Path spool) {
+        if (spool == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(spool);
+        } catch (IOException e) {
+            LOGGER.warn("[去重上传（dedup)][删除临时文件异常：{}][异常：{}]", spool, e.toString());
+        }
+    }
+
+    @Override
+    public String upload(Path path, String group, String extName) throws FastdfsException {
+        return upload(path, group, extName, null);
+    }
+
+    @Override
+    public String upload(Path path, String group, String extName, Map<String, String> metadata) throws FastdfsException {
+        Assert.notNull(path, "File path must not be null.");
+        try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = fileChannel.size();
+            if (dedupIndex == null) {
+                return upload(group, extName, size, new FileChannelUploadCallback(fileChannel, size), metadata, Deadline.NONE);
+            }
+            /** 先读一遍文件计算摘要，未命中时再通过transferTo上传 */
+            String hex = digest(fileChannel, size);
+            return uploadDeduplicated(group, extName, hex, metadata, meta -> upload(group, extName, size,
+                    new FileChannelUploadCallback(fileChannel, size), meta, Deadline.NONE));
+        } catch (IOException e) {
+            LOGGER.error("[上传文件（upload)][读取本地文件异常：{}][异常：{}]", path, e.toString());
+            throw ERRORS.SYS_ERROR.ERROR();
+        }
+    }
+
+    @Override
+    public String upload(File file, String group, String extName) throws FastdfsException {
+        Assert.notNull(file, "File must not be null.");
+        return upload(file.toPath(), group, extName);
+    }
+
+    @Override
+    public String uploadSlave(String masterFileId, String prefix, byte[] file, String extName) throws FastdfsException {
+        Assert.hasText(masterFileId, "Master file id must not be empty.");
+        Assert.hasText(prefix, "Prefix must not be empty.");
+        Assert.notNull(file, "File bytes must not be null.");
+        OperationId logId = OperationIds.next(traceMdcKey);
+        long start = System.nanoTime();
+        String fileId = null;
+        /** 从文件只能上传到主文件的源storage */
+        StorageNode node = null;
         try {
+            node = updateNode(logId, masterFileId, Deadline.NONE);
+            try (ConnectionLease<PooledStorageServer> storage = leaseStorage(node, logId, Deadline.NONE)) {
+                fileId = uploadSlave(new StorageClient1(null, storage.get()), masterFileId, prefix, file, extName);
+                storage.markReusable();
+            }
+            return fileId;
+        } catch (MyException | IOException e) {
+            LOGGER.error("[上传从文件（uploadSlave)][{}][master:{}][异常：{}]", logId, masterFileId, e.toString());
+            throw storageError(node, Deadline.NONE, ERRORS.UPLOAD_RESULT_ERROR.ERROR());
+        } finally {
+            metrics.recordOperation("upload", groupOf(masterFileId), System.nanoTime() - start,
+                    fileId != null ? file.length : -1);
+        }
+    }
 
-            /** 获取fastdfs服务器连接 */
-            trackerServer = connectionPool.checkout(logId);
-            StorageServer storageServer = null;
-            StorageClient1 client1 = new StorageClient1(trackerServer, storageServer);
+    @Override
+    public SlaveUploadResult uploadWithSlaves(byte[] file, String group, String extName, List<FileTransform> transforms)
+            throws FastdfsException {
+        Assert.notNull(file, "File bytes must not be null.");
+        Assert.notNull(transforms, "Transforms must not be null.");
+        OperationId logId = OperationIds.next(traceMdcKey);
+        long start = System.nanoTime();
 
-            /** 以文件字节的方式上传 */
-            String[] results = client1.upload_file(fileBytes,
-                    extName, metaList);
+        /** 上传主文件的同时在transform线程池中生成从文件 */
+        List<Future<byte[]>> variants = new ArrayList<>(transforms.size());
+        for (FileTransform transform : transforms) {
+            variants.add(submitTransform(transform, file));
+        }
 
-            /** 上传完毕及时释放连接 */
-            connectionPool.checkin(trackerServer, logId);
+        /** 主文件和从文件在同一个storage节点的同一个连接上顺序上传，只查询一次tracker */
+        BatchResult<String>[] results = newResults(transforms.size() + 1);
+        List<Integer> indexes = new ArrayList<>(results.length);
+        for (int i = 0; i < results.length; i++) {
+            indexes.add(i);
+        }
+        long[] bytes = new long[1];
+        try {
+            StorageNode node = storeNode(logId, group, Deadline.NONE);
+            runOnNode(logId, node, indexes, results, (client1, index) -> {
+                if (index == 0) {
+                    String[] uploaded = client1.upload_file(group, file.length, out -> {
+                        out.write(file);
+                        return 0;
+                    }, extName, null);
+                    if (uploaded == null || uploaded.length != 2) {
+                        throw ERRORS.UPLOAD_RESULT_ERROR.ERROR();
+                    }
+                    bytes[0] += file.length;
+                    return uploaded[0] + "/" + uploaded[1];
+                }
+                if (!results[0].isSuccess()) {
+                    throw results[0].getError();
+                }
+                FileTransform transform = transforms.get(index - 1);
+                byte[] variant = awaitTransform(logId, transform, variants.get(index - 1));
+                String slave = uploadSlave(client1, results[0].getValue(), transform.getPrefix(), variant,
+                        transform.getExtName());
+                bytes[0] += variant.length;
+                return slave;
+            });
+        } catch (FastdfsException e) {
+            fail(results, indexes, e);
+        } finally {
+            for (Future<byte[]> variant : variants) {
+                variant.cancel(true);
+            }
+            metrics.recordOperation("upload", group == null ? "" : group, System.nanoTime() - start,
+                    results[0] != null && results[0].isSuccess() ? bytes[0] : -1);
+        }
+        if (!results[0].isSuccess()) {
+            throw results[0].getError();
+        }
+        /** 从文件结果的位置与transforms一致 */
+        List<BatchResult<String>> slaves = new ArrayList<>(transforms.size());
+        for (int i = 1; i < results.length; i++) {
+            slaves.add(results[i].isSuccess() ? BatchResult.success(i - 1, results[i].getValue())
+                    : BatchResult.failure(i - 1, results[i].getError()));
+        }
+        return new SlaveUploadResult(results[0].getValue(), slaves);
+    }
 
-            /** results[0]:组名，results[1]:远程文件名 */
-            if (results != null && results.length == 2) {
-                return results[0] + "/" + results[1];
+    /**
+     * @return 从文件ID，storage返回错误时抛出UPLOAD_RESULT_ERROR
+     */
+    private static String uploadSlave(StorageClient1 client1, String masterFileId, String prefix, byte[] file,
+                                      String extName) throws IOException, MyException {
+        String fileId = client1.upload_file1(masterFileId, prefix, file.length, out -> {
+            out.write(file);
+            return 0;
+        }, extName, null);
+        if (fileId == null) {
+            throw ERRORS.UPLOAD_RESULT_ERROR.ERROR();
+        }
+        return fileId;
+    }
+
+    private Future<byte[]> submitTransform(FileTransform transform, byte[] file) {
+        try {
+            return transformExecutor.submit(() -> transform.transform(file));
+        } catch (RejectedExecutionException e) {
+            CompletableFuture<byte[]> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+    }
+
+    /**
+     * @return 从文件内容，生成失败时抛出TRANSFORM_ERROR，不影响storage连接
+     */
+    private static byte[] awaitTransform(OperationId logId, FileTransform transform, Future<byte[]> variant) {
+        try {
+            byte[] bytes = variant.get();
+            if (bytes == null) {
+                throw ERRORS.TRANSFORM_ERROR.ERROR();
+            }
+            return bytes;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw ERRORS.TRANSFORM_ERROR.ERROR();
+        } catch (ExecutionException e) {
+            LOGGER.error("[生成从文件（transform)][{}][prefix:{}][异常：{}]", logId, transform.getPrefix(),
+                    e.getCause().toString());
+            throw ERRORS.TRANSFORM_ERROR.ERROR();
+        }
+    }
+
+    @Override
+    public String uploadResumable(String uploadId, Path path, String group, String extName) throws FastdfsException {
+        Assert.hasText(uploadId, "Upload id must not be empty.");
+        Assert.notNull(path, "File path must not be null.");
+        OperationId logId = OperationIds.next(traceMdcKey);
+        long start = System.nanoTime();
+        long size = -1;
+        String fileId = null;
+        try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+            size = fileChannel.size();
+            long modified = Files.getLastModifiedTime(path).toMillis();
+            fileId = doUploadResumable(logId, uploadId, fileChannel, size, modified, group, extName);
+            return fileId;
+        } catch (IOException e) {
+            LOGGER.error("[断点续传（uploadResumable)][{}][读取本地文件异常：{}][异常：{}]", logId, path, e.toString());
+            throw ERRORS.SYS_ERROR.ERROR();
+        } finally {
+            metrics.recordOperation("upload", fileId != null ? groupOf(fileId) : group,
+                    System.nanoTime() - start, fileId != null ? size : -1);
+        }
+    }
+
+    @Override
+    public boolean abortResumableUpload(String uploadId) throws FastdfsException {
+        Assert.hasText(uploadId, "Upload id must not be empty.");
+        UploadCheckpoint checkpoint = checkpointStore.load(uploadId);
+        if (checkpoint == null) {
+            return false;
+        }
+        deleteIfExists(checkpoint.getFileId());
+        checkpointStore.remove(uploadId);
+        return true;
+    }
+
+    /**
+     * @Description: 断点续传 1).有检查点且源文件未变化时从检查点继续，否则以第一个分块创建appender文件；
+     * 2).其余分块由batch线程预先读取，当前线程按顺序追加，每块成功后保存检查点；
+     * 3).全部追加后核对storage上的文件大小，删除检查点
+     */
+    private String doUploadResumable(OperationId logId, String uploadId, FileChannel fileChannel, long size, long modified,
+                                     String group, String extName) throws FastdfsException, IOException {
+        FastdfsProperties.Resumable config = fastdfsProperties.getResumable();
+        int chunkSize = Math.max(config.getChunkSize(), 1);
+        UploadCheckpoint checkpoint = resume(logId, uploadId, size, modified);
+        /** 续传时检查点之后的分块可能已经写入但未保存检查点，第一个分块先核对文件大小 */
+        boolean verify = checkpoint != null;
+        if (checkpoint == null) {
+            byte[] first = readChunk(fileChannel, 0, (int) Math.min(chunkSize, size));
+            /** 创建appender文件不是幂等操作，超时后重试可能留下无检查点的孤儿文件，与普通上传一样不重试 */
+            String fileId = createAppender(logId, group, extName, first);
+            checkpoint = new UploadCheckpoint(uploadId, fileId, size, modified, first.length);
+            checkpointStore.save(checkpoint);
+        }
+        String fileId = checkpoint.getFileId();
+        if (LOGGER.isInfoEnabled()) {
+            LOGGER.info("[断点续传（uploadResumable)][{}][uploadId:{},fileId:{},offset:{}/{}]",
+                    logId, uploadId, fileId, checkpoint.getOffset(), size);
+        }
+
+        Deque<Future<byte[]>> chunks = new ArrayDeque<>();
+        long next = checkpoint.getOffset();
+        try {
+            while (checkpoint.getOffset() < size) {
+                while (chunks.size() <= Math.max(config.getReadAhead(), 0) && next < size) {
+                    long position = next;
+                    int length = (int) Math.min(chunkSize, size - position);
+                    chunks.add(batchExecutor.submit(() -> readChunk(fileChannel, position, length)));
+                    next += length;
+                }
+                byte[] chunk = await(chunks.poll());
+                long offset = checkpoint.getOffset();
+                boolean[] retried = {verify};
+                withRetry("uploadResumable", logId, Deadline.NONE, () -> {
+                    /** 重试时上一次追加可能已经写入，先核对文件大小 */
+                    boolean check = retried[0];
+                    retried[0] = true;
+                    appendChunk(logId, fileId, offset, chunk, check);
+                    return null;
+                }, null);
+                verify = false;
+                checkpoint.setOffset(offset + chunk.length);
+                checkpointStore.save(checkpoint);
+            }
+        } finally {
+            for (Future<byte[]> chunk : chunks) {
+                chunk.cancel(false);
+            }
+        }
+
+        /** 提交：核对storage上的文件大小后删除检查点 */
+        FileInfo info = queryFileInfo(logId, fileId);
+        if (info == null || info.getFileSize() != size) {
+            LOGGER.error("[断点续传（uploadResumable)][{}][fileId:{}][文件大小不一致：{}/{}，放弃该appender文件]",
+                    logId, fileId, info == null ? -1 : info.getFileSize(), size);
+            abortQuietly(logId, checkpoint);
+            throw ERRORS.UPLOAD_RESULT_ERROR.ERROR();
+        }
+        checkpointStore.remove(uploadId);
+        return fileId;
+    }
+
+    /**
+     * @return 可以继续使用的检查点；没有检查点、源文件已变化或appender文件已不存在时返回null
+     */
+    private UploadCheckpoint resume(OperationId logId, String uploadId, long size, long modified) throws FastdfsException {
+        UploadCheckpoint checkpoint = checkpointStore.load(uploadId);
+        if (checkpoint == null) {
+            return null;
+        }
+        if (checkpoint.getSize() != size || checkpoint.getSourceModified() != modified) {
+            LOGGER.info("[断点续传（uploadResumable)][{}][uploadId:{}][源文件已变化，重新上传]", logId, uploadId);
+            abortQuietly(logId, checkpoint);
+            return null;
+        }
+        FileInfo info = withRetry("uploadResumable", logId, Deadline.NONE,
+                () -> queryFileInfo(logId, checkpoint.getFileId()), null);
+        if (info == null || info.getFileSize() < checkpoint.getOffset()) {
+            LOGGER.info("[断点续传（uploadResumable)][{}][uploadId:{}][appender文件不存在或小于检查点，重新上传]", logId, uploadId);
+            abortQuietly(logId, checkpoint);
+            return null;
+        }
+        return checkpoint;
+    }
+
+    /**
+     * @Description: 删除appender文件和检查点，失败只记录日志
+     */
+    private void abortQuietly(OperationId logId, UploadCheckpoint checkpoint) {
+        try {
+            deleteIfExists(checkpoint.getFileId());
+        } catch (FastdfsException e) {
+            LOGGER.error("[断点续传（uploadResumable)][{}][删除appender文件失败：{}][异常：{}]",
+                    logId, checkpoint.getFileId(), e.toString());
+        }
+        checkpointStore.remove(checkpoint.getUploadId());
+    }
+
+    /**
+     * @return appender文件ID
+     */
+    private String createAppender(OperationId logId, String group, String extName, byte[] chunk) throws FastdfsException {
+        StorageNode node = storeNode(logId, group, Deadline.NONE);
+        String fileId;
+        try (ConnectionLease<PooledStorageServer> storage = leaseStorage(node, logId, Deadline.NONE)) {
+            StorageClient1 client1 = new StorageClient1(null, storage.get());
+            fileId = client1.upload_appender_file1(group, chunk.length, (UploadCallback) out -> {
+                out.write(chunk);
+                return 0;
+            }, extName, null);
+            storage.markReusable();
+        } catch (IOException | MyException e) {
+            LOGGER.error("[断点续传（uploadResumable)][{}][创建appender文件异常：{}]", logId, e.toString());
+            throw storageError(node, Deadline.NONE, ERRORS.FASTDFS_CONNECTION_FAIL.ERROR());
+        }
+        if (fileId == null) {
+            throw ERRORS.UPLOAD_RESULT_ERROR.ERROR();
+        }
+        return fileId;
+    }
+
+    /**
+     * @param offset 分块在文件中的偏移量
+     * @param verify 是否先核对storage上的文件大小：等于offset时追加；等于offset+分块大小说明上次已写入，覆盖写一次；
+     *               介于两者之间或更大时截断到offset后追加
+     */
+    private void appendChunk(OperationId logId, String fileId, long offset, byte[] chunk, boolean verify)
+            throws FastdfsException {
+        StorageNode node = updateNode(logId, fileId, Deadline.NONE);
+        int result;
+        try (ConnectionLease<PooledStorageServer> storage = leaseStorage(node, logId, Deadline.NONE)) {
+            StorageClient1 client1 = new StorageClient1(null, storage.get());
+            long current = offset;
+            if (verify) {
+                FileInfo info = client1.query_file_info1(fileId);
+                if (info == null) {
+                    storage.markReusable();
+                    throw client1.getErrorCode() == 2 ? ERRORS.NOT_EXIST_FILE.ERROR() : ERRORS.UPLOAD_RESULT_ERROR.ERROR();
+                }
+                current = info.getFileSize();
+            }
+            if (current < offset) {
+                storage.markReusable();
+                LOGGER.error("[断点续传（uploadResumable)][{}][fileId:{}][文件大小{}小于已确认的偏移量{}]",
+                        logId, fileId, current, offset);
+                throw ERRORS.UPLOAD_RESULT_ERROR.ERROR();
+            } else if (current > offset && current == offset + chunk.length) {
+                result = client1.modify_file1(fileId, offset, chunk);
             } else {
-                /** 文件系统上传返回结果错误 */
+                result = current > offset ? client1.truncate_file1(fileId, offset) : 0;
+                if (result == 0) {
+                    result = client1.append_file1(fileId, chunk);
+                }
+            }
+            storage.markReusable();
+        } catch (IOException | MyException e) {
+            LOGGER.error("[断点续传（uploadResumable)][{}][fileId:{},offset:{}][异常：{}]", logId, fileId, offset, e.toString());
+            throw storageError(node, Deadline.NONE, ERRORS.FASTDFS_CONNECTION_FAIL.ERROR());
+        }
+        if (result != 0) {
+            LOGGER.error("[断点续传（uploadResumable)][{}][fileId:{},offset:{}][storage返回错误：{}]", logId, fileId, offset, result);
+            throw ERRORS.UPLOAD_RESULT_ERROR.ERROR();
+        }
+    }
+
+    /**
+     * @return 源storage上的文件信息，文件不存在时返回null
+     */
+    private FileInfo queryFileInfo(OperationId logId, String fileId) throws FastdfsException {
+        StorageNode node = updateNode(logId, fileId, Deadline.NONE);
+        try (ConnectionLease<PooledStorageServer> storage = leaseStorage(node, logId, Deadline.NONE)) {
+            StorageClient1 client1 = new StorageClient1(null, storage.get());
+            FileInfo info = client1.query_file_info1(fileId);
+            storage.markReusable();
+            if (info == null && client1.getErrorCode() != 2) {
                 throw ERRORS.UPLOAD_RESULT_ERROR.ERROR();
             }
+            return info;
+        } catch (IOException | MyException e) {
+            LOGGER.error("[查询文件信息（queryFileInfo)][{}][fileId:{}][异常：{}]", logId, fileId, e.toString());
+            throw storageError(node, Deadline.NONE, ERRORS.FASTDFS_CONNECTION_FAIL.ERROR());
+        }
+    }
+
+    /**
+     * @param digest   内容摘要（十六进制）
+     * @param uploader 未命中时上传，参数为加入摘要后的元数据
+     * @Description: 去重上传 1).索引中有相同组名、后缀名、内容和元数据的文件时直接返回，verify-hit时先确认文件仍然存在；
+     * 2).未命中时上传，摘要作为元数据一起写入，上传成功后记录到索引；
+     * 3).元数据属于文件本身，命中时合并元数据会改写其它上传方的文件，因此元数据不同的上传不共用文件
+     */
+    private String uploadDeduplicated(String group, String extName, String digest, Map<String, String> metadata,
+                                      Function<Map<String, String>, String> uploader) throws FastdfsException {
+        String key = dedupKey(group, extName, digest, metadata);
+        String existing = dedupIndex.get(key);
+        if (existing != null && existsForDedup(existing)) {
+            LOGGER.debug("[去重上传（dedup)][key:{}][命中：{}]", key, existing);
+            return existing;
+        }
+        Map<String, String> meta = metadata == null ? new LinkedHashMap<>() : new LinkedHashMap<>(metadata);
+        meta.put(digestMetadataName(), digest);
+        String fileId = uploader.apply(meta);
+        dedupIndex.put(key, fileId);
+        return fileId;
+    }
+
+    /**
+     * @return 不需要确认或源storage上仍存在该文件时返回true；查询失败时按未命中处理，不移除索引
+     */
+    private boolean existsForDedup(String fileId) {
+        if (!fastdfsProperties.getDedup().isVerifyHit()) {
+            return true;
+        }
+        OperationId logId = OperationIds.next(traceMdcKey);
+        try {
+            if (queryFileInfo(logId, fileId) != null) {
+                return true;
+            }
+            dedupIndex.removeFile(fileId);
         } catch (FastdfsException e) {
+            LOGGER.error("[去重上传（dedup)][{}][fileId:{}][确认文件异常：{}]", logId, fileId, e.toString());
+        }
+        return false;
+    }
 
-            LOGGER.error("[上传文件（upload)][" + logId + "][异常：" + e + "]");
-            throw e;
+    /**
+     * @return 组名:后缀名:内容摘要[:元数据摘要]，组名为空时不指定group的上传只命中不指定group上传的文件
+     */
+    private String dedupKey(String group, String extName, String digest, Map<String, String> metadata) {
+        String key = (group == null ? "" : group) + ':' + (extName == null ? "" : extName) + ':' + digest;
+        if (metadata == null || metadata.isEmpty()) {
+            return key;
+        }
+        /** 按名称排序后计算，与元数据的传入顺序无关 */
+        MessageDigest metaDigest = newDigest();
+        for (Map.Entry<String, String> entry : new TreeMap<>(metadata).entrySet()) {
+            metaDigest.update(entry.getKey().getBytes(StandardCharsets.UTF_8));
+            metaDigest.update((byte) 0);
+            metaDigest.update(String.valueOf(entry.getValue()).getBytes(StandardCharsets.UTF_8));
+            metaDigest.update((byte) 0);
+        }
+        return key + ':' + toHex(metaDigest.digest());
+    }
 
-        } catch (SocketTimeoutException e) {
-            LOGGER.error("[上传文件（upload)][" + logId + "][异常：" + e + "]");
-            throw ERRORS.WAIT_IDLECONNECTION_TIMEOUT.ERROR();
-        } catch (Exception e) {
+    /**
+     * @return 摘要的元数据名称，如sha256
+     */
+    private String digestMetadataName() {
+        return fastdfsProperties.getDedup().getAlgorithm().toLowerCase(Locale.ROOT).replace("-", "");
+    }
 
-            LOGGER.error("[上传文件（upload)][" + logId + "][异常：" + e + "]");
-            connectionPool.drop(trackerServer, logId);
-            throw ERRORS.SYS_ERROR.ERROR();
+    private MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(fastdfsProperties.getDedup().getAlgorithm());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
 
+    /**
+     * @return 文件内容的摘要（十六进制），按位置读取，不改变通道的当前位置
+     */
+    private String digest(FileChannel fileChannel, long size) throws IOException {
+        MessageDigest digest = newDigest();
+        ByteBuffer buffer = ByteBuffer.allocate(Math.max(fastdfsProperties.getUploadBufferSize(), 4096));
+        long position = 0;
+        while (position < size) {
+            buffer.clear();
+            int n = fileChannel.read(buffer, position);
+            if (n < 0) {
+                throw new IOException("File truncated at " + position + " bytes, expected " + size);
+            }
+            buffer.flip();
+            digest.update(buffer);
+            position += n;
         }
+        return toHex(digest.digest());
+    }
 
+    private static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[2 * i] = Character.forDigit((bytes[i] >> 4) & 0xf, 16);
+            chars[2 * i + 1] = Character.forDigit(bytes[i] & 0xf, 16);
+        }
+        return new String(chars);
     }
 
+    private static byte[] readChunk(FileChannel fileChannel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (fileChannel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of file at " + (position + buffer.position()));
+            }
+        }
+        return buffer.array();
+    }
 
-    @Override
-    public String uploadWithGroup(byte[] fileBytes, String group, String extName) throws FastdfsException {
-        String logId = UUID.randomUUID().toString();
-        /** 封装文件信息参数 */
-        NameValuePair[] metaList = new NameValuePair[]{new NameValuePair(
-                "fileName", "")};
-        TrackerServer trackerServer = null;
+    private static byte[] await(Future<byte[]> chunk) throws IOException {
         try {
+            return chunk.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading chunk", e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * @param size     文件大小
+     * @param callback 负责按size写出文件内容
+     * @param metadata 元数据，为空时不设置
+     * @param deadline 截止时间
+     * @Description: 上传文件并记录耗时
+     */
+    private String upload(String group, String extName, long size, UploadCallback callback,
+                          Map<String, String> metadata, Deadline deadline) throws FastdfsException {
+        long start = System.nanoTime();
+        String fileId = null;
+        try {
+            fileId = doUpload(group, extName, size, callback, metadata, deadline);
+            return fileId;
+        } finally {
+            metrics.recordOperation("upload", fileId != null ? groupOf(fileId) : group,
+                    System.nanoTime() - start, fileId != null ? size : -1);
+        }
+    }
 
-            /** 获取fastdfs服务器连接 */
-            trackerServer = connectionPool.checkout(logId);
-            StorageServer storageServer = null;
-            StorageClient1 client1 = new StorageClient1(trackerServer, storageServer);
+    /**
+     * @Description: 上传文件，文件内容由callback直接写入storage连接
+     */
+    private String doUpload(String group, String extName, long size, UploadCallback callback,
+                            Map<String, String> metadata, Deadline deadline) throws FastdfsException {
+        OperationId logId = OperationIds.next(traceMdcKey);
+        /** 封装文件信息参数，没有元数据时为null，上传后不再发送设置元数据的请求 */
+        NameValuePair[] metaList = toMetaList(metadata);
+        StorageNode node = null;
+        try {
+
+            /** 查询上传节点，获取storage连接 */
+            node = storeNode(logId, group, deadline);
+            String[] results;
+            try (ConnectionLease<PooledStorageServer> storage = leaseStorage(node, logId, deadline)) {
+                StorageClient1 client1 = new StorageClient1(null, storage.get());
 
-            /** 以文件字节的方式上传 */
-            String[] results = client1.upload_file(group, fileBytes,
-                    extName, metaList);
+                /** 以回调的方式上传 */
+                try (Deadline.Watch watch = deadline.watch(storage.get().getSocket())) {
+                    results = client1.upload_file(group, size, callback, extName, metaList);
 
-            /** 上传完毕及时释放连接 */
-            connectionPool.checkin(trackerServer, logId);
+                    /** 上传完毕及时释放连接，看门狗已关闭socket时丢弃 */
+                    if (watch.disarm()) {
+                        storage.markReusable();
+                    }
+                }
+            }
 
             /** results[0]:组名，results[1]:远程文件名 */
             if (results != null && results.length == 2) {
@@ -129,17 +898,16 @@ public class FastdfsFileServiceImpl implements FastdfsFileService {
             }
         } catch (FastdfsException e) {
 
-            LOGGER.error("[上传文件（upload)][" + logId + "][异常：" + e + "]");
+            LOGGER.error("[上传文件（upload)][{}][异常：{}]", logId, e.toString());
             throw e;
 
         } catch (SocketTimeoutException e) {
-            LOGGER.error("[上传文件（upload)][" + logId + "][异常：" + e + "]");
-            throw ERRORS.WAIT_IDLECONNECTION_TIMEOUT.ERROR();
+            LOGGER.error("[上传文件（upload)][{}][异常：{}]", logId, e.toString());
+            throw storageError(node, deadline, ERRORS.WAIT_IDLECONNECTION_TIMEOUT.ERROR());
         } catch (Exception e) {
 
-            LOGGER.error("[上传文件（upload)][" + logId + "][异常：" + e + "]");
-            connectionPool.drop(trackerServer, logId);
-            throw ERRORS.SYS_ERROR.ERROR();
+            LOGGER.error("[上传文件（upload)][{}][异常：{}]", logId, e.toString());
+            throw storageError(node, deadline, ERRORS.SYS_ERROR.ERROR());
 
         }
 
@@ -153,25 +921,92 @@ public class FastdfsFileServiceImpl implements FastdfsFileService {
      */
     @Override
     public void delete(String remote_filename) throws FastdfsException {
+        delete(remote_filename, Deadline.NONE);
+    }
 
-        String logId = UUID.randomUUID().toString();
-        LOGGER.info("[ 删除文件（deleteFile）][" + logId + "][parms：remote_filename=" + remote_filename + "]");
-        TrackerServer trackerServer = null;
-
+    @Override
+    public void delete(String remote_filename, Duration timeout) throws FastdfsException {
+        Assert.notNull(timeout, "Timeout must not be null.");
+        delete(remote_filename, Deadline.after(timeout));
+    }
+
+    private void delete(String remote_filename, Deadline deadline) {
+        long start = System.nanoTime();
+        boolean deleted = doDelete(remote_filename, deadline);
+        metrics.recordOperation("delete", groupOf(remote_filename), System.nanoTime() - start, deleted ? 0 : -1);
+    }
+
+    /**
+     * @return 是否删除成功，失败原因只记录日志
+     */
+    private boolean doDelete(String remote_filename, Deadline deadline) {
+
+        OperationId logId = OperationIds.next(traceMdcKey);
+        LOGGER.debug("[ 删除文件（deleteFile）][{}][parms：remote_filename={}]", logId, remote_filename);
         try {
-            /** 获取可用的tracker,并创建存储server */
-            trackerServer = connectionPool.checkout(logId);
-            StorageServer storageServer = null;
-            StorageClient1 client1 = new StorageClient1(trackerServer,
-                    storageServer);
-            /** 删除文件,并释放 trackerServer */
-            int result = client1.delete_file1(remote_filename);
+            deleteFile(logId, remote_filename, deadline);
+            return true;
+        } catch (FastdfsException e) {
+            LOGGER.error("[ 删除文件（deleteFile）][{}][异常：{}]", logId, e.toString());
+            return false;
+        } finally {
+            invalidateCaches(remote_filename);
+        }
+    }
 
-            /** 上传完毕及时释放连接 */
-            connectionPool.checkin(trackerServer, logId);
+    @Override
+    public boolean deleteIfExists(String fileId) throws FastdfsException {
+        Assert.notNull(fileId, "File id must not be null.");
+        OperationId logId = OperationIds.next(traceMdcKey);
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            boolean[] retried = {false};
+            boolean existed = withRetry("deleteIfExists", logId, Deadline.NONE, () -> {
+                /** 上一次删除可能已经执行、只是应答丢失，重试时文件不存在也视为本次删除成功 */
+                boolean retry = retried[0];
+                retried[0] = true;
+                try {
+                    deleteFile(logId, fileId, Deadline.NONE);
+                    return true;
+                } catch (FastdfsException e) {
+                    if (ERRORS.NOT_EXIST_FILE.matches(e)) {
+                        return retry;
+                    }
+                    throw e;
+                }
+            }, null);
+            success = true;
+            return existed;
+        } finally {
+            invalidateCaches(fileId);
+            metrics.recordOperation("delete", groupOf(fileId), System.nanoTime() - start, success ? 0 : -1);
+        }
+    }
 
-            LOGGER.info("[ 删除文件（deleteFile）--调用fastdfs客户端返回结果][" + logId
-                    + "][results：result=" + result + "]");
+    /**
+     * @throws FastdfsException 文件不存在时为NOT_EXIST_FILE
+     * @Description: 在文件的源storage上删除文件
+     */
+    private void deleteFile(OperationId logId, String remote_filename, Deadline deadline) throws FastdfsException {
+        /** 查询文件源storage，获取storage连接 */
+        StorageNode node = updateNode(logId, remote_filename, deadline);
+        try {
+            int result;
+            try (ConnectionLease<PooledStorageServer> storage = leaseStorage(node, logId, deadline)) {
+                StorageClient1 client1 = new StorageClient1(null, storage.get());
+                /** 删除文件 */
+                try (Deadline.Watch watch = deadline.watch(storage.get().getSocket())) {
+                    result = client1.delete_file1(remote_filename);
+
+                    /** 删除完毕及时释放连接，看门狗已关闭socket时丢弃 */
+                    if (watch.disarm()) {
+                        storage.markReusable();
+                    }
+                }
+            }
+
+            LOGGER.debug("[ 删除文件（deleteFile）--调用fastdfs客户端返回结果][{}][results：result={}]", logId, result);
 
             /** 0:文件删除成功，2：文件不存在 ，其它：文件删除出错 */
             if (result == 2) {
@@ -179,37 +1014,1067 @@ public class FastdfsFileServiceImpl implements FastdfsFileService {
             } else if (result != 0) {
                 throw ERRORS.DELETE_RESULT_ERROR.ERROR();
             }
-        } catch (FastdfsException | MyException | IOException e) {
-            LOGGER.error("[ 删除文件（deleteFile）][" + logId + "][异常：" + e + "]");
+        } catch (MyException | IOException e) {
+            LOGGER.error("[ 删除文件（deleteFile）][{}][异常：{}]", logId, e.toString());
+            throw storageError(node, deadline, ERRORS.DELETE_RESULT_ERROR.ERROR());
         }
     }
 
 
     @Override
     public byte[] download(String fileId) throws FastdfsException {
-        Assert.notNull(fileId, "File id must not be null.");
-        String logId = UUID.randomUUID().toString();
-        TrackerServer trackerServer = null;
-        /** 获取fastdfs服务器连接 */
-        trackerServer = connectionPool.checkout(logId);
-        StorageServer storageServer = null;
-        StorageClient1 client1 = new StorageClient1(trackerServer, storageServer);
+        return download(fileId, Deadline.NONE);
+    }
+
+    @Override
+    public byte[] download(String fileId, Duration timeout) throws FastdfsException {
+        Assert.notNull(timeout, "Timeout must not be null.");
+        return download(fileId, Deadline.after(timeout));
+    }
 
+    private byte[] download(String fileId, Deadline deadline) throws FastdfsException {
+        Assert.notNull(fileId, "File id must not be null.");
+        long start = System.nanoTime();
         byte[] file = null;
         try {
-            file = client1.download_file1(fileId);
-        } catch (IOException | MyException e) {
-            LOGGER.error("Error while downloading file.", e);
-            throw new FastdfsException("Error while downloading file.", e.getMessage());
+            file = doDownload(fileId, deadline);
+            return file;
+        } finally {
+            metrics.recordOperation("download", groupOf(fileId), System.nanoTime() - start,
+                    file != null ? file.length : -1);
         }
-        /** 上传完毕及时释放连接 */
-        connectionPool.checkin(trackerServer, logId);
+    }
 
-        if (file == null) {
-            throw new FastdfsException(" Failed to download file : "
-                    , String.valueOf(client1.getErrorCode()));
+    private byte[] doDownload(String fileId, Deadline deadline) throws FastdfsException {
+        long version = 0;
+        if (downloadCache != null) {
+            byte[] cached = downloadCache.get(fileId);
+            if (cached != null) {
+                return cached;
+            }
+            version = downloadCache.version(fileId);
+        }
+        OperationId logId = OperationIds.next(traceMdcKey);
+        byte[] file = withRetry("download", logId, deadline, () -> hedgeExecutor != null
+                ? hedgedDownload(logId, fileId, deadline)
+                : downloadFrom(logId, fetchNode(logId, fileId, deadline), fileId, deadline), null);
+
+        if (downloadCache != null) {
+            downloadCache.put(fileId, file, version);
         }
+        return file;
+    }
+
+    /**
+     * @Description: 从指定storage节点下载整个文件
+     */
+    private byte[] downloadFrom(OperationId logId, StorageNode node, String fileId, Deadline deadline) throws FastdfsException {
+        long start = System.nanoTime();
+        StorageClient1 client1;
+        byte[] file;
+        try (ConnectionLease<PooledStorageServer> storage = leaseStorage(node, logId, deadline)) {
+            client1 = new StorageClient1(null, storage.get());
+            try (Deadline.Watch watch = deadline.watch(storage.get().getSocket())) {
+                file = client1.download_file1(fileId);
 
+                /** 下载完毕及时释放连接，看门狗已关闭socket时丢弃 */
+                if (watch.disarm()) {
+                    storage.markReusable();
+                }
+            } catch (IOException | MyException e) {
+                LOGGER.error("Error while downloading file.", e);
+                throw storageError(node, deadline, new FastdfsException(DOWNLOAD_IO_ERROR, e.getMessage()));
+            }
+        }
+
+        if (file == null) {
+            throw new FastdfsException(DOWNLOAD_FAILED, String.valueOf(client1.getErrorCode()));
+        }
+        if (downloadLatency != null) {
+            downloadLatency.record(System.nanoTime() - start);
+        }
         return file;
     }
+
+    /**
+     * @Description: 对冲下载 1).在hedge线程上向第一个副本发起下载；2).超过最近下载延迟的分位数仍未返回、或在此之前已失败时向另一个副本再发一次；
+     * 3).取先成功的结果，较慢的请求在后台完成后正常归还连接，所有已发起的请求都失败时才失败；
+     * 4).只有一个副本、样本不足或线程已满时退化为普通下载
+     */
+    private byte[] hedgedDownload(OperationId logId, String fileId, Deadline deadline) throws FastdfsException {
+        List<StorageNode> nodes = fetchNodes(logId, fileId, deadline);
+        long delay = downloadLatency.get();
+        int first = hedgeCursor.getAndIncrement() & Integer.MAX_VALUE;
+        if (nodes.size() < 2 || delay < 0) {
+            return downloadFrom(logId, nodes.get(first % nodes.size()), fileId, deadline);
+        }
+        CompletableFuture<byte[]> result = new CompletableFuture<>();
+        AtomicInteger outstanding = new AtomicInteger();
+        if (!launch(logId, nodes.get(first % nodes.size()), fileId, deadline, result, outstanding)) {
+            return downloadFrom(logId, nodes.get(first % nodes.size()), fileId, deadline);
+        }
+        delay = Math.max(delay, TimeUnit.MILLISECONDS.toNanos(fastdfsProperties.getHedge().getMinDelay()));
+        try {
+            try {
+                return result.get(Math.min(delay, deadline.remainingNanos()), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException | ExecutionException e) {
+                StorageNode second = nodes.get((first + 1) % nodes.size());
+                if (result.isCompletedExceptionally()) {
+                    /** 第一个副本已失败，另一个副本的结果重新等待 */
+                    LOGGER.info("[对冲下载（hedge)][{}][第一个副本下载失败，向第二个副本发起下载]", logId);
+                    result = new CompletableFuture<>();
+                    if (!launch(logId, second, fileId, deadline, result, outstanding)) {
+                        return downloadFrom(logId, second, fileId, deadline);
+                    }
+                } else if (!result.isDone()) {
+                    LOGGER.info("[对冲下载（hedge)][{}][{}us内未返回，向第二个副本发起下载]", logId, delay / 1000);
+                    launch(logId, second, fileId, deadline, result, outstanding);
+                }
+            }
+            long remaining = deadline.remainingNanos();
+            return remaining == Long.MAX_VALUE ? result.get() : result.get(remaining, TimeUnit.NANOSECONDS);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof FastdfsException ? (FastdfsException) e.getCause() : ERRORS.SYS_ERROR.ERROR();
+        } catch (TimeoutException e) {
+            throw ERRORS.OPERATION_TIMEOUT.ERROR();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw ERRORS.SYS_ERROR.ERROR();
+        }
+    }
+
+    /**
+     * @return 是否已提交，hedge线程已满时返回false
+     * @Description: 在hedge线程上从node下载，成功时完成result，所有已发起的请求都失败时以最后一个异常完成result
+     */
+    private boolean launch(OperationId logId, StorageNode node, String fileId, Deadline deadline,
+                           CompletableFuture<byte[]> result, AtomicInteger outstanding) {
+        outstanding.incrementAndGet();
+        try {
+            hedgeExecutor.execute(() -> {
+                try {
+                    result.complete(downloadFrom(logId, node, fileId, deadline));
+                } catch (RuntimeException e) {
+                    if (outstanding.decrementAndGet() == 0) {
+                        result.completeExceptionally(e);
+                    }
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            outstanding.decrementAndGet();
+            return false;
+        }
+    }
+
+    @Override
+    public long download(String fileId, OutputStream outputStream) throws FastdfsException {
+        return download(fileId, 0, 0, outputStream);
+    }
+
+    @Override
+    public long download(String fileId, WritableByteChannel channel) throws FastdfsException {
+        return download(fileId, 0, 0, channel);
+    }
+
+    @Override
+    public long download(String fileId, long offset, long length, WritableByteChannel channel) throws FastdfsException {
+        Assert.notNull(channel, "Channel must not be null.");
+        return download(fileId, offset, length, Channels.newOutputStream(channel));
+    }
+
+    @Override
+    public long download(String fileId, long offset, long length, OutputStream outputStream) throws FastdfsException {
+        return download(fileId, offset, length, outputStream, Deadline.NONE);
+    }
+
+    @Override
+    public long download(String fileId, long offset, long length, OutputStream outputStream,
+                         Duration timeout) throws FastdfsException {
+        Assert.notNull(timeout, "Timeout must not be null.");
+        return download(fileId, offset, length, outputStream, Deadline.after(timeout));
+    }
+
+    private long download(String fileId, long offset, long length, OutputStream outputStream,
+                          Deadline deadline) throws FastdfsException {
+        Assert.notNull(fileId, "File id must not be null.");
+        Assert.notNull(outputStream, "Output stream must not be null.");
+        Assert.isTrue(offset >= 0 && length >= 0, "Offset and length must not be negative.");
+        long start = System.nanoTime();
+        long bytes = -1;
+        try {
+            bytes = doDownload(fileId, offset, length, outputStream, deadline);
+            return bytes;
+        } finally {
+            metrics.recordOperation("download", groupOf(fileId), System.nanoTime() - start, bytes);
+        }
+    }
+
+    private long doDownload(String fileId, long offset, long length, OutputStream outputStream,
+                            Deadline deadline) throws FastdfsException {
+        OperationId logId = OperationIds.next(traceMdcKey);
+        if (downloadCache != null) {
+            /** 命中下载缓存，直接写出请求的区间 */
+            try {
+                long count = downloadCache.write(fileId, offset, length, outputStream);
+                if (count >= 0) {
+                    return count;
+                }
+            } catch (IOException e) {
+                LOGGER.error("[下载文件（download)][{}][写出异常：{}]", logId, e.toString());
+                throw ERRORS.DOWNLOAD_RESULT_ERROR.ERROR();
+            }
+        }
+        /** 还没有写出数据时才重试，否则调用方会收到重复的数据 */
+        CountingOutputStream counting = new CountingOutputStream(outputStream);
+        return withRetry("download", logId, deadline,
+                () -> downloadTo(logId, fileId, offset, length, counting, deadline),
+                () -> counting.count == 0 && !counting.failed);
+    }
+
+    private long downloadTo(OperationId logId, String fileId, long offset, long length, OutputStream outputStream,
+                            Deadline deadline) throws FastdfsException {
+        try {
+            /** 查询下载节点，获取storage连接 */
+            StorageNode node = fetchNode(logId, fileId, deadline);
+            OutputStreamDownloadCallback callback = new OutputStreamDownloadCallback(outputStream);
+            int result;
+            try (ConnectionLease<PooledStorageServer> storage = leaseStorage(node, logId, deadline)) {
+                StorageClient1 client1 = new StorageClient1(null, storage.get());
+                try (Deadline.Watch watch = deadline.watch(storage.get().getSocket())) {
+                    result = client1.download_file1(fileId, offset, length, callback);
+                    if (callback.getException() != null) {
+                        /** 写出失败时连接中还有未读取的数据，不能再复用 */
+                        LOGGER.error("[下载文件（download)][{}][写出异常：{}]", logId, callback.getException());
+                        throw ERRORS.DOWNLOAD_RESULT_ERROR.ERROR();
+                    }
+
+                    /** 下载完毕及时释放连接，看门狗已关闭socket时丢弃 */
+                    if (watch.disarm()) {
+                        storage.markReusable();
+                    }
+                }
+            } catch (IOException | MyException e) {
+                LOGGER.error("[下载文件（download)][{}][异常：{}]", logId, e.toString());
+                throw storageError(node, deadline, ERRORS.DOWNLOAD_RESULT_ERROR.ERROR());
+            }
+
+            /** 0:下载成功，2：文件不存在，其它：下载出错 */
+            if (result == 2) {
+                throw ERRORS.NOT_EXIST_FILE.ERROR();
+            } else if (result != 0) {
+                throw ERRORS.DOWNLOAD_RESULT_ERROR.ERROR();
+            }
+            return callback.getBytes();
+        } catch (FastdfsException e) {
+            LOGGER.error("[下载文件（download)][{}][异常：{}]", logId, e.toString());
+            throw e;
+        }
+    }
+
+    @Override
+    public long downloadParallel(String fileId, Path path) throws FastdfsException {
+        Assert.notNull(path, "File path must not be null.");
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            return downloadParallel(fileId, channel);
+        } catch (IOException e) {
+            LOGGER.error("[并行下载（downloadParallel)][写入本地文件异常：{}][异常：{}]", path, e.toString());
+            throw ERRORS.SYS_ERROR.ERROR();
+        }
+    }
+
+    @Override
+    public long downloadParallel(String fileId, FileChannel channel) throws FastdfsException {
+        Assert.notNull(fileId, "File id must not be null.");
+        Assert.notNull(channel, "Channel must not be null.");
+        long start = System.nanoTime();
+        long bytes = -1;
+        try {
+            bytes = doDownloadParallel(fileId, channel);
+            return bytes;
+        } finally {
+            metrics.recordOperation("download", groupOf(fileId), System.nanoTime() - start, bytes);
+        }
+    }
+
+    /**
+     * @Description: 并行分段下载 1).取得文件大小，普通文件由文件名解析，appender文件查询源storage；
+     * 2).按chunkSize切分，分段轮流分配给可下载该文件的各个副本；3).parallelism个任务依次领取分段，每个分段独立重试，
+     * 重试时换下一个副本；4).任一分段最终失败时其余任务不再领取新分段
+     */
+    private long doDownloadParallel(String fileId, FileChannel channel) throws FastdfsException {
+        OperationId logId = OperationIds.next(traceMdcKey);
+        FastdfsProperties.ParallelDownload config = fastdfsProperties.getParallelDownload();
+        long size = withRetry("downloadParallel", logId, Deadline.NONE, () -> fileSize(logId, fileId), null);
+        List<StorageNode> nodes = fetchNodes(logId, fileId, Deadline.NONE);
+        long chunkSize = Math.max(config.getChunkSize(), 1);
+        int chunks = (int) ((size + chunkSize - 1) / chunkSize);
+        int workers = Math.min(Math.max(config.getParallelism(), 1), chunks);
+        if (LOGGER.isInfoEnabled()) {
+            LOGGER.info("[并行下载（downloadParallel)][{}][fileId:{},size:{},chunks:{},workers:{},replicas:{}]",
+                    logId, fileId, size, chunks, workers, nodes.size());
+        }
+
+        AtomicInteger nextChunk = new AtomicInteger();
+        AtomicReference<FastdfsException> failure = new AtomicReference<>();
+        Runnable worker = () -> {
+            int index;
+            while (failure.get() == null && (index = nextChunk.getAndIncrement()) < chunks) {
+                long offset = index * chunkSize;
+                try {
+                    downloadRange(logId, nodes, index, fileId, offset, Math.min(chunkSize, size - offset), channel,
+                            config.isMemoryMapped());
+                } catch (FastdfsException e) {
+                    failure.compareAndSet(null, e);
+                } catch (RuntimeException e) {
+                    LOGGER.error("[并行下载（downloadParallel)][{}][offset:{}][异常：{}]", logId, offset, e.toString());
+                    failure.compareAndSet(null, ERRORS.SYS_ERROR.ERROR());
+                }
+            }
+        };
+        runParallel(downloadExecutor, Collections.nCopies(workers, worker));
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        return size;
+    }
+
+    /**
+     * @param index 分段序号，决定首次使用的副本
+     * @Description: 下载一个分段写入通道的对应位置；网络异常时换下一个副本重试，本地写入失败时不重试
+     */
+    private void downloadRange(OperationId logId, List<StorageNode> nodes, int index, String fileId, long offset,
+                               long length, FileChannel channel, boolean memoryMapped) throws FastdfsException {
+        int[] attempt = {0};
+        boolean[] localError = {false};
+        withRetry("downloadParallel", logId, Deadline.NONE, () -> {
+            StorageNode node = nodes.get((index + attempt[0]++) % nodes.size());
+            FileChannelDownloadCallback callback;
+            try {
+                callback = new FileChannelDownloadCallback(channel, offset, length, memoryMapped);
+            } catch (IOException e) {
+                LOGGER.error("[并行下载（downloadParallel)][{}][映射本地文件异常：{}]", logId, e.toString());
+                localError[0] = true;
+                throw ERRORS.SYS_ERROR.ERROR();
+            }
+            int result;
+            try (ConnectionLease<PooledStorageServer> storage = leaseStorage(node, logId, Deadline.NONE)) {
+                StorageClient1 client1 = new StorageClient1(null, storage.get());
+                result = client1.download_file1(fileId, offset, length, callback);
+                if (callback.getException() == null) {
+                    /** 写入失败时连接中还有未读取的数据，不能再复用 */
+                    storage.markReusable();
+                }
+            } catch (IOException | MyException e) {
+                LOGGER.error("[并行下载（downloadParallel)][{}][node:{},offset:{}][异常：{}]", logId, node, offset, e.toString());
+                throw storageError(node, Deadline.NONE, ERRORS.DOWNLOAD_RESULT_ERROR.ERROR());
+            }
+            if (callback.getException() != null) {
+                LOGGER.error("[并行下载（downloadParallel)][{}][写入本地文件异常：{}]", logId, callback.getException().toString());
+                localError[0] = true;
+                throw ERRORS.SYS_ERROR.ERROR();
+            }
+            if (result == 2) {
+                throw ERRORS.NOT_EXIST_FILE.ERROR();
+            } else if (result != 0 || callback.getBytes() != length) {
+                /** 副本尚未同步完整时返回的数据可能不足，换下一个副本重试 */
+                throw ERRORS.DOWNLOAD_RESULT_ERROR.ERROR();
+            }
+            return null;
+        }, () -> !localError[0]);
+    }
+
+    /**
+     * @return 文件大小，普通文件由文件名解析，appender文件和slave文件查询源storage
+     */
+    private long fileSize(OperationId logId, String fileId) throws FastdfsException {
+        StorageNode node = updateNode(logId, fileId, Deadline.NONE);
+        FileInfo info;
+        StorageClient1 client1;
+        try (ConnectionLease<PooledStorageServer> storage = leaseStorage(node, logId, Deadline.NONE)) {
+            client1 = new StorageClient1(null, storage.get());
+            info = client1.get_file_info1(fileId);
+            if (info == null) {
+                info = client1.query_file_info1(fileId);
+            }
+            storage.markReusable();
+        } catch (IOException | MyException e) {
+            LOGGER.error("[查询文件信息（fileSize)][{}][fileId:{}][异常：{}]", logId, fileId, e.toString());
+            throw storageError(node, Deadline.NONE, ERRORS.DOWNLOAD_RESULT_ERROR.ERROR());
+        }
+        if (info == null) {
+            throw client1.getErrorCode() == 2 ? ERRORS.NOT_EXIST_FILE.ERROR() : ERRORS.DOWNLOAD_RESULT_ERROR.ERROR();
+        }
+        return info.getFileSize();
+    }
+
+    @Override
+    public List<BatchResult<String>> uploadBatch(List<UploadRequest> requests) {
+        Assert.notNull(requests, "Upload requests must not be null.");
+        OperationId logId = OperationIds.next(traceMdcKey);
+        LOGGER.info("[批量上传（uploadBatch)][{}][size:{}]", logId, requests.size());
+        BatchResult<String>[] results = newResults(requests.size());
+
+        /** 按组分批，同一组的文件上传到tracker分配的同一节点 */
+        Map<String, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < requests.size(); i++) {
+            String group = requests.get(i).getGroup();
+            groups.computeIfAbsent(group == null ? "" : group, key -> new ArrayList<>()).add(i);
+        }
+
+        List<Runnable> tasks = new ArrayList<>(groups.size());
+        for (Map.Entry<String, List<Integer>> entry : groups.entrySet()) {
+            String group = entry.getKey().isEmpty() ? null : entry.getKey();
+            tasks.add(() -> {
+                StorageNode node;
+                try {
+                    node = storeNode(logId, group, Deadline.NONE);
+                } catch (FastdfsException e) {
+                    LOGGER.error("[批量上传（uploadBatch)][{}][group:{}][异常：{}]", logId, group, e.toString());
+                    fail(results, entry.getValue(), e);
+                    return;
+                }
+                runOnNode(logId, node, entry.getValue(), results, (client1, index) -> {
+                    UploadRequest request = requests.get(index);
+                    String[] uploaded = client1.upload_file(group, request.getSize(),
+                            request.callback(fastdfsProperties.getUploadBufferSize()), request.getExtName(),
+                            toMetaList(request.getMetadata()));
+                    if (uploaded == null || uploaded.length != 2) {
+                        throw ERRORS.UPLOAD_RESULT_ERROR.ERROR();
+                    }
+                    return uploaded[0] + "/" + uploaded[1];
+                });
+            });
+        }
+        runParallel(batchExecutor, tasks);
+        return Arrays.asList(results);
+    }
+
+    @Override
+    public List<BatchResult<String>> deleteBatch(Collection<String> fileIds) {
+        Assert.notNull(fileIds, "File ids must not be null.");
+        OperationId logId = OperationIds.next(traceMdcKey);
+        LOGGER.info("[批量删除（deleteBatch)][{}][size:{}]", logId, fileIds.size());
+        List<String> ids = new ArrayList<>(fileIds);
+        BatchResult<String>[] results = newResults(ids.size());
+
+        /** 按源storage查询节点，按节点分批 */
+        List<Integer> indexes = new ArrayList<>(ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            indexes.add(i);
+        }
+        Map<StorageNode, List<Integer>> nodes = groupBySourceNode(logId, ids, indexes, results);
+
+        List<Runnable> tasks = new ArrayList<>(nodes.size());
+        for (Map.Entry<StorageNode, List<Integer>> entry : nodes.entrySet()) {
+            tasks.add(() -> runOnNode(logId, entry.getKey(), entry.getValue(), results, (client1, index) -> {
+                String fileId = ids.get(index);
+                int result = client1.delete_file1(fileId);
+                /** 0:文件删除成功，2：文件不存在 ，其它：文件删除出错 */
+                if (result == 2) {
+                    throw ERRORS.NOT_EXIST_FILE.ERROR();
+                } else if (result != 0) {
+                    throw ERRORS.DELETE_RESULT_ERROR.ERROR();
+                }
+                return fileId;
+            }));
+        }
+        try {
+            runParallel(batchExecutor, tasks);
+        } finally {
+            ids.forEach(this::invalidateCaches);
+        }
+        return Arrays.asList(results);
+    }
+
+    @Override
+    public Map<String, String> getMetadata(String fileId) throws FastdfsException {
+        Assert.notNull(fileId, "File id must not be null.");
+        Map<String, String> cached = metadataCache == null ? null : metadataCache.get(fileId);
+        if (cached != null) {
+            return cached;
+        }
+        OperationId logId = OperationIds.next(traceMdcKey);
+        long version = metadataCache == null ? 0 : metadataCache.version(fileId);
+        Map<String, String> metadata = withRetry("getMetadata", logId, Deadline.NONE,
+                () -> readMetadata(logId, fileId), null);
+        if (metadataCache != null) {
+            metadataCache.put(fileId, metadata, version);
+        }
+        return metadata;
+    }
+
+    @Override
+    public void setMetadata(String fileId, Map<String, String> metadata, MetadataMode mode) throws FastdfsException {
+        Assert.notNull(fileId, "File id must not be null.");
+        Assert.notNull(mode, "Metadata mode must not be null.");
+        OperationId logId = OperationIds.next(traceMdcKey);
+        NameValuePair[] metaList = toMetaList(metadata);
+        try {
+            withRetry("setMetadata", logId, Deadline.NONE,
+                    () -> writeMetadata(logId, fileId, metaList == null ? new NameValuePair[0] : metaList, mode), null);
+        } finally {
+            if (metadataCache != null) {
+                metadataCache.invalidate(fileId);
+            }
+        }
+    }
+
+    @Override
+    public List<BatchResult<Map<String, String>>> getMetadataBatch(Collection<String> fileIds) {
+        Assert.notNull(fileIds, "File ids must not be null.");
+        OperationId logId = OperationIds.next(traceMdcKey);
+        LOGGER.info("[批量读取元数据（getMetadataBatch)][{}][size:{}]", logId, fileIds.size());
+        List<String> ids = new ArrayList<>(fileIds);
+        BatchResult<Map<String, String>>[] results = newResults(ids.size());
+        /** 每个文件读取storage前的版本号，只有该文件被修改时才不写入缓存 */
+        long[] versions = new long[ids.size()];
+
+        /** 缓存命中的直接返回，其余按源storage查询节点，按节点分批 */
+        List<Integer> misses = new ArrayList<>(ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            versions[i] = metadataCache == null ? 0 : metadataCache.version(ids.get(i));
+            Map<String, String> cached = metadataCache == null ? null : metadataCache.get(ids.get(i));
+            if (cached != null) {
+                results[i] = BatchResult.success(i, cached);
+            } else {
+                misses.add(i);
+            }
+        }
+        Map<StorageNode, List<Integer>> nodes = groupBySourceNode(logId, ids, misses, results);
+
+        /** 同一节点的文件再分成最多batch-parallelism份，每份使用一个连接 */
+        int parallelism = Math.max(fastdfsProperties.getBatchParallelism(), 1);
+        List<Runnable> tasks = new ArrayList<>();
+        for (Map.Entry<StorageNode, List<Integer>> entry : nodes.entrySet()) {
+            List<Integer> indexes = entry.getValue();
+            int sliceSize = (indexes.size() + parallelism - 1) / parallelism;
+            for (int from = 0; from < indexes.size(); from += sliceSize) {
+                List<Integer> slice = indexes.subList(from, Math.min(from + sliceSize, indexes.size()));
+                tasks.add(() -> runOnNode(logId, entry.getKey(), slice, results, (client1, index) -> {
+                    String fileId = ids.get(index);
+                    Map<String, String> metadata = toMetadata(client1.get_metadata1(fileId), client1.getErrorCode());
+                    if (metadataCache != null) {
+                        metadataCache.put(fileId, metadata, versions[index]);
+                    }
+                    return metadata;
+                }));
+            }
+        }
+        runParallel(batchExecutor, tasks);
+        return Arrays.asList(results);
+    }
+
+    /**
+     * @Description: 从文件的源storage读取元数据，其它storage上的元数据可能还未同步
+     */
+    private Map<String, String> readMetadata(OperationId logId, String fileId) throws FastdfsException {
+        StorageNode node = updateNode(logId, fileId, Deadline.NONE);
+        try (ConnectionLease<PooledStorageServer> storage = leaseStorage(node, logId, Deadline.NONE)) {
+            StorageClient1 client1 = new StorageClient1(null, storage.get());
+            NameValuePair[] metaList = client1.get_metadata1(fileId);
+            storage.markReusable();
+            return toMetadata(metaList, client1.getErrorCode());
+        } catch (MyException | IOException e) {
+            LOGGER.error("[读取元数据（getMetadata)][{}][异常：{}]", logId, e.toString());
+            throw storageError(node, Deadline.NONE, ERRORS.METADATA_RESULT_ERROR.ERROR());
+        }
+    }
+
+    /**
+     * @Description: 在文件的源storage上设置元数据
+     */
+    private Void writeMetadata(OperationId logId, String fileId, NameValuePair[] metaList, MetadataMode mode)
+            throws FastdfsException {
+        StorageNode node = updateNode(logId, fileId, Deadline.NONE);
+        int result;
+        try (ConnectionLease<PooledStorageServer> storage = leaseStorage(node, logId, Deadline.NONE)) {
+            StorageClient1 client1 = new StorageClient1(null, storage.get());
+            result = client1.set_metadata1(fileId, metaList, mode.flag());
+            storage.markReusable();
+        } catch (MyException | IOException e) {
+            LOGGER.error("[设置元数据（setMetadata)][{}][异常：{}]", logId, e.toString());
+            throw storageError(node, Deadline.NONE, ERRORS.METADATA_RESULT_ERROR.ERROR());
+        }
+        /** 0:成功，2：文件不存在 ，其它：出错 */
+        if (result == 2) {
+            throw ERRORS.NOT_EXIST_FILE.ERROR();
+        } else if (result != 0) {
+            throw ERRORS.METADATA_RESULT_ERROR.ERROR();
+        }
+        return null;
+    }
+
+    /**
+     * @return storage协议的元数据，metadata为空时返回null
+     */
+    private static NameValuePair[] toMetaList(Map<String, String> metadata) {
+        if (metadata == null || metadata.isEmpty()) {
+            return null;
+        }
+        NameValuePair[] metaList = new NameValuePair[metadata.size()];
+        int i = 0;
+        for (Map.Entry<String, String> entry : metadata.entrySet()) {
+            Assert.hasLength(entry.getKey(), "Metadata name must not be empty.");
+            metaList[i++] = new NameValuePair(entry.getKey(), entry.getValue() == null ? "" : entry.getValue());
+        }
+        return metaList;
+    }
+
+    /**
+     * @param metaList get_metadata的返回值，失败时为null
+     * @param errno    storage返回的错误号
+     * @return 不可修改的元数据，没有元数据时为空
+     */
+    private static Map<String, String> toMetadata(NameValuePair[] metaList, byte errno) {
+        if (metaList == null) {
+            /** 2：文件不存在 ，其它：出错 */
+            throw errno == 2 ? ERRORS.NOT_EXIST_FILE.ERROR() : ERRORS.METADATA_RESULT_ERROR.ERROR();
+        }
+        Map<String, String> metadata = new LinkedHashMap<>();
+        for (NameValuePair pair : metaList) {
+            /** 没有元数据时storage返回空串，解析为一个名称为空的项 */
+            if (pair.getName() != null && !pair.getName().isEmpty()) {
+                metadata.put(pair.getName(), pair.getValue() == null ? "" : pair.getValue());
+            }
+        }
+        return Collections.unmodifiableMap(metadata);
+    }
+
+    /**
+     * @param indexes 分配到该节点的文件在请求中的位置
+     * @Description: 在同一个storage连接上顺序执行操作，网络异常时丢弃连接并为后续文件重新获取连接
+     */
+    private <T> void runOnNode(OperationId logId, StorageNode node, List<Integer> indexes, BatchResult<T>[] results,
+                               StorageOperation<T> operation) {
+        PooledStorageServer storageServer = null;
+        try {
+            for (int i = 0; i < indexes.size(); i++) {
+                int index = indexes.get(i);
+                if (storageServer == null) {
+                    try {
+                        storageServer = checkoutStorage(node, logId, Deadline.NONE);
+                    } catch (FastdfsException e) {
+                        LOGGER.error("[批量操作（runOnNode)][{}][node:{}][异常：{}]", logId, node, e.toString());
+                        fail(results, indexes.subList(i, indexes.size()), e);
+                        return;
+                    }
+                }
+                try {
+                    results[index] = BatchResult.success(index,
+                            operation.apply(new StorageClient1(null, storageServer), index));
+                } catch (FastdfsException e) {
+                    results[index] = BatchResult.failure(index, e);
+                } catch (IOException | MyException | RuntimeException e) {
+                    LOGGER.error("[批量操作（runOnNode)][{}][node:{}][异常：{}]", logId, node, e.toString());
+                    dropStorage(storageServer, logId);
+                    storageServer = null;
+                    results[index] = BatchResult.failure(index, ERRORS.SYS_ERROR.ERROR());
+                }
+            }
+        } finally {
+            storageConnectionPool.checkin(storageServer, logId);
+        }
+    }
+
+    /**
+     * @Description: 当前线程执行第一个任务，其余任务提交到executor并行执行，全部完成后返回
+     */
+    private void runParallel(ThreadPoolExecutor executor, List<Runnable> tasks) {
+        List<Future<?>> futures = new ArrayList<>(tasks.size());
+        for (int i = 1; i < tasks.size(); i++) {
+            try {
+                futures.add(executor.submit(tasks.get(i)));
+            } catch (RejectedExecutionException e) {
+                tasks.get(i).run();
+            }
+        }
+        if (!tasks.isEmpty()) {
+            tasks.get(0).run();
+        }
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw ERRORS.SYS_ERROR.ERROR();
+        } catch (ExecutionException e) {
+            LOGGER.error("[批量操作（runParallel)][异常：{}]", e.getCause().toString());
+            throw ERRORS.SYS_ERROR.ERROR();
+        }
+    }
+
+    /**
+     * @param indexes 需要查询的文件下标
+     * @return 删除、修改节点 -> 文件下标
+     * @Description: 按文件ID中的组名和源storage ip分组，每组只查询一次tracker，不同组在batch线程上并行查询；
+     * 无法解析源storage的文件单独查询，查询失败的文件在results中记录失败
+     */
+    private <T> Map<StorageNode, List<Integer>> groupBySourceNode(OperationId logId, List<String> ids,
+                                                                  List<Integer> indexes, BatchResult<T>[] results) {
+        Map<String, List<Integer>> sources = new LinkedHashMap<>();
+        for (int index : indexes) {
+            String fileId = ids.get(index);
+            try {
+                String key = StorageRouteCache.sourceKey(fileId);
+                sources.computeIfAbsent(key != null ? key : fileId, k -> new ArrayList<>()).add(index);
+            } catch (FastdfsException e) {
+                results[index] = BatchResult.failure(index, e);
+            }
+        }
+
+        List<List<Integer>> groups = new ArrayList<>(sources.values());
+        StorageNode[] resolved = new StorageNode[groups.size()];
+        List<Runnable> tasks = new ArrayList<>(groups.size());
+        for (int i = 0; i < groups.size(); i++) {
+            int group = i;
+            tasks.add(() -> {
+                List<Integer> members = groups.get(group);
+                try {
+                    resolved[group] = updateNode(logId, ids.get(members.get(0)), Deadline.NONE);
+                } catch (FastdfsException e) {
+                    LOGGER.error("[批量操作（groupBySourceNode)][{}][fileId:{}][异常：{}]",
+                            logId, ids.get(members.get(0)), e.toString());
+                    fail(results, members, e);
+                }
+            });
+        }
+        runParallel(batchExecutor, tasks);
+
+        Map<StorageNode, List<Integer>> nodes = new LinkedHashMap<>();
+        for (int i = 0; i < groups.size(); i++) {
+            if (resolved[i] != null) {
+                nodes.computeIfAbsent(resolved[i], key -> new ArrayList<>()).addAll(groups.get(i));
+            }
+        }
+        return nodes;
+    }
+
+    /**
+     * @return 批量操作的结果数组，各元素由执行线程按下标写入
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> BatchResult<T>[] newResults(int size) {
+        return (BatchResult<T>[]) new BatchResult<?>[size];
+    }
+
+    private static <T> void fail(BatchResult<T>[] results, List<Integer> indexes, FastdfsException e) {
+        for (int index : indexes) {
+            results[index] = BatchResult.failure(index, e);
+        }
+    }
+
+    /**
+     * @Description: 文件删除后移除下载缓存、元数据缓存和去重索引中的记录
+     */
+    private void invalidateCaches(String fileId) {
+        DedupIndex index = dedupIndex;
+        if (index != null) {
+            index.removeFile(fileId);
+        }
+        if (downloadCache != null) {
+            downloadCache.invalidate(fileId);
+        }
+        if (metadataCache != null) {
+            metadataCache.invalidate(fileId);
+        }
+    }
+
+    /**
+     * 元数据缓存，未启用时为null
+     */
+    public MetadataCache getMetadataCache() {
+        return metadataCache;
+    }
+
+    /**
+     * 下载缓存，未启用时为null
+     */
+    public DownloadCache getDownloadCache() {
+        return downloadCache;
+    }
+
+    public FdfsConnectionPool getConnectionPool() {
+        return connectionPool;
+    }
+
+    public StorageConnectionPool getStorageConnectionPool() {
+        return storageConnectionPool;
+    }
+
+    /**
+     * @Description: 设置指标记录，同时用于tracker和storage连接池
+     */
+    public void setMetrics(FastdfsMetrics metrics) {
+        this.metrics = metrics;
+        connectionPool.setMetrics(metrics);
+        storageConnectionPool.setMetrics(metrics);
+    }
+
+    /**
+     * @Description: 替换断点续传检查点存储，例如保存到数据库以便在其它实例上续传
+     */
+    public void setUploadCheckpointStore(UploadCheckpointStore checkpointStore) {
+        Assert.notNull(checkpointStore, "Checkpoint store must not be null.");
+        this.checkpointStore = checkpointStore;
+    }
+
+    /**
+     * @Description: 替换去重索引，例如保存到Redis以便多个实例共享，需要启用dedup
+     */
+    public void setDedupIndex(DedupIndex dedupIndex) {
+        Assert.notNull(dedupIndex, "Dedup index must not be null.");
+        Assert.state(fastdfsProperties.getDedup().isEnabled(), "Dedup is not enabled.");
+        this.dedupIndex = dedupIndex;
+    }
+
+    /**
+     * @return 文件ID中的组名，格式不对时返回空字符串
+     */
+    private static String groupOf(String fileId) {
+        int index = fileId == null ? -1 : fileId.indexOf('/');
+        return index > 0 ? fileId.substring(0, index) : "";
+    }
+
+    /**
+     * @Description: 上传节点，启用路由缓存且指定group时轮询组内可写节点，否则查询tracker
+     */
+    private StorageNode storeNode(OperationId logId, String group, Deadline deadline) throws FastdfsException {
+        StorageNode node = routeCache == null ? null : routeCache.storeNode(group,
+                d -> queryTracker(logId, ts -> FdfsTrackerQuery.queryStoreStorages(ts, group), d), deadline);
+        return node != null ? node
+                : queryTracker(logId, ts -> FdfsTrackerQuery.queryStoreStorage(ts, group), deadline);
+    }
+
+    /**
+     * @Description: 可下载该文件的所有节点，路由缓存无法确定时查询tracker
+     */
+    private List<StorageNode> fetchNodes(OperationId logId, String fileId, Deadline deadline) throws FastdfsException {
+        TrackerQuery<List<StorageNode>> query = ts -> FdfsTrackerQuery.queryFetchStorages(ts, fileId);
+        List<StorageNode> nodes = routeCache == null ? null
+                : routeCache.fetchNodes(fileId, d -> queryTracker(logId, query, d), deadline);
+        nodes = nodes != null ? nodes : queryTracker(logId, query, deadline);
+        if (nodes == null || nodes.isEmpty()) {
+            throw ERRORS.NOT_EXIST_PORTURL.ERROR();
+        }
+        return nodes;
+    }
+
+    /**
+     * @param retryAllowed 为空或返回true时才重试
+     * @Description: 执行幂等操作，可重试的异常按retry配置以随机退避重试，不超过截止时间
+     */
+    private <T> T withRetry(String operation, OperationId logId, Deadline deadline, Attempt<T> attempt,
+                            java.util.function.BooleanSupplier retryAllowed) throws FastdfsException {
+        FastdfsProperties.Retry retry = fastdfsProperties.getRetry();
+        for (int n = 1; ; n++) {
+            try {
+                return attempt.run();
+            } catch (FastdfsException e) {
+                if (n >= retry.getMaxAttempts() || !retryable(e)
+                        || (retryAllowed != null && !retryAllowed.getAsBoolean())) {
+                    throw e;
+                }
+                long ceiling = Math.min(retry.getMaxBackoff(), retry.getBackoff() << Math.min(n - 1, 20));
+                long backoff = ThreadLocalRandom.current().nextLong(Math.max(ceiling, 0) + 1);
+                if (!deadline.hasRemaining(backoff)) {
+                    throw e;
+                }
+                LOGGER.info("[重试({})][{}][第{}次失败，{}ms后重试][异常：{}]", operation, logId, n, backoff, e.toString());
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return 是否为可重试的异常：网络异常、获取连接超时、storage返回的非"文件不存在"错误
+     */
+    private static boolean retryable(FastdfsException e) {
+        if (DOWNLOAD_FAILED.equals(e.getCode())) {
+            return !String.valueOf(2).equals(e.getMessage());
+        }
+        return DOWNLOAD_IO_ERROR.equals(e.getCode())
+                || ERRORS.FASTDFS_CONNECTION_FAIL.matches(e)
+                || ERRORS.WAIT_IDLECONNECTION_TIMEOUT.matches(e)
+                || ERRORS.SYS_ERROR.matches(e)
+                || ERRORS.DOWNLOAD_RESULT_ERROR.matches(e)
+                || ERRORS.DELETE_RESULT_ERROR.matches(e)
+                || ERRORS.METADATA_RESULT_ERROR.matches(e);
+    }
+
+    /**
+     * @Description: 下载节点，路由缓存无法确定时查询tracker
+     */
+    private StorageNode fetchNode(OperationId logId, String fileId, Deadline deadline) throws FastdfsException {
+        StorageNode node = routeCache == null ? null : routeCache.fetchNode(fileId,
+                d -> queryTracker(logId, ts -> FdfsTrackerQuery.queryFetchStorages(ts, fileId), d), deadline);
+        return node != null ? node : queryTracker(logId, ts -> FdfsTrackerQuery.queryFetchStorage(ts, fileId), deadline);
+    }
+
+    /**
+     * @Description: 删除、修改节点，即文件的源storage，路由缓存无法确定时查询tracker
+     */
+    private StorageNode updateNode(OperationId logId, String fileId, Deadline deadline) throws FastdfsException {
+        TrackerQuery<StorageNode> query = ts -> FdfsTrackerQuery.queryUpdateStorage(ts, fileId);
+        StorageNode node = routeCache == null ? null : routeCache.updateNode(fileId,
+                d -> Collections.singletonList(queryTracker(logId, query, d)), deadline);
+        return node != null ? node : queryTracker(logId, query, deadline);
+    }
+
+    /**
+     * @Description: 获取storage连接，获取失败时移除该节点的路由，因截止时间到达而失败时保留路由
+     */
+    private PooledStorageServer checkoutStorage(StorageNode node, OperationId logId, Deadline deadline) throws FastdfsException {
+        return leaseStorage(node, logId, deadline).get();
+    }
+
+    /**
+     * @return storage连接租约，未调用markReusable时close丢弃连接
+     * @Description: 获取storage连接，获取失败时移除该节点的路由，因截止时间到达而失败时保留路由
+     */
+    private ConnectionLease<PooledStorageServer> leaseStorage(StorageNode node, OperationId logId, Deadline deadline)
+            throws FastdfsException {
+        try {
+            return storageConnectionPool.lease(node, logId, deadline);
+        } catch (FastdfsException e) {
+            if (deadline.isExpired()) {
+                throw ERRORS.OPERATION_TIMEOUT.ERROR();
+            }
+            if (routeCache != null) {
+                routeCache.invalidate(node);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @param error 未到截止时间时抛出的异常
+     * @return 调用方需抛出的异常，已过截止时间时为OPERATION_TIMEOUT
+     * @Description: storage出现网络异常时移除该节点的路由，截止时间到达导致的异常不移除路由；连接由租约丢弃
+     */
+    private FastdfsException storageError(StorageNode node, Deadline deadline, FastdfsException error) {
+        if (deadline.isExpired()) {
+            return ERRORS.OPERATION_TIMEOUT.ERROR();
+        }
+        if (node != null && routeCache != null) {
+            routeCache.invalidate(node);
+        }
+        return error;
+    }
+
+    /**
+     * @Description: 丢弃出现网络异常的storage连接，并移除该节点的路由
+     */
+    private void dropStorage(PooledStorageServer storageServer, OperationId logId) {
+        if (storageServer != null && routeCache != null) {
+            routeCache.invalidate(storageServer.getNode());
+        }
+        storageConnectionPool.drop(storageServer, logId);
+    }
+
+    /**
+     * @Description: 通过tracker查询storage节点，查询完毕立即归还tracker连接
+     */
+    private <T> T queryTracker(OperationId logId, TrackerQuery<T> query, Deadline deadline) throws FastdfsException {
+        ConnectionLease<TrackerServer> lease;
+        try {
+            lease = connectionPool.lease(logId, deadline);
+        } catch (FastdfsException e) {
+            throw deadline.isExpired() ? ERRORS.OPERATION_TIMEOUT.ERROR() : e;
+        }
+        try (ConnectionLease<TrackerServer> tracker = lease) {
+            TrackerServer trackerServer = tracker.get();
+            long start = System.nanoTime();
+            try (Deadline.Watch watch = deadline.watch(trackerServer.getSocket())) {
+                T result;
+                try {
+                    result = query.query(trackerServer);
+                } catch (FastdfsException e) {
+                    /** tracker返回的错误码，连接仍可复用，看门狗已关闭socket时丢弃 */
+                    connectionPool.record(trackerServer, System.nanoTime() - start, true, logId);
+                    if (watch.disarm()) {
+                        tracker.markReusable();
+                    }
+                    throw e;
+                }
+                connectionPool.record(trackerServer, System.nanoTime() - start, true, logId);
+                if (watch.disarm()) {
+                    tracker.markReusable();
+                }
+                return result;
+            } catch (IOException e) {
+                LOGGER.error("[查询storage节点(queryTracker)][{}][异常：{}]", logId, e.toString());
+                if (deadline.isExpired()) {
+                    /** 截止时间到达关闭的连接，不计入tracker的失败 */
+                    throw ERRORS.OPERATION_TIMEOUT.ERROR();
+                }
+                connectionPool.record(trackerServer, System.nanoTime() - start, false, logId);
+                throw ERRORS.FASTDFS_CONNECTION_FAIL.ERROR();
+            }
+        }
+    }
+
+    /**
+     * tracker查询
+     */
+    private interface TrackerQuery<T> {
+        T query(TrackerServer trackerServer) throws IOException;
+    }
+
+    /**
+     * 可重试的单次操作
+     */
+    private interface Attempt<T> {
+        T run() throws FastdfsException;
+    }
+
+    /**
+     * 记录已写出字节数和写出是否失败的输出流
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+
+        private long count;
+
+        private boolean failed;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            try {
+                out.write(b);
+            } catch (IOException e) {
+                failed = true;
+                throw e;
+            }
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            try {
+                out.write(b, off, len);
+            } catch (IOException e) {
+                failed = true;
+                throw e;
+            }
+            count += len;
+        }
+    }
+
+    /**
+     * 批量操作中对单个文件的storage操作
+     */
+    private interface StorageOperation<T> {
+        T apply(StorageClient1 client1, int index) throws IOException, MyException;
+    }
 }
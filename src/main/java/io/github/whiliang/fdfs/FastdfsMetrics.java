@@ -0,0 +1,29 @@
+package io.github.whiliang.fdfs;
+
+/**
+ * 指标记录，默认不记录，classpath中存在Micrometer时由{@link MicrometerFastdfsMetrics}实现
+ *
+ * @author whiliang
+ */
+public interface FastdfsMetrics {
+
+    FastdfsMetrics NOOP = new FastdfsMetrics() {
+    };
+
+    /**
+     * @param pool      连接池
+     * @param waitNanos 等待连接的时间（单位：纳秒）
+     * @param acquired  是否获取到连接
+     */
+    default void recordCheckout(BoundedConnectionPool<?> pool, long waitNanos, boolean acquired) {
+    }
+
+    /**
+     * @param operation     操作：upload/download/delete
+     * @param group         组名
+     * @param durationNanos 耗时（单位：纳秒）
+     * @param bytes         传输的字节数，失败时为-1
+     */
+    default void recordOperation(String operation, String group, long durationNanos, long bytes) {
+    }
+}
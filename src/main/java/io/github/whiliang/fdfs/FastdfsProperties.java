@@ -2,8 +2,12 @@ package io.github.whiliang.fdfs;
 
 
 import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.DeprecatedConfigurationProperty;
 
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * FastdfsProperties
@@ -27,12 +31,139 @@ public class FastdfsProperties {
     private long maxPoolSize = 30;
     /**
      * 当前创建的连接数
+     *
+     * @deprecated 从未更新，连接池状态见指标fastdfs.pool.*或actuator端点fastdfs
      */
+    @Deprecated
     private volatile long nowPoolSize = 0;
     /**
-     * 默认等待时间（单位：秒）
+     * 默认等待时间（单位：秒），配置了该项而没有配置maxWaitTime时换算为maxWaitTime
+     *
+     * @deprecated 使用 {@link #maxWaitTime}
      */
+    @Deprecated
     private long waitTimes = 200;
+    /**
+     * 是否配置了waitTimes
+     */
+    private boolean waitTimesSet;
+    /**
+     * 获取连接最大等待时间（单位：毫秒），等待的线程按FIFO顺序获得连接
+     */
+    private long maxWaitTime = 5000;
+    /**
+     * 是否配置了maxWaitTime
+     */
+    private boolean maxWaitTimeSet;
+    /**
+     * tracker空闲连接最大存活时间（单位：毫秒）
+     */
+    private long maxIdleTime = 300000;
+    /**
+     * tracker、storage建连超时时间（单位：毫秒）；storage建连超时受fastdfs-client限制为进程内全局值，多集群时取各集群的最大值
+     */
+    private int connectTimeout = 5000;
+    /**
+     * tracker、storage读超时时间（单位：毫秒），单次读阻塞超过该时间时连接被丢弃
+     */
+    private int networkTimeout = 30000;
+    /**
+     * 借出前是否检测连接
+     */
+    private boolean testOnBorrow = true;
+    /**
+     * 距上次使用或检测不超过该时间的连接借出前不检测（单位：毫秒）
+     */
+    private long validationSkipWindow = 3000;
+    /**
+     * 后台检测空闲连接的间隔（单位：毫秒），检测超过validationSkipWindow未使用的空闲连接
+     */
+    private long validationInterval = 5000;
+    /**
+     * 连接最大存活时间（单位：毫秒），超过后归还或后台检测时关闭，0表示不限制
+     */
+    private long maxLifetime = 1800000;
+    /**
+     * 连接借出超过该时间未归还时记录疑似泄漏日志（单位：毫秒），0表示不检测；大文件的单次传输可能超过该时间，开启时应大于最长的单次传输时间
+     */
+    private long leakDetectionThreshold = 0;
+    /**
+     * 连接借出超过该时间未归还时强制关闭并释放许可（单位：毫秒），0表示不回收；应大于最长的单次传输时间
+     */
+    private long abandonedTimeout = 0;
+    /**
+     * 借出时是否记录调用栈，泄漏日志中输出借出位置，有一定开销
+     */
+    private boolean leakStackTrace = false;
+    /**
+     * 后台建连线程数，连接由后台线程创建，请求线程不会等待TCP建连
+     */
+    private int connectorThreads = 2;
+    /**
+     * 预先准备的空闲连接数（tracker连接池及每个storage节点）
+     */
+    private int spareConnections = 2;
+    /**
+     * 空闲连接低于该值时后台补充到spareConnections个
+     */
+    private int lowWaterMark = 1;
+    /**
+     * storage连接池每个节点最小空闲连接数
+     */
+    private int storageMinPoolSize = 2;
+    /**
+     * storage连接池每个节点最大连接数
+     */
+    private int storageMaxPoolSize = 30;
+    /**
+     * storage空闲连接最大存活时间（单位：毫秒）
+     */
+    private long storageMaxIdleTime = 300000;
+    /**
+     * 流式上传缓冲区大小（单位：字节）
+     */
+    private int uploadBufferSize = 64 * 1024;
+    /**
+     * 批量上传、删除时并行处理的storage节点数，批量读取元数据时每个节点使用的连接数
+     */
+    private int batchParallelism = 4;
+    /**
+     * uploadWithSlaves生成从文件的线程数
+     */
+    private int transformThreads = Runtime.getRuntime().availableProcessors();
+    /**
+     * 是否缓存storage路由，命中时指定group的上传、下载、删除不再查询tracker
+     */
+    private boolean routeCacheEnabled = false;
+    /**
+     * storage路由有效时间（单位：毫秒）
+     */
+    private long routeCacheTtl = 60000;
+    /**
+     * storage路由过期前多久开始后台刷新（单位：毫秒）
+     */
+    private long routeCacheRefreshAhead = 10000;
+    /**
+     * 文件同步到同组其它storage的最长时间（单位：毫秒），与tracker的storage_sync_file_max_delay一致，
+     * 创建时间在此之内的文件只从源storage下载
+     */
+    private long storageSyncDelay = 86400000;
+    /**
+     * tracker首次摘除时间（单位：毫秒），建连失败或连续失败后摘除，到期后探测一次，失败则加倍
+     */
+    private long trackerEjectTime = 1000;
+    /**
+     * tracker最长摘除时间（单位：毫秒）
+     */
+    private long trackerMaxEjectTime = 60000;
+    /**
+     * tracker查询连续失败多少次后摘除
+     */
+    private int trackerFailureThreshold = 3;
+    /**
+     * 日志ID关联的MDC键，MDC中存在该值时（如链路追踪的traceId）日志ID以其为前缀，为空时不读取MDC
+     */
+    private String traceMdcKey = "traceId";
 
     /**
      * 集群地址
@@ -45,6 +176,57 @@ public class FastdfsProperties {
      */
     private String fileProxyServer;
 
+    /**
+     * 异步文件服务线程池
+     */
+    private final Async async = new Async();
+
+    /**
+     * 异步文件服务执行方式，VIRTUAL需要JDK 21及以上，不支持时回退到PLATFORM
+     */
+    private ExecutorType executor = ExecutorType.PLATFORM;
+
+    /**
+     * 下载缓存
+     */
+    private final Cache downloadCache = new Cache();
+
+    /**
+     * 幂等操作（下载、deleteIfExists、断点续传的分块）的重试
+     */
+    private final Retry retry = new Retry();
+
+    /**
+     * 对冲下载
+     */
+    private final Hedge hedge = new Hedge();
+
+    /**
+     * 断点续传
+     */
+    private final Resumable resumable = new Resumable();
+
+    /**
+     * 并行分段下载
+     */
+    private final ParallelDownload parallelDownload = new ParallelDownload();
+
+    /**
+     * 元数据缓存
+     */
+    private final MetadataCache metadataCache = new MetadataCache();
+
+    /**
+     * 去重上传
+     */
+    private final Dedup dedup = new Dedup();
+
+    /**
+     * 其它fastdfs集群，key为集群名称，每个集群有独立的连接池和FastdfsFileService bean（名称为 集群名称+FastdfsFileService），
+     * 未配置的项使用默认值，不继承spring.fastdfs下的配置
+     */
+    private final Map<String, FastdfsProperties> clusters = new LinkedHashMap<>();
+
 
     public boolean isEnable() {
         return enable;
@@ -70,20 +252,258 @@ public class FastdfsProperties {
         this.maxPoolSize = maxPoolSize;
     }
 
+    @Deprecated
     public long getNowPoolSize() {
         return nowPoolSize;
     }
 
+    @Deprecated
     public void setNowPoolSize(long nowPoolSize) {
         this.nowPoolSize = nowPoolSize;
     }
 
+    @Deprecated
+    @DeprecatedConfigurationProperty(replacement = "spring.fastdfs.max-wait-time")
     public long getWaitTimes() {
         return waitTimes;
     }
 
+    @Deprecated
     public void setWaitTimes(long waitTimes) {
         this.waitTimes = waitTimes;
+        this.waitTimesSet = true;
+    }
+
+    /**
+     * @return 是否只配置了已废弃的waitTimes，此时maxWaitTime由waitTimes换算
+     */
+    boolean isLegacyWaitTimes() {
+        return waitTimesSet && !maxWaitTimeSet;
+    }
+
+    public long getMaxWaitTime() {
+        return isLegacyWaitTimes() ? TimeUnit.SECONDS.toMillis(waitTimes) : maxWaitTime;
+    }
+
+    public void setMaxWaitTime(long maxWaitTime) {
+        this.maxWaitTime = maxWaitTime;
+        this.maxWaitTimeSet = true;
+    }
+
+    public long getMaxIdleTime() {
+        return maxIdleTime;
+    }
+
+    public void setMaxIdleTime(long maxIdleTime) {
+        this.maxIdleTime = maxIdleTime;
+    }
+
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    public int getNetworkTimeout() {
+        return networkTimeout;
+    }
+
+    public void setNetworkTimeout(int networkTimeout) {
+        this.networkTimeout = networkTimeout;
+    }
+
+    public boolean isTestOnBorrow() {
+        return testOnBorrow;
+    }
+
+    public void setTestOnBorrow(boolean testOnBorrow) {
+        this.testOnBorrow = testOnBorrow;
+    }
+
+    public long getValidationSkipWindow() {
+        return validationSkipWindow;
+    }
+
+    public void setValidationSkipWindow(long validationSkipWindow) {
+        this.validationSkipWindow = validationSkipWindow;
+    }
+
+    public long getValidationInterval() {
+        return validationInterval;
+    }
+
+    public void setValidationInterval(long validationInterval) {
+        this.validationInterval = validationInterval;
+    }
+
+    public long getMaxLifetime() {
+        return maxLifetime;
+    }
+
+    public void setMaxLifetime(long maxLifetime) {
+        this.maxLifetime = maxLifetime;
+    }
+
+    public long getLeakDetectionThreshold() {
+        return leakDetectionThreshold;
+    }
+
+    public void setLeakDetectionThreshold(long leakDetectionThreshold) {
+        this.leakDetectionThreshold = leakDetectionThreshold;
+    }
+
+    public long getAbandonedTimeout() {
+        return abandonedTimeout;
+    }
+
+    public void setAbandonedTimeout(long abandonedTimeout) {
+        this.abandonedTimeout = abandonedTimeout;
+    }
+
+    public boolean isLeakStackTrace() {
+        return leakStackTrace;
+    }
+
+    public void setLeakStackTrace(boolean leakStackTrace) {
+        this.leakStackTrace = leakStackTrace;
+    }
+
+    public int getConnectorThreads() {
+        return connectorThreads;
+    }
+
+    public void setConnectorThreads(int connectorThreads) {
+        this.connectorThreads = connectorThreads;
+    }
+
+    public int getSpareConnections() {
+        return spareConnections;
+    }
+
+    public void setSpareConnections(int spareConnections) {
+        this.spareConnections = spareConnections;
+    }
+
+    public int getLowWaterMark() {
+        return lowWaterMark;
+    }
+
+    public void setLowWaterMark(int lowWaterMark) {
+        this.lowWaterMark = lowWaterMark;
+    }
+
+    public int getStorageMinPoolSize() {
+        return storageMinPoolSize;
+    }
+
+    public void setStorageMinPoolSize(int storageMinPoolSize) {
+        this.storageMinPoolSize = storageMinPoolSize;
+    }
+
+    public int getStorageMaxPoolSize() {
+        return storageMaxPoolSize;
+    }
+
+    public void setStorageMaxPoolSize(int storageMaxPoolSize) {
+        this.storageMaxPoolSize = storageMaxPoolSize;
+    }
+
+    public long getStorageMaxIdleTime() {
+        return storageMaxIdleTime;
+    }
+
+    public void setStorageMaxIdleTime(long storageMaxIdleTime) {
+        this.storageMaxIdleTime = storageMaxIdleTime;
+    }
+
+    public int getUploadBufferSize() {
+        return uploadBufferSize;
+    }
+
+    public void setUploadBufferSize(int uploadBufferSize) {
+        this.uploadBufferSize = uploadBufferSize;
+    }
+
+    public int getBatchParallelism() {
+        return batchParallelism;
+    }
+
+    public void setBatchParallelism(int batchParallelism) {
+        this.batchParallelism = batchParallelism;
+    }
+
+    public boolean isRouteCacheEnabled() {
+        return routeCacheEnabled;
+    }
+
+    public void setRouteCacheEnabled(boolean routeCacheEnabled) {
+        this.routeCacheEnabled = routeCacheEnabled;
+    }
+
+    public long getRouteCacheTtl() {
+        return routeCacheTtl;
+    }
+
+    public void setRouteCacheTtl(long routeCacheTtl) {
+        this.routeCacheTtl = routeCacheTtl;
+    }
+
+    public int getTransformThreads() {
+        return transformThreads;
+    }
+
+    public void setTransformThreads(int transformThreads) {
+        this.transformThreads = transformThreads;
+    }
+
+    public long getRouteCacheRefreshAhead() {
+        return routeCacheRefreshAhead;
+    }
+
+    public void setRouteCacheRefreshAhead(long routeCacheRefreshAhead) {
+        this.routeCacheRefreshAhead = routeCacheRefreshAhead;
+    }
+
+    public long getStorageSyncDelay() {
+        return storageSyncDelay;
+    }
+
+    public void setStorageSyncDelay(long storageSyncDelay) {
+        this.storageSyncDelay = storageSyncDelay;
+    }
+
+    public String getTraceMdcKey() {
+        return traceMdcKey;
+    }
+
+    public void setTraceMdcKey(String traceMdcKey) {
+        this.traceMdcKey = traceMdcKey;
+    }
+
+    public long getTrackerEjectTime() {
+        return trackerEjectTime;
+    }
+
+    public void setTrackerEjectTime(long trackerEjectTime) {
+        this.trackerEjectTime = trackerEjectTime;
+    }
+
+    public long getTrackerMaxEjectTime() {
+        return trackerMaxEjectTime;
+    }
+
+    public void setTrackerMaxEjectTime(long trackerMaxEjectTime) {
+        this.trackerMaxEjectTime = trackerMaxEjectTime;
+    }
+
+    public int getTrackerFailureThreshold() {
+        return trackerFailureThreshold;
+    }
+
+    public void setTrackerFailureThreshold(int trackerFailureThreshold) {
+        this.trackerFailureThreshold = trackerFailureThreshold;
     }
 
     public List<String> getTrackerList() {
@@ -101,4 +521,535 @@ public class FastdfsProperties {
     public void setFileProxyServer(String fileProxyServer) {
         this.fileProxyServer = fileProxyServer;
     }
+
+    public Async getAsync() {
+        return async;
+    }
+
+    public Cache getDownloadCache() {
+        return downloadCache;
+    }
+
+    public Retry getRetry() {
+        return retry;
+    }
+
+    public Hedge getHedge() {
+        return hedge;
+    }
+
+    public Resumable getResumable() {
+        return resumable;
+    }
+
+    public ParallelDownload getParallelDownload() {
+        return parallelDownload;
+    }
+
+    public MetadataCache getMetadataCache() {
+        return metadataCache;
+    }
+
+    public Dedup getDedup() {
+        return dedup;
+    }
+
+    public Map<String, FastdfsProperties> getClusters() {
+        return clusters;
+    }
+
+    public ExecutorType getExecutor() {
+        return executor;
+    }
+
+    public void setExecutor(ExecutorType executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * 异步文件服务线程池配置
+     */
+    public static class Async {
+        /**
+         * 核心线程数
+         */
+        private int corePoolSize = 8;
+        /**
+         * 最大线程数
+         */
+        private int maxPoolSize = 32;
+        /**
+         * 任务队列长度
+         */
+        private int queueCapacity = 1000;
+        /**
+         * 空闲线程存活时间（单位：毫秒）
+         */
+        private long keepAliveTime = 60000;
+        /**
+         * 队列已满时的处理方式
+         */
+        private RejectionPolicy rejectionPolicy = RejectionPolicy.ABORT;
+        /**
+         * 虚拟线程模式下同时执行的任务上限，超过后按rejectionPolicy处理
+         */
+        private int maxConcurrency = 10000;
+
+        public int getCorePoolSize() {
+            return corePoolSize;
+        }
+
+        public void setCorePoolSize(int corePoolSize) {
+            this.corePoolSize = corePoolSize;
+        }
+
+        public int getMaxPoolSize() {
+            return maxPoolSize;
+        }
+
+        public void setMaxPoolSize(int maxPoolSize) {
+            this.maxPoolSize = maxPoolSize;
+        }
+
+        public int getQueueCapacity() {
+            return queueCapacity;
+        }
+
+        public void setQueueCapacity(int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+        }
+
+        public long getKeepAliveTime() {
+            return keepAliveTime;
+        }
+
+        public void setKeepAliveTime(long keepAliveTime) {
+            this.keepAliveTime = keepAliveTime;
+        }
+
+        public RejectionPolicy getRejectionPolicy() {
+            return rejectionPolicy;
+        }
+
+        public void setRejectionPolicy(RejectionPolicy rejectionPolicy) {
+            this.rejectionPolicy = rejectionPolicy;
+        }
+
+        public int getMaxConcurrency() {
+            return maxConcurrency;
+        }
+
+        public void setMaxConcurrency(int maxConcurrency) {
+            this.maxConcurrency = maxConcurrency;
+        }
+    }
+
+    /**
+     * 线程池队列已满时的处理方式
+     */
+    public enum RejectionPolicy {
+        /**
+         * 拒绝任务，返回失败的future
+         */
+        ABORT,
+        /**
+         * 在调用线程上执行，反压调用方
+         */
+        CALLER_RUNS
+    }
+
+    /**
+     * 异步文件服务执行方式
+     */
+    public enum ExecutorType {
+        /**
+         * 有界平台线程池
+         */
+        PLATFORM,
+        /**
+         * 每个任务一个虚拟线程，并发数由maxConcurrency限制
+         */
+        VIRTUAL
+    }
+
+    /**
+     * 下载缓存配置
+     */
+    public static class Cache {
+        /**
+         * 是否启用
+         */
+        private boolean enabled = false;
+        /**
+         * 内存缓存最大字节数
+         */
+        private long maxSize = 64L * 1024 * 1024;
+        /**
+         * 单个文件超过该字节数时不缓存
+         */
+        private long maxEntrySize = 1024 * 1024;
+        /**
+         * 淘汰策略
+         */
+        private CacheEviction eviction = CacheEviction.TINY_LFU;
+        /**
+         * 是否把内容保存在堆外内存
+         */
+        private boolean offHeap = false;
+        /**
+         * 磁盘缓存目录，为空时不使用磁盘缓存
+         */
+        private String diskDir;
+        /**
+         * 磁盘缓存最大字节数
+         */
+        private long diskMaxSize = 1024L * 1024 * 1024;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public long getMaxSize() {
+            return maxSize;
+        }
+
+        public void setMaxSize(long maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        public long getMaxEntrySize() {
+            return maxEntrySize;
+        }
+
+        public void setMaxEntrySize(long maxEntrySize) {
+            this.maxEntrySize = maxEntrySize;
+        }
+
+        public CacheEviction getEviction() {
+            return eviction;
+        }
+
+        public void setEviction(CacheEviction eviction) {
+            this.eviction = eviction;
+        }
+
+        public boolean isOffHeap() {
+            return offHeap;
+        }
+
+        public void setOffHeap(boolean offHeap) {
+            this.offHeap = offHeap;
+        }
+
+        public String getDiskDir() {
+            return diskDir;
+        }
+
+        public void setDiskDir(String diskDir) {
+            this.diskDir = diskDir;
+        }
+
+        public long getDiskMaxSize() {
+            return diskMaxSize;
+        }
+
+        public void setDiskMaxSize(long diskMaxSize) {
+            this.diskMaxSize = diskMaxSize;
+        }
+    }
+
+    /**
+     * 幂等操作的重试配置，重试间隔在[0, min(maxBackoff, backoff * 2^(n-1))]内随机
+     */
+    public static class Retry {
+        /**
+         * 最多尝试次数（含第一次），1表示不重试
+         */
+        private int maxAttempts = 2;
+        /**
+         * 重试基础间隔（单位：毫秒）
+         */
+        private long backoff = 50;
+        /**
+         * 重试最大间隔（单位：毫秒）
+         */
+        private long maxBackoff = 1000;
+
+        public int getMaxAttempts() {
+            return maxAttempts;
+        }
+
+        public void setMaxAttempts(int maxAttempts) {
+            this.maxAttempts = maxAttempts;
+        }
+
+        public long getBackoff() {
+            return backoff;
+        }
+
+        public void setBackoff(long backoff) {
+            this.backoff = backoff;
+        }
+
+        public long getMaxBackoff() {
+            return maxBackoff;
+        }
+
+        public void setMaxBackoff(long maxBackoff) {
+            this.maxBackoff = maxBackoff;
+        }
+    }
+
+    /**
+     * 对冲下载配置：第一个副本在最近下载延迟的percentile分位内未返回时，向另一个副本再发一次请求，取先返回的结果
+     */
+    public static class Hedge {
+        /**
+         * 是否启用，只作用于download(fileId)
+         */
+        private boolean enabled = false;
+        /**
+         * 等待时间取最近下载延迟的该分位数
+         */
+        private double percentile = 0.95;
+        /**
+         * 最短等待时间（单位：毫秒）
+         */
+        private long minDelay = 5;
+        /**
+         * 执行对冲请求的最大线程数，已满时不对冲
+         */
+        private int maxThreads = 64;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public double getPercentile() {
+            return percentile;
+        }
+
+        public void setPercentile(double percentile) {
+            this.percentile = percentile;
+        }
+
+        public long getMinDelay() {
+            return minDelay;
+        }
+
+        public void setMinDelay(long minDelay) {
+            this.minDelay = minDelay;
+        }
+
+        public int getMaxThreads() {
+            return maxThreads;
+        }
+
+        public void setMaxThreads(int maxThreads) {
+            this.maxThreads = maxThreads;
+        }
+    }
+
+    /**
+     * 断点续传配置
+     */
+    public static class Resumable {
+        /**
+         * 分块大小（单位：字节），失败时只重发所在的分块
+         */
+        private int chunkSize = 8 * 1024 * 1024;
+        /**
+         * 发送当前分块时预先读取的分块数
+         */
+        private int readAhead = 2;
+        /**
+         * 检查点保存目录，为空时保存在内存中，进程重启后不能续传
+         */
+        private String checkpointDir;
+
+        public int getChunkSize() {
+            return chunkSize;
+        }
+
+        public void setChunkSize(int chunkSize) {
+            this.chunkSize = chunkSize;
+        }
+
+        public int getReadAhead() {
+            return readAhead;
+        }
+
+        public void setReadAhead(int readAhead) {
+            this.readAhead = readAhead;
+        }
+
+        public String getCheckpointDir() {
+            return checkpointDir;
+        }
+
+        public void setCheckpointDir(String checkpointDir) {
+            this.checkpointDir = checkpointDir;
+        }
+    }
+
+    /**
+     * 并行分段下载配置
+     */
+    public static class ParallelDownload {
+        /**
+         * 单个文件同时下载的分段数，所有并行下载共用该数量的线程，调用线程也参与下载
+         */
+        private int parallelism = 4;
+        /**
+         * 分段大小（单位：字节）
+         */
+        private int chunkSize = 16 * 1024 * 1024;
+        /**
+         * 是否通过内存映射写入文件，映射区在GC时释放
+         */
+        private boolean memoryMapped = false;
+
+        public int getParallelism() {
+            return parallelism;
+        }
+
+        public void setParallelism(int parallelism) {
+            this.parallelism = parallelism;
+        }
+
+        public int getChunkSize() {
+            return chunkSize;
+        }
+
+        public void setChunkSize(int chunkSize) {
+            this.chunkSize = chunkSize;
+        }
+
+        public boolean isMemoryMapped() {
+            return memoryMapped;
+        }
+
+        public void setMemoryMapped(boolean memoryMapped) {
+            this.memoryMapped = memoryMapped;
+        }
+    }
+
+    /**
+     * 元数据缓存配置
+     */
+    public static class MetadataCache {
+        /**
+         * 是否启用
+         */
+        private boolean enabled = false;
+        /**
+         * 最多缓存的文件数，超过时淘汰最近最少使用的
+         */
+        private int maxEntries = 10000;
+        /**
+         * 缓存有效时间（单位：毫秒），其它实例修改元数据时本实例最多在该时间内读到旧值
+         */
+        private long ttl = 60000;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getMaxEntries() {
+            return maxEntries;
+        }
+
+        public void setMaxEntries(int maxEntries) {
+            this.maxEntries = maxEntries;
+        }
+
+        public long getTtl() {
+            return ttl;
+        }
+
+        public void setTtl(long ttl) {
+            this.ttl = ttl;
+        }
+    }
+
+    /**
+     * 去重上传配置
+     */
+    public static class Dedup {
+        /**
+         * 是否启用，启用后字节数组和本地文件上传先计算摘要，流式上传先写入临时文件并计算摘要，
+         * 索引中已有相同内容和元数据时直接返回已有的文件ID
+         */
+        private boolean enabled = false;
+        /**
+         * 摘要算法，JDK MessageDigest支持的算法名
+         */
+        private String algorithm = "SHA-256";
+        /**
+         * 内存索引最多记录的文件数
+         */
+        private int maxEntries = 100000;
+        /**
+         * 命中时是否先查询源storage确认文件仍然存在，所有删除都经过本索引时可以关闭
+         */
+        private boolean verifyHit = true;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public String getAlgorithm() {
+            return algorithm;
+        }
+
+        public void setAlgorithm(String algorithm) {
+            this.algorithm = algorithm;
+        }
+
+        public int getMaxEntries() {
+            return maxEntries;
+        }
+
+        public void setMaxEntries(int maxEntries) {
+            this.maxEntries = maxEntries;
+        }
+
+        public boolean isVerifyHit() {
+            return verifyHit;
+        }
+
+        public void setVerifyHit(boolean verifyHit) {
+            this.verifyHit = verifyHit;
+        }
+    }
+
+    /**
+     * 下载缓存淘汰策略
+     */
+    public enum CacheEviction {
+        /**
+         * 最近最少使用
+         */
+        LRU,
+        /**
+         * Caffeine的W-TinyLFU，classpath中没有Caffeine时使用LRU
+         */
+        TINY_LFU
+    }
 }
@@ -0,0 +1,59 @@
+package io.github.whiliang.fdfs;
+
+import org.csource.fastdfs.ClientGlobal;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * tracker、storage连接的socket设置
+ * <p>
+ * fastdfs协议的请求头和请求体分多次写出，开启TCP_NODELAY避免Nagle算法与对端延迟确认叠加造成每次请求约40ms的等待
+ *
+ * @author whiliang
+ */
+final class FastdfsSockets {
+
+    /**
+     * 各集群中最大的connectTimeout（单位：毫秒）
+     */
+    private static int storageConnectTimeout = 0;
+
+    private FastdfsSockets() {
+    }
+
+    /**
+     * @param connectTimeout 建连超时时间（单位：毫秒）
+     * @param networkTimeout 读超时时间（单位：毫秒）
+     */
+    static Socket connect(InetSocketAddress address, int connectTimeout, int networkTimeout) throws IOException {
+        Socket socket = new Socket();
+        try {
+            configure(socket, networkTimeout);
+            socket.connect(address, connectTimeout);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        return socket;
+    }
+
+    /**
+     * @param networkTimeout 读超时时间（单位：毫秒）
+     */
+    static void configure(Socket socket, int networkTimeout) throws IOException {
+        socket.setSoTimeout(networkTimeout);
+        socket.setTcpNoDelay(true);
+    }
+
+    /**
+     * @Description: StorageServer的构造方法只能通过ClientGlobal建连，建连超时时间是进程内全局的，多个集群时取最大的connectTimeout，
+     * 即一个集群的storage建连超时会作用于所有集群；tracker连接由本类建立，不受影响。
+     * 建连在后台connector线程上进行，不会阻塞请求线程
+     */
+    static synchronized void registerStorageConnectTimeout(int connectTimeout) {
+        storageConnectTimeout = Math.max(storageConnectTimeout, connectTimeout);
+        ClientGlobal.setG_connect_timeout(storageConnectTimeout);
+    }
+}
@@ -0,0 +1,31 @@
+package io.github.whiliang.fdfs;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 按前缀命名的线程工厂
+ *
+ * @author whiliang
+ */
+public class FastdfsThreadFactory implements ThreadFactory {
+
+    private final AtomicInteger id = new AtomicInteger(0);
+
+    private final String prefix;
+
+    private final boolean daemon;
+
+    public FastdfsThreadFactory(String prefix, boolean daemon) {
+        this.prefix = prefix;
+        this.daemon = daemon;
+    }
+
+    @Override
+    public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r);
+        thread.setName(prefix + id.addAndGet(1));
+        thread.setDaemon(daemon);
+        return thread;
+    }
+}
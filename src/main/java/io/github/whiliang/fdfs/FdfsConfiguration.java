@@ -5,7 +5,15 @@ import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
+import org.springframework.context.annotation.Condition;
+import org.springframework.context.annotation.ConditionContext;
+import org.springframework.context.annotation.Conditional;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.core.type.AnnotatedTypeMetadata;
+import reactor.core.scheduler.Schedulers;
 
 import javax.annotation.Resource;
 
@@ -18,6 +26,7 @@ import javax.annotation.Resource;
 @ConditionalOnClass(FastdfsFileServiceImpl.class)
 @EnableConfigurationProperties(FastdfsProperties.class)
 @ComponentScan("io.github.whiliang.fdfs")
+@Import(FastdfsClusterRegistrar.class)
 @ConditionalOnProperty(
         prefix = "spring.fastdfs",
         name = "enable",
@@ -28,8 +37,72 @@ public class FdfsConfiguration {
     @Resource
     private FastdfsProperties fastdfsProperties;
 
-    @Bean
+    @Bean(destroyMethod = "shutdown")
+    @Primary
+    @Conditional(OnDefaultClusterCondition.class)
     public FastdfsFileServiceImpl fastdfsFileServiceImpl() {
         return new FastdfsFileServiceImpl(fastdfsProperties);
     }
+
+    @Bean(destroyMethod = "shutdown")
+    @Conditional(OnDefaultClusterCondition.class)
+    public AsyncFastdfsFileServiceImpl asyncFastdfsFileServiceImpl(FastdfsFileServiceImpl fastdfsFileServiceImpl) {
+        return new AsyncFastdfsFileServiceImpl(fastdfsFileServiceImpl,
+                FastdfsExecutors.newAsyncExecutor(fastdfsProperties));
+    }
+
+    /**
+     * classpath中存在Micrometer时注册连接池和文件操作指标
+     */
+    @Configuration
+    @ConditionalOnClass(name = "io.micrometer.core.instrument.MeterRegistry")
+    static class FastdfsMetricsConfiguration {
+
+        @Bean
+        @Conditional(OnDefaultClusterCondition.class)
+        public MicrometerFastdfsMetrics fastdfsMetrics(FastdfsFileServiceImpl fastdfsFileServiceImpl) {
+            return new MicrometerFastdfsMetrics(fastdfsFileServiceImpl);
+        }
+    }
+
+    /**
+     * classpath中存在Reactor时注册响应式文件服务，阻塞的storage读写在boundedElastic中执行
+     */
+    @Configuration
+    @ConditionalOnClass(name = "reactor.core.publisher.Flux")
+    static class FastdfsReactiveConfiguration {
+
+        @Bean
+        @Conditional(OnDefaultClusterCondition.class)
+        public ReactiveFastdfsFileServiceImpl reactiveFastdfsFileServiceImpl(FastdfsFileServiceImpl fastdfsFileServiceImpl,
+                                                                             FastdfsProperties fastdfsProperties) {
+            return new ReactiveFastdfsFileServiceImpl(fastdfsFileServiceImpl, Schedulers.boundedElastic(),
+                    new DefaultDataBufferFactory(), ReactiveFastdfsFileServiceImpl.DEFAULT_PREFETCH,
+                    fastdfsProperties.getNetworkTimeout());
+        }
+    }
+
+    /**
+     * classpath中存在actuator时注册fastdfs端点
+     */
+    @Configuration
+    @ConditionalOnClass(name = "org.springframework.boot.actuate.endpoint.annotation.Endpoint")
+    static class FastdfsEndpointConfiguration {
+
+        @Bean
+        public FastdfsEndpoint fastdfsEndpoint(FastdfsClusters fastdfsClusters) {
+            return new FastdfsEndpoint(fastdfsClusters);
+        }
+    }
+
+    /**
+     * spring.fastdfs下配置了tracker-list时才创建默认集群，只使用spring.fastdfs.clusters时不创建
+     */
+    static class OnDefaultClusterCondition implements Condition {
+
+        @Override
+        public boolean matches(ConditionContext context, AnnotatedTypeMetadata metadata) {
+            return FastdfsClusterRegistrar.hasDefaultCluster(context.getEnvironment());
+        }
+    }
 }
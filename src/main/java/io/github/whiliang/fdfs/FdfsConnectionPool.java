@@ -1,294 +1,366 @@
-package io.github.whiliang.fdfs;
-
-import org.csource.fastdfs.ClientGlobal;
-import org.csource.fastdfs.TrackerClient;
-import org.csource.fastdfs.TrackerGroup;
-import org.csource.fastdfs.TrackerServer;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
-import java.io.IOException;
-import java.net.InetSocketAddress;
-import java.util.Arrays;
-import java.util.List;
-import java.util.UUID;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.TimeUnit;
-
-/**
- * fastdfs连接池
- *
- * @author whiliang
- */
-public class FdfsConnectionPool {
-
-    private static final Logger LOGGER = LoggerFactory.getLogger(FdfsConnectionPool.class);
-    /**
-     * 空闲的连接池
-     */
-    private LinkedBlockingQueue<TrackerServer> idleConnectionPool = null;
-    /**
-     * 连接池默认最小连接数
-     */
-    private long minPoolSize = 10;
-    /**
-     * 连接池默认最大连接数
-     */
-    private long maxPoolSize = 30;
-    /**
-     * 当前创建的连接数
-     */
-    private volatile long nowPoolSize = 0;
-    /**
-     * 默认等待时间（单位：秒）
-     */
-    private long waitTimes = 200;
-    /**
-     * fastdfs客户端创建连接默认1次
-     */
-    private static final int COUNT = 1;
-
-    private String trackerServers = "";
-
-    /**
-     * 默认编码
-     */
-    public static final String DEFAULT_CHARSET = "UTF-8";
-
-    /**
-     * 默认构造方法
-     */
-    public FdfsConnectionPool(String trackerServers, long minPoolSize, long maxPoolSize, long waitTimes) {
-        String logId = UUID.randomUUID().toString();
-        LOGGER.info("[线程池构造方法(ConnectionPool)][" + logId
-                + "][默认参数：minPoolSize=" + minPoolSize + ",maxPoolSize="
-                + maxPoolSize + ",waitTimes=" + waitTimes + "]");
-        this.minPoolSize = minPoolSize;
-        this.maxPoolSize = maxPoolSize;
-        this.waitTimes = waitTimes;
-        this.trackerServers = trackerServers;
-        /** 初始化连接池 */
-        poolInit(logId);
-        /** 注册心跳 */
-        FastdfsHeartBeat beat = new FastdfsHeartBeat(this);
-        beat.beat();
-    }
-
-    /**
-     * @Description: 连接池初始化 (在加载当前ConnectionPool时执行)
-     * 1).加载配置文件
-     * 2).空闲连接池初始化；
-     * 3).创建最小连接数的连接，并放入到空闲连接池；
-     */
-    private void poolInit(String logId) {
-        try {
-            /** 加载配置文件 */
-            initClientGlobal();
-            /** 初始化空闲连接池 */
-            idleConnectionPool = new LinkedBlockingQueue<TrackerServer>();
-            /** 往线程池中添加默认大小的线程 */
-            for (int i = 0; i < minPoolSize; i++) {
-                createTrackerServer(logId, COUNT);
-            }
-        } catch (Exception e) {
-            LOGGER.error("[FASTDFS初始化(init)--异常][" + logId + "][异常：{}]", e);
-        }
-    }
-
-    /**
-     * @Description: 创建TrackerServer, 并放入空闲连接池
-     */
-    public void createTrackerServer(String logId, int flag) {
-
-        LOGGER.info("[创建TrackerServer(createTrackerServer)][" + logId + "]");
-        TrackerServer trackerServer = null;
-
-        try {
-
-            TrackerClient trackerClient = new TrackerClient();
-            trackerServer = trackerClient.getConnection();
-            while (trackerServer == null && flag < 5) {
-                LOGGER.info("[创建TrackerServer(createTrackerServer)][" + logId
-                        + "][第" + flag + "次重建]");
-                flag++;
-                initClientGlobal();
-                trackerServer = trackerClient.getConnection();
-            }
-            org.csource.fastdfs.ProtoCommon.activeTest(trackerServer
-                    .getSocket());
-            idleConnectionPool.add(trackerServer);
-            /** 同一时间只允许一个线程对nowPoolSize操作 **/
-            synchronized (this) {
-                nowPoolSize++;
-            }
-
-        } catch (Exception e) {
-
-            LOGGER.error("[创建TrackerServer(createTrackerServer)][" + logId
-                    + "][异常：{}]", e);
-
-        } finally {
-
-            if (trackerServer != null) {
-                try {
-                    trackerServer.close();
-                } catch (Exception e) {
-                    LOGGER.error("[创建TrackerServer(createTrackerServer)--关闭trackerServer异常]["
-                            + logId + "][异常：{}]", e);
-                }
-            }
-
-        }
-    }
-
-    /**
-     * @throws FastdfsException
-     * @Description: 获取空闲连接 1).在空闲池（idleConnectionPool)中弹出一个连接；
-     * 2).把该连接放入忙碌池（busyConnectionPool）中; 3).返回 connection
-     * 4).如果没有idle connection, 等待 wait_time秒, and check again
-     */
-    public TrackerServer checkout(String logId) throws FastdfsException {
-
-        TrackerServer trackerServer = idleConnectionPool.poll();
-
-        if (trackerServer == null) {
-
-            if (nowPoolSize < maxPoolSize) {
-                createTrackerServer(logId, COUNT);
-                try {
-                    trackerServer = idleConnectionPool.poll(waitTimes,
-                            TimeUnit.SECONDS);
-                } catch (Exception e) {
-                    LOGGER.error("[获取空闲连接(checkout)-error][" + logId
-                            + "][error:获取连接超时:{}]", e);
-                    throw ERRORS.WAIT_IDLECONNECTION_TIMEOUT.ERROR();
-                }
-            }
-            if (trackerServer == null) {
-                LOGGER.error("[获取空闲连接(checkout)-error][" + logId
-                        + "][error:获取连接超时（" + waitTimes + "s）]");
-                throw ERRORS.WAIT_IDLECONNECTION_TIMEOUT.ERROR();
-            }
-
-        }
-        return trackerServer;
-
-    }
-
-    /**
-     * @param client 需释放的连接对象
-     * @Description: 释放繁忙连接 1.如果空闲池的连接小于最小连接值，就把当前连接放入idleConnectionPool；
-     * 2.如果空闲池的连接等于或大于最小连接值，就把当前释放连接丢弃；
-     */
-
-    public void checkin(TrackerServer trackerServer, String client) {
-
-        if (trackerServer != null) {
-            if (idleConnectionPool.size() < minPoolSize) {
-                idleConnectionPool.add(trackerServer);
-            } else {
-                synchronized (this) {
-                    if (nowPoolSize != 0) {
-                        nowPoolSize--;
-                    }
-                }
-            }
-        }
-
-    }
-
-    /**
-     * @param trackerServer
-     * @Description: 删除不可用的连接，并把当前连接数减一（调用过程中trackerServer报异常，调用一般在finally中）
-     */
-    public void drop(TrackerServer trackerServer, String logId) {
-        LOGGER.info("[删除不可用连接方法(drop)][" + logId + "][parms:" + trackerServer
-                + "] ");
-        if (trackerServer != null) {
-            try {
-                synchronized (this) {
-                    if (nowPoolSize != 0) {
-                        nowPoolSize--;
-                    }
-                }
-                trackerServer.close();
-            } catch (IOException e) {
-                LOGGER.info("[删除不可用连接方法(drop)--关闭trackerServer异常][" + logId
-                        + "][异常：{}]", e);
-            }
-        }
-    }
-
-    private void initClientGlobal() throws Exception {
-        ClientGlobal.setG_charset(DEFAULT_CHARSET);
-        ClientGlobal.setG_tracker_group(createTrackerGroup());
-    }
-
-    private TrackerGroup createTrackerGroup() {
-        // 配置trackerServers
-        if (trackerServers == null || trackerServers.isEmpty()) {
-            throw ERRORS.TRACKERS_ADDRESS_INVALID.ERROR();
-        }
-
-        String[] arrTrackServers = trackerServers.split(",");
-
-        List<String> trackerServerList = Arrays.asList(arrTrackServers);
-
-        InetSocketAddress[] servers = new InetSocketAddress[trackerServerList
-                .size()];
-        for (int i = 0; i < trackerServerList.size(); i++) {
-            String trackerServer = trackerServerList.get(i);
-            String[] hostAndPort = trackerServer.split("\\:");
-            if (hostAndPort.length != 2) {
-                throw ERRORS.TRACKERS_ADDRESS_INVALID.ERROR();
-            }
-
-            // host和port解析
-            String hostname = hostAndPort[0];
-            int port;
-            try {
-                port = Integer.valueOf(hostAndPort[1]);
-            } catch (NumberFormatException e) {
-                throw ERRORS.TRACKERS_ADDRESS_INVALID.ERROR();
-            }
-            servers[i] = new InetSocketAddress(hostname, port);
-        }
-
-        // 配置TrackerGroup
-        return new TrackerGroup(servers);
-    }
-
-    public LinkedBlockingQueue<TrackerServer> getIdleConnectionPool() {
-        return idleConnectionPool;
-    }
-
-    public long getMinPoolSize() {
-        return minPoolSize;
-    }
-
-    public void setMinPoolSize(long minPoolSize) {
-        if (minPoolSize != 0) {
-            this.minPoolSize = minPoolSize;
-        }
-    }
-
-    public long getMaxPoolSize() {
-        return maxPoolSize;
-    }
-
-    public void setMaxPoolSize(long maxPoolSize) {
-        if (maxPoolSize != 0) {
-            this.maxPoolSize = maxPoolSize;
-        }
-    }
-
-    public long getWaitTimes() {
-        return waitTimes;
-    }
-
-    public void setWaitTimes(int waitTimes) {
-        if (waitTimes != 0) {
-            this.waitTimes = waitTimes;
-        }
-    }
-}
+package io.github.whiliang.fdfs;
+
+import org.csource.fastdfs.ClientGlobal;
+import org.csource.fastdfs.ProtoCommon;
+import org.csource.fastdfs.TrackerServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * fastdfs连接池
+ *
+ * @author whiliang
+ */
+public class FdfsConnectionPool {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FdfsConnectionPool.class);
+    /**
+     * tracker连接
+     */
+    private BoundedConnectionPool<PooledTrackerServer> connections = null;
+    /**
+     * 按健康度选择建连的tracker
+     */
+    private TrackerSelector selector = null;
+    /**
+     * 连接池默认最小连接数
+     */
+    private long minPoolSize = 10;
+    /**
+     * 连接池默认最大连接数
+     */
+    private long maxPoolSize = 30;
+    /**
+     * 获取连接最大等待时间（单位：毫秒）
+     */
+    private long maxWaitTime = 5000;
+    /**
+     * 空闲连接最大存活时间（单位：毫秒）
+     */
+    private long maxIdleTime = 300000;
+    /**
+     * 建连超时时间（单位：毫秒）
+     */
+    private int connectTimeout = 5000;
+    /**
+     * 读超时时间（单位：毫秒）
+     */
+    private int networkTimeout = 30000;
+    private String trackerServers = "";
+
+    /**
+     * 后台建连线程
+     */
+    private ScheduledExecutorService connector = null;
+
+    /**
+     * 空闲连接检测与回收
+     */
+    private FastdfsHeartBeat heartBeat = null;
+
+    /**
+     * 默认编码
+     */
+    public static final String DEFAULT_CHARSET = "UTF-8";
+
+    /**
+     * 默认构造方法
+     *
+     * @param waitTimes 等待时间（单位：秒）
+     * @deprecated 使用 {@link #FdfsConnectionPool(FastdfsProperties)}，等待时间以毫秒为单位
+     */
+    @Deprecated
+    public FdfsConnectionPool(String trackerServers, long minPoolSize, long maxPoolSize, long waitTimes) {
+        this(legacyProperties(trackerServers, minPoolSize, maxPoolSize, waitTimes));
+    }
+
+    public FdfsConnectionPool(FastdfsProperties properties) {
+        OperationId logId = OperationIds.next();
+        LOGGER.info("[线程池构造方法(ConnectionPool)][{}][默认参数：minPoolSize={},maxPoolSize={},maxWaitTime={},maxIdleTime={}]",
+                logId, properties.getMinPoolSize(), properties.getMaxPoolSize(), properties.getMaxWaitTime(),
+                properties.getMaxIdleTime());
+        this.minPoolSize = properties.getMinPoolSize();
+        this.maxPoolSize = properties.getMaxPoolSize();
+        this.maxWaitTime = properties.getMaxWaitTime();
+        this.maxIdleTime = properties.getMaxIdleTime();
+        this.connectTimeout = properties.getConnectTimeout();
+        this.networkTimeout = properties.getNetworkTimeout();
+        this.trackerServers = properties.getTrackerList() == null ? "" : String.join(",", properties.getTrackerList());
+        this.connector = Executors.newScheduledThreadPool(properties.getConnectorThreads(),
+                new FastdfsThreadFactory("fastdfs-tracker-connector-", true));
+        /** 初始化连接池 */
+        poolInit(logId, properties);
+        /** 注册心跳 */
+        this.heartBeat = new FastdfsHeartBeat(this);
+        heartBeat.beat(properties.getValidationInterval());
+        heartBeat.evict();
+    }
+
+    private static FastdfsProperties legacyProperties(String trackerServers, long minPoolSize, long maxPoolSize, long waitTimes) {
+        FastdfsProperties properties = new FastdfsProperties();
+        properties.setTrackerList(Arrays.asList(trackerServers.split(",")));
+        properties.setMinPoolSize(minPoolSize);
+        properties.setMaxPoolSize(maxPoolSize);
+        properties.setMaxWaitTime(waitTimes * 1000);
+        return properties;
+    }
+
+    /**
+     * @Description: 连接池初始化 (在加载当前ConnectionPool时执行)
+     * 1).加载配置文件
+     * 2).空闲连接池初始化；
+     * 3).创建最小连接数的连接，并放入到空闲连接池；
+     */
+    private void poolInit(OperationId logId, FastdfsProperties properties) {
+        try {
+            /** 加载配置文件 */
+            initClientGlobal();
+            selector = new TrackerSelector(createTrackerAddresses(), properties.getTrackerEjectTime(),
+                    properties.getTrackerMaxEjectTime(), properties.getTrackerFailureThreshold());
+            /** 初始化空闲连接池 */
+            connections = new BoundedConnectionPool<>("tracker", (int) maxPoolSize, this::createTrackerServer,
+                    connector, properties.getConnectorThreads(), properties.getSpareConnections(),
+                    properties.getLowWaterMark());
+            connections.setValidation(this::testTracker, properties.isTestOnBorrow(),
+                    properties.getValidationSkipWindow(), properties.getMaxLifetime());
+            connections.setLeakDetection(properties.getLeakDetectionThreshold(), properties.getAbandonedTimeout(),
+                    properties.isLeakStackTrace());
+            /** 往线程池中添加默认大小的连接 */
+            connections.prefill(logId, (int) minPoolSize);
+        } catch (Exception e) {
+            LOGGER.error("[FASTDFS初始化(init)--异常][{}][异常：{}]", logId, e);
+        }
+    }
+
+    /**
+     * @Description: 创建TrackerServer，由selector选择tracker，建连失败的tracker被摘除后换下一个，最多尝试tracker个数次
+     */
+    private PooledTrackerServer createTrackerServer(OperationId logId) throws IOException {
+
+        LOGGER.info("[创建TrackerServer(createTrackerServer)][{}]", logId);
+        IOException failure = null;
+        for (int i = 0; i < selector.getTrackers().size(); i++) {
+            TrackerSelector.TrackerHealth tracker = selector.select();
+            long start = System.nanoTime();
+            PooledTrackerServer pooled = null;
+            try {
+                Socket socket = FastdfsSockets.connect(tracker.getAddress(), connectTimeout, networkTimeout);
+                pooled = new PooledTrackerServer(socket, tracker.getAddress(), tracker);
+                if (!ProtoCommon.activeTest(socket)) {
+                    throw new IOException("active test failed");
+                }
+                selector.recordSuccess(tracker, System.nanoTime() - start);
+                return pooled;
+            } catch (IOException e) {
+                LOGGER.error("[创建TrackerServer(createTrackerServer)][{}][tracker:{}][异常：{}]",
+                        logId, tracker.getAddress(), e.toString());
+                if (pooled != null) {
+                    pooled.close();
+                }
+                selector.recordFailure(tracker, true);
+                failure = e;
+            }
+        }
+        throw new IOException("No tracker server is available.", failure);
+    }
+
+    /**
+     * @param latencyNanos 请求耗时（单位：纳秒）
+     * @param success      tracker是否正常应答，tracker返回的业务错误码也算正常应答
+     * @Description: 记录tracker请求结果，tracker因此被摘除时关闭连到它的空闲连接
+     */
+    public void record(TrackerServer trackerServer, long latencyNanos, boolean success, OperationId logId) {
+        TrackerSelector.TrackerHealth tracker = trackerServer instanceof PooledTrackerServer
+                ? ((PooledTrackerServer) trackerServer).getHealth() : null;
+        if (tracker == null) {
+            return;
+        }
+        if (success) {
+            selector.recordSuccess(tracker, latencyNanos);
+        } else if (selector.recordFailure(tracker, false)) {
+            connections.evictIdleIf(logId, connection -> connection.getHealth() == tracker);
+        }
+    }
+
+    /**
+     * @throws FastdfsException
+     * @Description: 获取空闲连接 1).在maxWaitTime毫秒内按FIFO顺序等待许可；
+     * 2).在空闲池中弹出最近归还的连接；3).没有空闲连接时由后台connector建连，当前线程只在空闲池上等待
+     */
+    public TrackerServer checkout(OperationId logId) throws FastdfsException {
+        return connections.borrow(logId, maxWaitTime);
+    }
+
+    /**
+     * @param deadline 本次操作的截止时间，最多等待maxWaitTime与剩余时间中较小的一个
+     * @throws FastdfsException
+     */
+    public TrackerServer checkout(OperationId logId, Deadline deadline) throws FastdfsException {
+        return connections.borrow(logId, deadline.waitMillis(maxWaitTime));
+    }
+
+    /**
+     * @param deadline 本次操作的截止时间
+     * @return 连接租约，在try-with-resources中使用，请求正常结束后调用markReusable归还，否则丢弃连接
+     * @throws FastdfsException
+     */
+    public ConnectionLease<TrackerServer> lease(OperationId logId, Deadline deadline) throws FastdfsException {
+        return new ConnectionLease<>(checkout(logId, deadline), logId, this::checkin, this::drop);
+    }
+
+    /**
+     * @param trackerServer 需释放的连接对象
+     * @Description: 释放繁忙连接，放回空闲池，空闲时间超过maxIdleTime的连接由心跳回收
+     */
+
+    public void checkin(TrackerServer trackerServer, OperationId logId) {
+
+        if (trackerServer != null) {
+            PooledTrackerServer pooled = (PooledTrackerServer) trackerServer;
+            if (pooled.getHealth() != null && pooled.getHealth().isEjected()) {
+                /** tracker已摘除，不再复用连到它的连接 */
+                connections.invalidate(logId, pooled);
+            } else {
+                connections.release(pooled);
+            }
+        }
+
+    }
+
+    /**
+     * @param trackerServer
+     * @Description: 删除不可用的连接，并把当前连接数减一（调用过程中trackerServer报异常，调用一般在finally中）
+     */
+    public void drop(TrackerServer trackerServer, OperationId logId) {
+        LOGGER.info("[删除不可用连接方法(drop)][{}][parms:{}]", logId, trackerServer);
+        if (trackerServer != null) {
+            connections.invalidate(logId, (PooledTrackerServer) trackerServer);
+        }
+    }
+
+    /**
+     * @Description: 检测空闲连接是否可用，不可用和超过最大存活时间的连接从连接池中移除
+     */
+    public void validateIdle(OperationId logId) {
+        connections.validateIdle(logId);
+    }
+
+    /**
+     * @Description: 检查借出未归还的连接，记录疑似泄漏，回收超过abandonedTimeout的连接
+     */
+    public void checkLeaks(OperationId logId) {
+        connections.checkLeaks(logId);
+    }
+
+    /**
+     * @Description: 借出前和后台检测tracker连接，结果计入tracker健康度
+     */
+    private boolean testTracker(PooledTrackerServer trackerServer) throws IOException {
+        long start = System.nanoTime();
+        boolean valid = false;
+        try {
+            valid = ProtoCommon.activeTest(trackerServer.getSocket());
+            return valid;
+        } finally {
+            record(trackerServer, System.nanoTime() - start, valid, OperationIds.next());
+        }
+    }
+
+    /**
+     * @Description: 回收超过最大空闲时间的连接，保留minPoolSize个连接
+     */
+    public void evictIdle(OperationId logId) {
+        connections.evictIdle(logId, (int) minPoolSize, maxIdleTime);
+    }
+
+    /**
+     * @Description: fastdfs-client只能通过ClientGlobal设置编码，所有集群使用同一编码，只在不一致时写入；
+     * tracker地址由各连接池的TrackerSelector维护，不再写入ClientGlobal的TrackerGroup
+     */
+    private static void initClientGlobal() {
+        if (!DEFAULT_CHARSET.equals(ClientGlobal.getG_charset())) {
+            ClientGlobal.setG_charset(DEFAULT_CHARSET);
+        }
+    }
+
+    private InetSocketAddress[] createTrackerAddresses() {
+        // 配置trackerServers
+        if (trackerServers == null || trackerServers.isEmpty()) {
+            throw ERRORS.TRACKERS_ADDRESS_INVALID.ERROR();
+        }
+
+        String[] arrTrackServers = trackerServers.split(",");
+
+        List<String> trackerServerList = Arrays.asList(arrTrackServers);
+
+        InetSocketAddress[] servers = new InetSocketAddress[trackerServerList
+                .size()];
+        for (int i = 0; i < trackerServerList.size(); i++) {
+            String trackerServer = trackerServerList.get(i);
+            String[] hostAndPort = trackerServer.split("\\:");
+            if (hostAndPort.length != 2) {
+                throw ERRORS.TRACKERS_ADDRESS_INVALID.ERROR();
+            }
+
+            // host和port解析
+            String hostname = hostAndPort[0];
+            int port;
+            try {
+                port = Integer.valueOf(hostAndPort[1]);
+            } catch (NumberFormatException e) {
+                throw ERRORS.TRACKERS_ADDRESS_INVALID.ERROR();
+            }
+            servers[i] = new InetSocketAddress(hostname, port);
+        }
+        return servers;
+    }
+
+    /**
+     * @Description: 停止心跳和后台建连线程，关闭空闲连接，借出的连接归还时关闭
+     */
+    public void shutdown(OperationId logId) {
+        heartBeat.shutdown();
+        connector.shutdownNow();
+        if (connections != null) {
+            connections.shutdown(logId);
+        }
+    }
+
+    public void setMetrics(FastdfsMetrics metrics) {
+        if (connections != null) {
+            connections.setMetrics(metrics);
+        }
+    }
+
+    public TrackerSelector getSelector() {
+        return selector;
+    }
+
+    public BoundedConnectionPool<PooledTrackerServer> getConnections() {
+        return connections;
+    }
+
+    public long getMinPoolSize() {
+        return minPoolSize;
+    }
+
+    public long getMaxPoolSize() {
+        return maxPoolSize;
+    }
+
+    public long getMaxWaitTime() {
+        return maxWaitTime;
+    }
+
+    public long getMaxIdleTime() {
+        return maxIdleTime;
+    }
+}
@@ -0,0 +1,220 @@
+package io.github.whiliang.fdfs;
+
+import org.csource.fastdfs.ProtoCommon;
+import org.csource.fastdfs.StorageClient1;
+import org.csource.fastdfs.TrackerServer;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * tracker查询
+ * <p>
+ * TrackerClient的getStoreStorage/getUpdateStorage会直接创建到storage的连接，
+ * 这里只按协议查询storage地址，连接交由{@link StorageConnectionPool}复用
+ *
+ * @author whiliang
+ */
+public final class FdfsTrackerQuery {
+
+    private FdfsTrackerQuery() {
+    }
+
+    /**
+     * 查询上传节点
+     *
+     * @param trackerServer tracker连接
+     * @param group         组名，为空时由tracker选择
+     * @return storage节点
+     * @throws IOException 网络异常，调用方需丢弃tracker连接
+     */
+    public static StorageNode queryStoreStorage(TrackerServer trackerServer, String group) throws IOException {
+        boolean withGroup = group != null && !group.isEmpty();
+        byte cmd = withGroup ? ProtoCommon.TRACKER_PROTO_CMD_SERVICE_QUERY_STORE_WITH_GROUP_ONE
+                : ProtoCommon.TRACKER_PROTO_CMD_SERVICE_QUERY_STORE_WITHOUT_GROUP_ONE;
+        int bodyLen = withGroup ? ProtoCommon.FDFS_GROUP_NAME_MAX_LEN : 0;
+
+        byte[] header = ProtoCommon.packHeader(cmd, bodyLen, (byte) 0);
+        byte[] request = Arrays.copyOf(header, header.length + bodyLen);
+        if (withGroup) {
+            System.arraycopy(packGroupName(group), 0, request, header.length, bodyLen);
+        }
+
+        Socket socket = trackerServer.getSocket();
+        socket.getOutputStream().write(request);
+        ProtoCommon.RecvPackageInfo pkgInfo = ProtoCommon.recvPackage(socket.getInputStream(),
+                ProtoCommon.TRACKER_PROTO_CMD_RESP, ProtoCommon.TRACKER_QUERY_STORAGE_STORE_BODY_LEN);
+        if (pkgInfo.errno != 0) {
+            throw pkgInfo.errno == ProtoCommon.ERR_NO_ENOENT ? ERRORS.NOT_EXIST_GROUP.ERROR()
+                    : ERRORS.FASTDFS_CONNECTION_FAIL.ERROR("tracker errno: " + pkgInfo.errno);
+        }
+
+        byte[] body = pkgInfo.body;
+        return new StorageNode(parseGroupName(body), parseIp(body, ProtoCommon.FDFS_GROUP_NAME_MAX_LEN),
+                parsePort(body), body[ProtoCommon.TRACKER_QUERY_STORAGE_STORE_BODY_LEN - 1] & 0xFF);
+    }
+
+    /**
+     * 查询下载节点
+     *
+     * @param trackerServer tracker连接
+     * @param fileId        文件ID
+     * @return storage节点
+     * @throws IOException 网络异常，调用方需丢弃tracker连接
+     */
+    public static StorageNode queryFetchStorage(TrackerServer trackerServer, String fileId) throws IOException {
+        return queryStorage(trackerServer, ProtoCommon.TRACKER_PROTO_CMD_SERVICE_QUERY_FETCH_ONE, fileId);
+    }
+
+    /**
+     * 查询更新（删除、修改）节点，即文件的源storage
+     *
+     * @param trackerServer tracker连接
+     * @param fileId        文件ID
+     * @return storage节点
+     * @throws IOException 网络异常，调用方需丢弃tracker连接
+     */
+    public static StorageNode queryUpdateStorage(TrackerServer trackerServer, String fileId) throws IOException {
+        return queryStorage(trackerServer, ProtoCommon.TRACKER_PROTO_CMD_SERVICE_QUERY_UPDATE, fileId);
+    }
+
+    /**
+     * 查询组内所有可写的storage节点
+     *
+     * @param trackerServer tracker连接
+     * @param group         组名，为空时由tracker选择组
+     * @return storage节点，共用tracker分配的存储路径
+     * @throws IOException 网络异常，调用方需丢弃tracker连接
+     */
+    public static List<StorageNode> queryStoreStorages(TrackerServer trackerServer, String group) throws IOException {
+        boolean withGroup = group != null && !group.isEmpty();
+        byte cmd = withGroup ? ProtoCommon.TRACKER_PROTO_CMD_SERVICE_QUERY_STORE_WITH_GROUP_ALL
+                : ProtoCommon.TRACKER_PROTO_CMD_SERVICE_QUERY_STORE_WITHOUT_GROUP_ALL;
+        int bodyLen = withGroup ? ProtoCommon.FDFS_GROUP_NAME_MAX_LEN : 0;
+
+        byte[] header = ProtoCommon.packHeader(cmd, bodyLen, (byte) 0);
+        byte[] request = Arrays.copyOf(header, header.length + bodyLen);
+        if (withGroup) {
+            System.arraycopy(packGroupName(group), 0, request, header.length, bodyLen);
+        }
+
+        Socket socket = trackerServer.getSocket();
+        socket.getOutputStream().write(request);
+        ProtoCommon.RecvPackageInfo pkgInfo = ProtoCommon.recvPackage(socket.getInputStream(),
+                ProtoCommon.TRACKER_PROTO_CMD_RESP, -1);
+        if (pkgInfo.errno != 0) {
+            throw pkgInfo.errno == ProtoCommon.ERR_NO_ENOENT ? ERRORS.NOT_EXIST_GROUP.ERROR()
+                    : ERRORS.FASTDFS_CONNECTION_FAIL.ERROR("tracker errno: " + pkgInfo.errno);
+        }
+
+        /** 组名 + n * (ip + 端口) + 存储路径索引 */
+        byte[] body = pkgInfo.body;
+        int recordLen = ProtoCommon.FDFS_IPADDR_SIZE - 1 + ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE;
+        int nodesLen = body.length - ProtoCommon.FDFS_GROUP_NAME_MAX_LEN - 1;
+        if (nodesLen <= 0 || nodesLen % recordLen != 0) {
+            throw new IOException("Invalid body length: " + body.length);
+        }
+        String groupName = parseGroupName(body);
+        int storePathIndex = body[body.length - 1] & 0xFF;
+        List<StorageNode> nodes = new ArrayList<>(nodesLen / recordLen);
+        for (int offset = ProtoCommon.FDFS_GROUP_NAME_MAX_LEN; offset < body.length - 1; offset += recordLen) {
+            nodes.add(new StorageNode(groupName, parseIp(body, offset),
+                    (int) ProtoCommon.buff2long(body, offset + ProtoCommon.FDFS_IPADDR_SIZE - 1), storePathIndex));
+        }
+        return nodes;
+    }
+
+    /**
+     * 查询可下载指定文件的所有storage节点
+     *
+     * @param trackerServer tracker连接
+     * @param fileId        文件ID
+     * @return storage节点，第一个为tracker本次选择的节点
+     * @throws IOException 网络异常，调用方需丢弃tracker连接
+     */
+    public static List<StorageNode> queryFetchStorages(TrackerServer trackerServer, String fileId) throws IOException {
+        byte[] body = queryStorageBody(trackerServer, ProtoCommon.TRACKER_PROTO_CMD_SERVICE_QUERY_FETCH_ALL, fileId);
+        int extraLen = body.length - ProtoCommon.TRACKER_QUERY_STORAGE_FETCH_BODY_LEN;
+        if (extraLen % (ProtoCommon.FDFS_IPADDR_SIZE - 1) != 0) {
+            throw new IOException("Invalid body length: " + body.length);
+        }
+        /** 组名 + ip + 端口 + 其它节点ip，所有节点端口相同 */
+        String groupName = parseGroupName(body);
+        int port = parsePort(body);
+        List<StorageNode> nodes = new ArrayList<>();
+        nodes.add(new StorageNode(groupName, parseIp(body, ProtoCommon.FDFS_GROUP_NAME_MAX_LEN), port, -1));
+        for (int offset = ProtoCommon.TRACKER_QUERY_STORAGE_FETCH_BODY_LEN; offset < body.length;
+             offset += ProtoCommon.FDFS_IPADDR_SIZE - 1) {
+            nodes.add(new StorageNode(groupName, parseIp(body, offset), port, -1));
+        }
+        return nodes;
+    }
+
+    /**
+     * 拆分文件ID
+     *
+     * @param fileId 文件ID
+     * @return [组名, 远程文件名]
+     */
+    public static String[] splitFileId(String fileId) {
+        String[] parts = new String[2];
+        if (fileId == null || StorageClient1.split_file_id(fileId, parts) != 0) {
+            throw ERRORS.FILE_PATH_ERROR.ERROR();
+        }
+        return parts;
+    }
+
+    private static StorageNode queryStorage(TrackerServer trackerServer, byte cmd, String fileId) throws IOException {
+        byte[] body = queryStorageBody(trackerServer, cmd, fileId);
+        return new StorageNode(parseGroupName(body), parseIp(body, ProtoCommon.FDFS_GROUP_NAME_MAX_LEN),
+                parsePort(body), -1);
+    }
+
+    private static byte[] queryStorageBody(TrackerServer trackerServer, byte cmd, String fileId) throws IOException {
+        String[] parts = splitFileId(fileId);
+        byte[] bFileName = parts[1].getBytes(FdfsConnectionPool.DEFAULT_CHARSET);
+        int bodyLen = ProtoCommon.FDFS_GROUP_NAME_MAX_LEN + bFileName.length;
+
+        byte[] header = ProtoCommon.packHeader(cmd, bodyLen, (byte) 0);
+        byte[] request = Arrays.copyOf(header, header.length + bodyLen);
+        System.arraycopy(packGroupName(parts[0]), 0, request, header.length, ProtoCommon.FDFS_GROUP_NAME_MAX_LEN);
+        System.arraycopy(bFileName, 0, request, header.length + ProtoCommon.FDFS_GROUP_NAME_MAX_LEN, bFileName.length);
+
+        Socket socket = trackerServer.getSocket();
+        socket.getOutputStream().write(request);
+        ProtoCommon.RecvPackageInfo pkgInfo = ProtoCommon.recvPackage(socket.getInputStream(),
+                ProtoCommon.TRACKER_PROTO_CMD_RESP, -1);
+        if (pkgInfo.errno != 0) {
+            throw pkgInfo.errno == ProtoCommon.ERR_NO_ENOENT ? ERRORS.NOT_EXIST_FILE.ERROR()
+                    : ERRORS.FASTDFS_CONNECTION_FAIL.ERROR("tracker errno: " + pkgInfo.errno);
+        }
+
+        byte[] body = pkgInfo.body;
+        if (body.length < ProtoCommon.TRACKER_QUERY_STORAGE_FETCH_BODY_LEN) {
+            throw new IOException("Invalid body length: " + body.length);
+        }
+        return body;
+    }
+
+    private static byte[] packGroupName(String group) throws IOException {
+        byte[] bs = group.getBytes(FdfsConnectionPool.DEFAULT_CHARSET);
+        byte[] bGroupName = new byte[ProtoCommon.FDFS_GROUP_NAME_MAX_LEN];
+        System.arraycopy(bs, 0, bGroupName, 0, Math.min(bs.length, ProtoCommon.FDFS_GROUP_NAME_MAX_LEN));
+        return bGroupName;
+    }
+
+    private static String parseGroupName(byte[] body) throws IOException {
+        return new String(body, 0, ProtoCommon.FDFS_GROUP_NAME_MAX_LEN, FdfsConnectionPool.DEFAULT_CHARSET).trim();
+    }
+
+    private static String parseIp(byte[] body, int offset) {
+        return new String(body, offset, ProtoCommon.FDFS_IPADDR_SIZE - 1).trim();
+    }
+
+    private static int parsePort(byte[] body) {
+        return (int) ProtoCommon.buff2long(body, ProtoCommon.FDFS_GROUP_NAME_MAX_LEN + ProtoCommon.FDFS_IPADDR_SIZE - 1);
+    }
+}
@@ -0,0 +1,78 @@
+package io.github.whiliang.fdfs;
+
+import org.csource.fastdfs.DownloadCallback;
+import org.csource.fastdfs.ProtoCommon;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 把storage返回的一段数据写入FileChannel的指定位置，用于并行分段下载
+ * <p>
+ * 按位置写入，不依赖通道的当前位置，多个分段可以同时写同一个通道；同一分段重试时覆盖写入相同位置。
+ * memoryMapped为true时先映射该分段，数据直接拷贝到映射区，省去每次write的系统调用
+ *
+ * @author whiliang
+ */
+public class FileChannelDownloadCallback implements DownloadCallback {
+
+    private final FileChannel fileChannel;
+    /**
+     * 分段在文件中的起始位置
+     */
+    private final long offset;
+    /**
+     * 分段的映射区，未使用内存映射时为null
+     */
+    private final MappedByteBuffer mapped;
+
+    /**
+     * 已写入的字节数
+     */
+    private long bytes;
+
+    /**
+     * 写入时的异常，出现后中止下载
+     */
+    private IOException exception;
+
+    /**
+     * @param length       分段长度
+     * @param memoryMapped 是否使用内存映射，通道需以READ、WRITE方式打开
+     */
+    public FileChannelDownloadCallback(FileChannel fileChannel, long offset, long length, boolean memoryMapped)
+            throws IOException {
+        this.fileChannel = fileChannel;
+        this.offset = offset;
+        this.mapped = memoryMapped ? fileChannel.map(FileChannel.MapMode.READ_WRITE, offset, length) : null;
+    }
+
+    @Override
+    public int recv(long fileSize, byte[] data, int bytes) {
+        try {
+            if (mapped != null) {
+                mapped.put(data, 0, bytes);
+            } else {
+                ByteBuffer buffer = ByteBuffer.wrap(data, 0, bytes);
+                while (buffer.hasRemaining()) {
+                    fileChannel.write(buffer, offset + this.bytes + buffer.position());
+                }
+            }
+            this.bytes += bytes;
+            return 0;
+        } catch (IOException | RuntimeException e) {
+            this.exception = e instanceof IOException ? (IOException) e : new IOException(e);
+            return ProtoCommon.ERR_NO_EIO;
+        }
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public IOException getException() {
+        return exception;
+    }
+}
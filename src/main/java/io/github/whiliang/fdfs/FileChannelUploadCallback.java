@@ -0,0 +1,43 @@
+package io.github.whiliang.fdfs;
+
+import org.csource.fastdfs.UploadCallback;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * 通过FileChannel.transferTo发送文件
+ * <p>
+ * fastdfs-client的storage连接不是NIO通道，transferTo由JDK使用定长的临时缓冲区完成拷贝，
+ * 不会把文件读入堆内存
+ *
+ * @author whiliang
+ */
+public class FileChannelUploadCallback implements UploadCallback {
+
+    private final FileChannel fileChannel;
+
+    private final long size;
+
+    public FileChannelUploadCallback(FileChannel fileChannel, long size) {
+        this.fileChannel = fileChannel;
+        this.size = size;
+    }
+
+    @Override
+    public int send(OutputStream out) throws IOException {
+        WritableByteChannel target = Channels.newChannel(out);
+        long position = 0;
+        while (position < size) {
+            long transferred = fileChannel.transferTo(position, size - position, target);
+            if (transferred <= 0 && fileChannel.size() <= position) {
+                throw new IOException("File truncated at " + position + " bytes, expected " + size);
+            }
+            position += transferred;
+        }
+        return 0;
+    }
+}
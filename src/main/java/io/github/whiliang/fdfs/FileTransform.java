@@ -0,0 +1,33 @@
+package io.github.whiliang.fdfs;
+
+import java.io.IOException;
+
+/**
+ * 从文件生成方式，例如按尺寸缩放的缩略图
+ * <p>
+ * 由uploadWithSlaves在transform线程池中并行调用，生成的内容作为主文件的从文件上传，
+ * 文件ID为 主文件ID去掉后缀名 + 前缀 + 后缀名，不需要另外保存对应关系。实现需要线程安全
+ *
+ * @author whiliang
+ */
+public interface FileTransform {
+
+    /**
+     * @return 从文件前缀，例如"_150x150"，最长16个字节，同一主文件下不能重复
+     */
+    String getPrefix();
+
+    /**
+     * @return 从文件后缀名，为null时与主文件相同
+     */
+    default String getExtName() {
+        return null;
+    }
+
+    /**
+     * @param source 主文件内容，不能修改
+     * @return 从文件内容
+     * @throws IOException
+     */
+    byte[] transform(byte[] source) throws IOException;
+}
@@ -0,0 +1,105 @@
+package io.github.whiliang.fdfs;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URLEncoder;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+/**
+ * 保存在本地目录中的检查点，每个上传一个文件，先写临时文件再原子替换，进程崩溃时不会留下半个检查点
+ *
+ * @author whiliang
+ */
+public class FileUploadCheckpointStore implements UploadCheckpointStore {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FileUploadCheckpointStore.class);
+
+    private static final String SUFFIX = ".checkpoint";
+
+    private final Path dir;
+
+    public FileUploadCheckpointStore(Path dir) {
+        this.dir = dir;
+        try {
+            Files.createDirectories(dir);
+        } catch (IOException e) {
+            LOGGER.error("[断点续传检查点(checkpoint)][创建目录失败：{}][异常：{}]", dir, e.toString());
+            throw ERRORS.SYS_ERROR.ERROR();
+        }
+    }
+
+    @Override
+    public UploadCheckpoint load(String uploadId) {
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(path(uploadId))) {
+            properties.load(in);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            LOGGER.error("[断点续传检查点(checkpoint)][{}][读取失败，重新上传][异常：{}]", uploadId, e.toString());
+            return null;
+        }
+        try {
+            return new UploadCheckpoint(uploadId, properties.getProperty("fileId"),
+                    Long.parseLong(properties.getProperty("size")),
+                    Long.parseLong(properties.getProperty("sourceModified")),
+                    Long.parseLong(properties.getProperty("offset")));
+        } catch (RuntimeException e) {
+            LOGGER.error("[断点续传检查点(checkpoint)][{}][格式错误，重新上传][异常：{}]", uploadId, e.toString());
+            return null;
+        }
+    }
+
+    @Override
+    public void save(UploadCheckpoint checkpoint) {
+        Properties properties = new Properties();
+        properties.setProperty("fileId", checkpoint.getFileId());
+        properties.setProperty("size", String.valueOf(checkpoint.getSize()));
+        properties.setProperty("sourceModified", String.valueOf(checkpoint.getSourceModified()));
+        properties.setProperty("offset", String.valueOf(checkpoint.getOffset()));
+        Path target = path(checkpoint.getUploadId());
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(tmp)) {
+                properties.store(out, checkpoint.getUploadId());
+            }
+            try {
+                Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            LOGGER.error("[断点续传检查点(checkpoint)][{}][保存失败][异常：{}]", checkpoint.getUploadId(), e.toString());
+            throw ERRORS.SYS_ERROR.ERROR();
+        }
+    }
+
+    @Override
+    public void remove(String uploadId) {
+        try {
+            Files.deleteIfExists(path(uploadId));
+        } catch (IOException e) {
+            LOGGER.error("[断点续传检查点(checkpoint)][{}][删除失败][异常：{}]", uploadId, e.toString());
+        }
+    }
+
+    /**
+     * @return 检查点文件，uploadId按URL编码后作为文件名
+     */
+    private Path path(String uploadId) {
+        try {
+            return dir.resolve(URLEncoder.encode(uploadId, "UTF-8") + SUFFIX);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package io.github.whiliang.fdfs;
+
+import org.csource.fastdfs.UploadCallback;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * 以固定大小的缓冲区分块发送输入流，内存占用与文件大小无关
+ *
+ * @author whiliang
+ */
+public class InputStreamUploadCallback implements UploadCallback {
+
+    private final InputStream inputStream;
+
+    /**
+     * 需要发送的字节数，必须与上传时声明的文件大小一致
+     */
+    private final long size;
+
+    private final int bufferSize;
+
+    public InputStreamUploadCallback(InputStream inputStream, long size, int bufferSize) {
+        this.inputStream = inputStream;
+        this.size = size;
+        this.bufferSize = bufferSize;
+    }
+
+    @Override
+    public int send(OutputStream out) throws IOException {
+        byte[] buffer = new byte[(int) Math.min(bufferSize, Math.max(size, 1))];
+        long remain = size;
+        while (remain > 0) {
+            int read = inputStream.read(buffer, 0, (int) Math.min(buffer.length, remain));
+            if (read < 0) {
+                /** 流提前结束，已发送的数据不完整，连接不可再用 */
+                throw new EOFException("Input stream ended " + remain + " bytes before declared size " + size);
+            }
+            out.write(buffer, 0, read);
+            remain -= read;
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,78 @@
+package io.github.whiliang.fdfs;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 最近一段时间的延迟分位数，用于确定对冲请求的等待时间
+ * <p>
+ * 最近capacity个样本放在环形数组中，每refreshInterval个样本在记录线程上重新排序计算一次分位数，读取时不加锁
+ *
+ * @author whiliang
+ */
+class LatencyTracker {
+
+    /**
+     * 样本数少于该值时不计算分位数
+     */
+    private static final int MIN_SAMPLES = 32;
+
+    private final AtomicLongArray samples;
+
+    private final AtomicLong count = new AtomicLong();
+
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+
+    private final double percentile;
+
+    private final int refreshInterval;
+
+    /**
+     * 最近一次计算的分位数（单位：纳秒），-1表示样本不足
+     */
+    private volatile long value = -1;
+
+    private volatile long nextRefresh = MIN_SAMPLES;
+
+    /**
+     * @param capacity   保留的样本数
+     * @param percentile 分位数，如0.95
+     */
+    LatencyTracker(int capacity, double percentile) {
+        this.samples = new AtomicLongArray(Math.max(capacity, MIN_SAMPLES));
+        this.percentile = Math.min(Math.max(percentile, 0), 1);
+        this.refreshInterval = Math.max(samples.length() / 16, 1);
+    }
+
+    void record(long nanos) {
+        long n = count.getAndIncrement();
+        samples.set((int) (n % samples.length()), nanos);
+        if (n + 1 >= nextRefresh && refreshing.compareAndSet(false, true)) {
+            try {
+                refresh(n + 1);
+            } finally {
+                refreshing.set(false);
+            }
+        }
+    }
+
+    /**
+     * @return 分位数（单位：纳秒），样本不足时返回-1
+     */
+    long get() {
+        return value;
+    }
+
+    private void refresh(long total) {
+        int size = (int) Math.min(total, samples.length());
+        long[] sorted = new long[size];
+        for (int i = 0; i < size; i++) {
+            sorted[i] = samples.get(i);
+        }
+        Arrays.sort(sorted);
+        value = sorted[Math.min((int) (size * percentile), size - 1)];
+        nextRefresh = total + refreshInterval;
+    }
+}
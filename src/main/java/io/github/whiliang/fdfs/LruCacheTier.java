@@ -0,0 +1,58 @@
+package io.github.whiliang.fdfs;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 按字节数限制大小的LRU缓存
+ *
+ * @author whiliang
+ */
+class LruCacheTier implements CacheTier {
+
+    private final LinkedHashMap<String, ByteBuffer> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final long maxSize;
+
+    private final LongAdder evictions;
+
+    private long weight;
+
+    LruCacheTier(long maxSize, LongAdder evictions) {
+        this.maxSize = maxSize;
+        this.evictions = evictions;
+    }
+
+    @Override
+    public synchronized ByteBuffer get(String fileId) {
+        return entries.get(fileId);
+    }
+
+    @Override
+    public synchronized void put(String fileId, ByteBuffer content) {
+        ByteBuffer previous = entries.put(fileId, content);
+        weight += content.capacity() - (previous == null ? 0 : previous.capacity());
+        Iterator<Map.Entry<String, ByteBuffer>> it = entries.entrySet().iterator();
+        while (weight > maxSize && it.hasNext()) {
+            weight -= it.next().getValue().capacity();
+            it.remove();
+            evictions.increment();
+        }
+    }
+
+    @Override
+    public synchronized void invalidate(String fileId) {
+        ByteBuffer previous = entries.remove(fileId);
+        if (previous != null) {
+            weight -= previous.capacity();
+        }
+    }
+
+    @Override
+    public synchronized long weight() {
+        return weight;
+    }
+}
@@ -0,0 +1,57 @@
+package io.github.whiliang.fdfs;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 保存在内存中的去重索引，按记录数LRU淘汰，进程重启后丢失
+ *
+ * @author whiliang
+ */
+public class MemoryDedupIndex implements DedupIndex {
+
+    private final LinkedHashMap<String, String> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * 文件ID到key，用于removeFile
+     */
+    private final Map<String, String> keys = new HashMap<>();
+
+    private final int maxEntries;
+
+    public MemoryDedupIndex(int maxEntries) {
+        this.maxEntries = Math.max(maxEntries, 1);
+    }
+
+    @Override
+    public synchronized String get(String key) {
+        return entries.get(key);
+    }
+
+    @Override
+    public synchronized void put(String key, String fileId) {
+        String previous = entries.put(key, fileId);
+        if (previous != null) {
+            keys.remove(previous);
+        }
+        keys.put(fileId, key);
+        if (entries.size() > maxEntries) {
+            Map.Entry<String, String> eldest = entries.entrySet().iterator().next();
+            entries.remove(eldest.getKey());
+            keys.remove(eldest.getValue());
+        }
+    }
+
+    @Override
+    public synchronized void removeFile(String fileId) {
+        String key = keys.remove(fileId);
+        if (key != null) {
+            entries.remove(key);
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+}
@@ -0,0 +1,32 @@
+package io.github.whiliang.fdfs;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 保存在内存中的检查点，进程重启后丢失
+ *
+ * @author whiliang
+ */
+public class MemoryUploadCheckpointStore implements UploadCheckpointStore {
+
+    private final ConcurrentHashMap<String, UploadCheckpoint> checkpoints = new ConcurrentHashMap<>();
+
+    @Override
+    public UploadCheckpoint load(String uploadId) {
+        UploadCheckpoint checkpoint = checkpoints.get(uploadId);
+        /** 返回副本，调用方修改偏移量后需要save才生效 */
+        return checkpoint == null ? null : new UploadCheckpoint(checkpoint.getUploadId(), checkpoint.getFileId(),
+                checkpoint.getSize(), checkpoint.getSourceModified(), checkpoint.getOffset());
+    }
+
+    @Override
+    public void save(UploadCheckpoint checkpoint) {
+        checkpoints.put(checkpoint.getUploadId(), new UploadCheckpoint(checkpoint.getUploadId(), checkpoint.getFileId(),
+                checkpoint.getSize(), checkpoint.getSourceModified(), checkpoint.getOffset()));
+    }
+
+    @Override
+    public void remove(String uploadId) {
+        checkpoints.remove(uploadId);
+    }
+}
@@ -0,0 +1,93 @@
+package io.github.whiliang.fdfs;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 元数据缓存，按文件数限制大小的LRU缓存
+ * <p>
+ * 1).setMetadata、删除文件时移除对应的项，到期的项在读取时移除；
+ * 2).读取storage前取得该文件的版本号，期间该文件被移除时不写入缓存，避免并发的修改被旧值覆盖；
+ * 版本号按文件ID分段（见{@link CacheVersions}），其它文件的修改不影响写入
+ *
+ * @author whiliang
+ */
+public class MetadataCache {
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final int maxEntries;
+
+    /**
+     * 有效时间（单位：纳秒）
+     */
+    private final long ttl;
+
+    /**
+     * 各文件的版本号
+     */
+    private final CacheVersions versions = new CacheVersions();
+
+    public MetadataCache(FastdfsProperties.MetadataCache config) {
+        this.maxEntries = Math.max(config.getMaxEntries(), 1);
+        this.ttl = Math.max(config.getTtl(), 0) * 1000000L;
+    }
+
+    /**
+     * @return 未到期的元数据，不存在时返回null
+     */
+    public synchronized Map<String, String> get(String fileId) {
+        Entry entry = entries.get(fileId);
+        if (entry == null) {
+            return null;
+        }
+        if (System.nanoTime() - entry.loadedAt > ttl) {
+            entries.remove(fileId);
+            return null;
+        }
+        return entry.metadata;
+    }
+
+    /**
+     * @return 读取storage前调用，作为put的参数
+     */
+    public long version(String fileId) {
+        return versions.version(fileId);
+    }
+
+    /**
+     * @param metadata 不可修改的元数据
+     * @param version  读取storage前取得的版本号，之后该文件被移除时不写入
+     */
+    public synchronized void put(String fileId, Map<String, String> metadata, long version) {
+        /** 与invalidate在同一把锁内，检查一次即可 */
+        if (versions.changed(fileId, version)) {
+            return;
+        }
+        entries.put(fileId, new Entry(metadata, System.nanoTime()));
+        if (entries.size() > maxEntries) {
+            entries.remove(entries.keySet().iterator().next());
+        }
+    }
+
+    public synchronized void invalidate(String fileId) {
+        versions.increment(fileId);
+        entries.remove(fileId);
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private static final class Entry {
+
+        private final Map<String, String> metadata;
+
+        private final long loadedAt;
+
+        private Entry(Map<String, String> metadata, long loadedAt) {
+            this.metadata = metadata;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
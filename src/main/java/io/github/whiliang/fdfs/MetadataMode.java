@@ -0,0 +1,32 @@
+package io.github.whiliang.fdfs;
+
+import org.csource.fastdfs.ProtoCommon;
+
+/**
+ * 设置元数据的方式
+ *
+ * @author whiliang
+ */
+public enum MetadataMode {
+    /**
+     * 覆盖，删除原有的全部元数据
+     */
+    OVERWRITE(ProtoCommon.STORAGE_SET_METADATA_FLAG_OVERWRITE),
+    /**
+     * 合并，同名的项被替换，其它项保留
+     */
+    MERGE(ProtoCommon.STORAGE_SET_METADATA_FLAG_MERGE);
+
+    private final byte flag;
+
+    MetadataMode(byte flag) {
+        this.flag = flag;
+    }
+
+    /**
+     * @return storage协议中的操作标记
+     */
+    byte flag() {
+        return flag;
+    }
+}
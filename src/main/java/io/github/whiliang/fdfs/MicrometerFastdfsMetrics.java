@@ -0,0 +1,149 @@
+package io.github.whiliang.fdfs;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Micrometer指标
+ * <p>
+ * 1).fastdfs.pool.*：各连接池的连接数、获取连接等待时间、累计创建/关闭的连接数，tag pool为tracker或storage节点group/ip:port；
+ * 2).fastdfs.operation：上传、下载、删除耗时，tag operation/group/outcome；
+ * 3).fastdfs.transfer.bytes：上传、下载的字节数；
+ * 4).fastdfs.cache.*：下载缓存命中情况；
+ * 5).所有指标带tag cluster，默认集群为default
+ *
+ * @author whiliang
+ */
+public class MicrometerFastdfsMetrics implements FastdfsMetrics, MeterBinder {
+
+    private final FastdfsFileServiceImpl fastdfsFileService;
+    /**
+     * 集群tag
+     */
+    private final Tags clusterTags;
+
+    private volatile MeterRegistry registry;
+
+    /**
+     * 已注册连接数指标的连接池，storage节点连接池在第一次使用时注册
+     */
+    private final Set<String> boundPools = ConcurrentHashMap.newKeySet();
+
+    public MicrometerFastdfsMetrics(FastdfsFileServiceImpl fastdfsFileService) {
+        this(fastdfsFileService, FastdfsClusters.DEFAULT_CLUSTER);
+    }
+
+    public MicrometerFastdfsMetrics(FastdfsFileServiceImpl fastdfsFileService, String cluster) {
+        this.fastdfsFileService = fastdfsFileService;
+        this.clusterTags = Tags.of("cluster", cluster);
+        fastdfsFileService.setMetrics(this);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        this.registry = registry;
+        BoundedConnectionPool<PooledTrackerServer> trackerPool = fastdfsFileService.getConnectionPool().getConnections();
+        if (trackerPool != null) {
+            bindPool(registry, trackerPool);
+        }
+        for (BoundedConnectionPool<PooledStorageServer> nodePool
+                : fastdfsFileService.getStorageConnectionPool().getNodePools().values()) {
+            bindPool(registry, nodePool);
+        }
+        DownloadCache cache = fastdfsFileService.getDownloadCache();
+        if (cache != null) {
+            bindCache(registry, cache);
+        }
+    }
+
+    @Override
+    public void recordCheckout(BoundedConnectionPool<?> pool, long waitNanos, boolean acquired) {
+        MeterRegistry registry = this.registry;
+        if (registry == null) {
+            return;
+        }
+        bindPool(registry, pool);
+        Timer.builder("fastdfs.pool.checkout")
+                .description("获取连接等待时间")
+                .tags(clusterTags)
+                .tags("pool", pool.getName(), "outcome", acquired ? "acquired" : "timeout")
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(waitNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void recordOperation(String operation, String group, long durationNanos, long bytes) {
+        MeterRegistry registry = this.registry;
+        if (registry == null) {
+            return;
+        }
+        String groupTag = group == null ? "" : group;
+        Timer.builder("fastdfs.operation")
+                .description("文件操作耗时")
+                .tags(clusterTags)
+                .tags("operation", operation, "group", groupTag, "outcome", bytes >= 0 ? "success" : "error")
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(durationNanos, TimeUnit.NANOSECONDS);
+        if (bytes > 0) {
+            Counter.builder("fastdfs.transfer.bytes")
+                    .baseUnit("bytes")
+                    .tags(clusterTags)
+                    .tags("operation", operation, "group", groupTag)
+                    .register(registry)
+                    .increment(bytes);
+        }
+    }
+
+    private void bindPool(MeterRegistry registry, BoundedConnectionPool<?> pool) {
+        if (!boundPools.add(pool.getName())) {
+            return;
+        }
+        Tags tags = clusterTags.and("pool", pool.getName());
+        Gauge.builder("fastdfs.pool.active", pool, BoundedConnectionPool::getActive)
+                .description("借出的连接数").tags(tags).register(registry);
+        Gauge.builder("fastdfs.pool.idle", pool, BoundedConnectionPool::getIdle)
+                .description("空闲连接数").tags(tags).register(registry);
+        Gauge.builder("fastdfs.pool.pending", pool, BoundedConnectionPool::getPending)
+                .description("等待连接的线程数").tags(tags).register(registry);
+        Gauge.builder("fastdfs.pool.total", pool, BoundedConnectionPool::getTotal)
+                .description("当前创建的连接数").tags(tags).register(registry);
+        Gauge.builder("fastdfs.pool.max", pool, BoundedConnectionPool::getMaxPoolSize)
+                .description("最大连接数").tags(tags).register(registry);
+        FunctionCounter.builder("fastdfs.pool.created", pool, BoundedConnectionPool::getCreatedCount)
+                .description("累计创建的连接数").tags(tags).register(registry);
+        FunctionCounter.builder("fastdfs.pool.destroyed", pool, BoundedConnectionPool::getDestroyedCount)
+                .description("累计关闭的连接数").tags(tags).register(registry);
+        FunctionCounter.builder("fastdfs.pool.abandoned", pool, BoundedConnectionPool::getAbandonedCount)
+                .description("累计强制回收的泄漏连接数").tags(tags).register(registry);
+    }
+
+    private void bindCache(MeterRegistry registry, DownloadCache cache) {
+        FunctionCounter.builder("fastdfs.cache.hits", cache, DownloadCache::getHitCount)
+                .description("下载缓存命中次数").tags(clusterTags).register(registry);
+        FunctionCounter.builder("fastdfs.cache.disk.hits", cache, DownloadCache::getDiskHitCount)
+                .description("磁盘缓存命中次数").tags(clusterTags).register(registry);
+        FunctionCounter.builder("fastdfs.cache.misses", cache, DownloadCache::getMissCount)
+                .description("下载缓存未命中次数").tags(clusterTags).register(registry);
+        FunctionCounter.builder("fastdfs.cache.evictions", cache, DownloadCache::getEvictionCount)
+                .description("下载缓存淘汰次数").tags(clusterTags).register(registry);
+        FunctionCounter.builder("fastdfs.cache.hit.bytes", cache, DownloadCache::getHitBytes)
+                .baseUnit("bytes").description("从缓存返回的字节数").tags(clusterTags).register(registry);
+        FunctionCounter.builder("fastdfs.cache.load.bytes", cache, DownloadCache::getLoadBytes)
+                .baseUnit("bytes").description("从storage下载的字节数").tags(clusterTags).register(registry);
+        Gauge.builder("fastdfs.cache.size", cache, DownloadCache::getMemorySize)
+                .baseUnit("bytes").tag("tier", "memory").tags(clusterTags).register(registry);
+        Gauge.builder("fastdfs.cache.size", cache, DownloadCache::getDiskSize)
+                .baseUnit("bytes").tag("tier", "disk").tags(clusterTags).register(registry);
+    }
+}
@@ -0,0 +1,39 @@
+package io.github.whiliang.fdfs;
+
+/**
+ * 日志ID，用于关联同一次操作的日志
+ * <p>
+ * 只保存链路ID和序号，日志实际输出时才在{@link #toString()}中格式化为 前缀(或链路ID)-序号(36进制)，
+ * 日志级别关闭时不拼接字符串
+ *
+ * @author whiliang
+ */
+public final class OperationId {
+
+    /**
+     * MDC中的链路ID，为null时使用实例前缀
+     */
+    private final String trace;
+
+    private final long sequence;
+
+    /**
+     * 格式化后的ID，多个线程同时格式化时结果相同
+     */
+    private String text;
+
+    OperationId(String trace, long sequence) {
+        this.trace = trace;
+        this.sequence = sequence;
+    }
+
+    @Override
+    public String toString() {
+        String s = text;
+        if (s == null) {
+            s = (trace != null ? trace : OperationIds.PREFIX) + '-' + Long.toString(sequence, 36);
+            text = s;
+        }
+        return s;
+    }
+}
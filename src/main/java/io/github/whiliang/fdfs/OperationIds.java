@@ -0,0 +1,59 @@
+package io.github.whiliang.fdfs;
+
+import org.slf4j.MDC;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 日志ID生成
+ * <p>
+ * 1).ID为 前缀-序号(36进制)，前缀在启动时随机生成，多个实例的日志汇总后可以区分；
+ * 2).每个线程一次从全局计数器领取BLOCK个序号，之后在线程内递增，不使用UUID.randomUUID()共享的SecureRandom，线程之间没有竞争；
+ * 3).指定traceKey且MDC中存在该值时以其代替前缀，日志可以按请求链路检索；
+ * 4).生成时只取序号和链路ID，字符串在输出日志时才由{@link OperationId#toString()}拼接
+ *
+ * @author whiliang
+ */
+final class OperationIds {
+
+    private static final int BLOCK = 1024;
+
+    static final String PREFIX = Long.toString(ThreadLocalRandom.current().nextLong() >>> 24, 36);
+
+    private static final AtomicLong NEXT_BLOCK = new AtomicLong();
+
+    /**
+     * 线程当前领取的序号：[0]下一个序号，[1]本段结束（不含）
+     */
+    private static final ThreadLocal<long[]> RANGE = ThreadLocal.withInitial(() -> new long[2]);
+
+    private OperationIds() {
+    }
+
+    /**
+     * @return 新的日志ID
+     */
+    static OperationId next() {
+        return new OperationId(null, nextSequence());
+    }
+
+    /**
+     * @param traceKey MDC中链路ID的键，为空时不读取MDC
+     * @return 新的日志ID，有链路ID时为 链路ID-序号
+     */
+    static OperationId next(String traceKey) {
+        /** 链路ID在当前线程读取，日志可能在其他线程输出 */
+        return new OperationId(traceKey != null ? MDC.get(traceKey) : null, nextSequence());
+    }
+
+    private static long nextSequence() {
+        long[] range = RANGE.get();
+        if (range[0] == range[1]) {
+            long start = NEXT_BLOCK.getAndIncrement() * BLOCK;
+            range[0] = start;
+            range[1] = start + BLOCK;
+        }
+        return range[0]++;
+    }
+}
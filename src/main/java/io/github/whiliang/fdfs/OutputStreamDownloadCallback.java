@@ -0,0 +1,51 @@
+package io.github.whiliang.fdfs;
+
+import org.csource.fastdfs.DownloadCallback;
+import org.csource.fastdfs.ProtoCommon;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * 把storage返回的数据直接写入输出流，不在内存中保留文件内容
+ *
+ * @author whiliang
+ */
+public class OutputStreamDownloadCallback implements DownloadCallback {
+
+    private final OutputStream outputStream;
+
+    /**
+     * 已写出的字节数
+     */
+    private long bytes;
+
+    /**
+     * 写出时的异常，出现后中止下载
+     */
+    private IOException exception;
+
+    public OutputStreamDownloadCallback(OutputStream outputStream) {
+        this.outputStream = outputStream;
+    }
+
+    @Override
+    public int recv(long fileSize, byte[] data, int bytes) {
+        try {
+            outputStream.write(data, 0, bytes);
+            this.bytes += bytes;
+            return 0;
+        } catch (IOException e) {
+            this.exception = e;
+            return ProtoCommon.ERR_NO_EIO;
+        }
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public IOException getException() {
+        return exception;
+    }
+}
@@ -0,0 +1,49 @@
+package io.github.whiliang.fdfs;
+
+import java.io.IOException;
+
+/**
+ * 连接池中的连接
+ *
+ * @author whiliang
+ */
+public interface PooledConnection {
+
+    /**
+     * 创建时间（单位：毫秒）
+     *
+     * @return
+     */
+    long getCreatedTime();
+
+    /**
+     * 最近一次归还时间（单位：毫秒）
+     *
+     * @return
+     */
+    long getLastUsedTime();
+
+    /**
+     * 归还时刷新最近使用时间
+     */
+    void touch();
+
+    /**
+     * 最近一次确认连接可用的时间，即归还或检测通过的时间（单位：毫秒）
+     *
+     * @return
+     */
+    long getLastValidatedTime();
+
+    /**
+     * 检测通过后刷新确认时间，不影响空闲时间
+     */
+    void markValidated();
+
+    /**
+     * 关闭连接
+     *
+     * @throws IOException
+     */
+    void close() throws IOException;
+}
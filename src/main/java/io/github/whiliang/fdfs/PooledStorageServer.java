@@ -0,0 +1,84 @@
+package io.github.whiliang.fdfs;
+
+import org.csource.fastdfs.StorageServer;
+
+import java.io.IOException;
+
+/**
+ * 连接池中的storage连接
+ *
+ * @author whiliang
+ */
+public class PooledStorageServer extends StorageServer implements PooledConnection {
+
+    /**
+     * 所属storage节点
+     */
+    private final StorageNode node;
+
+    private final long createdTime;
+
+    private volatile long lastUsedTime;
+
+    private volatile long lastValidatedTime;
+
+    public PooledStorageServer(StorageNode node) throws IOException {
+        super(node.getIp(), node.getPort(), Math.max(node.getStorePathIndex(), 0));
+        this.node = node;
+        this.createdTime = System.currentTimeMillis();
+        this.lastUsedTime = createdTime;
+        this.lastValidatedTime = createdTime;
+    }
+
+    /**
+     * @param networkTimeout 读超时时间（单位：毫秒），同时开启TCP_NODELAY
+     */
+    public PooledStorageServer(StorageNode node, int networkTimeout) throws IOException {
+        this(node);
+        try {
+            FastdfsSockets.configure(sock, networkTimeout);
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    public StorageNode getNode() {
+        return node;
+    }
+
+    @Override
+    public long getCreatedTime() {
+        return createdTime;
+    }
+
+    @Override
+    public long getLastUsedTime() {
+        return lastUsedTime;
+    }
+
+    @Override
+    public void touch() {
+        this.lastUsedTime = System.currentTimeMillis();
+        this.lastValidatedTime = lastUsedTime;
+    }
+
+    @Override
+    public long getLastValidatedTime() {
+        return lastValidatedTime;
+    }
+
+    @Override
+    public void markValidated() {
+        this.lastValidatedTime = System.currentTimeMillis();
+    }
+
+    /**
+     * 上传时使用tracker本次分配的存储路径
+     *
+     * @param storePathIndex 存储路径索引
+     */
+    void setStorePathIndex(int storePathIndex) {
+        this.store_path_index = storePathIndex;
+    }
+}
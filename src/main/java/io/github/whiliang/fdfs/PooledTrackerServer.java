@@ -0,0 +1,81 @@
+package io.github.whiliang.fdfs;
+
+import org.csource.fastdfs.TrackerServer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 连接池中的tracker连接
+ *
+ * @author whiliang
+ */
+public class PooledTrackerServer extends TrackerServer implements PooledConnection {
+
+    private final long createdTime;
+
+    private volatile long lastUsedTime;
+
+    private volatile long lastValidatedTime;
+    /**
+     * 所连tracker的健康度，为空时不参与选择
+     */
+    private final TrackerSelector.TrackerHealth health;
+
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    public PooledTrackerServer(Socket socket, InetSocketAddress address) {
+        this(socket, address, null);
+    }
+
+    public PooledTrackerServer(Socket socket, InetSocketAddress address, TrackerSelector.TrackerHealth health) {
+        super(socket, address);
+        this.createdTime = System.currentTimeMillis();
+        this.lastUsedTime = createdTime;
+        this.lastValidatedTime = createdTime;
+        this.health = health;
+        if (health != null) {
+            health.connectionOpened();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed.compareAndSet(false, true) && health != null) {
+            health.connectionClosed();
+        }
+        super.close();
+    }
+
+    public TrackerSelector.TrackerHealth getHealth() {
+        return health;
+    }
+
+    @Override
+    public long getCreatedTime() {
+        return createdTime;
+    }
+
+    @Override
+    public long getLastUsedTime() {
+        return lastUsedTime;
+    }
+
+    @Override
+    public void touch() {
+        this.lastUsedTime = System.currentTimeMillis();
+        this.lastValidatedTime = lastUsedTime;
+    }
+
+    @Override
+    public long getLastValidatedTime() {
+        return lastValidatedTime;
+    }
+
+    @Override
+    public void markValidated() {
+        this.lastValidatedTime = System.currentTimeMillis();
+    }
+}
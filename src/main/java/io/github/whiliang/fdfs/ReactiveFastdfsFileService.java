@@ -0,0 +1,51 @@
+package io.github.whiliang.fdfs;
+
+import org.reactivestreams.Publisher;
+import org.springframework.core.io.buffer.DataBuffer;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * 响应式文件服务，上传、下载的内存占用由下游的请求量决定，与文件大小无关
+ *
+ * @author whiliang
+ */
+public interface ReactiveFastdfsFileService {
+
+    /**
+     * 以DataBuffer流的方式上传文件，按发送进度逐个请求DataBuffer，已发送的DataBuffer被释放
+     *
+     * @param content 文件内容，例如WebFlux的请求体
+     * @param size    文件大小，必须与content中的字节数一致
+     * @param group   组名，为空时不指定group
+     * @param extName 后缀名
+     * @return 文件ID
+     */
+    Mono<String> upload(Publisher<DataBuffer> content, long size, String group, String extName);
+
+    /**
+     * 文件下载，下游没有请求时暂停读取storage连接，下游取消时丢弃连接
+     *
+     * @param fileId 文件ID
+     * @return 文件内容，由订阅方释放
+     */
+    Flux<DataBuffer> download(String fileId);
+
+    /**
+     * 分段下载，可用于HTTP Range请求
+     *
+     * @param fileId 文件ID
+     * @param offset 起始位置
+     * @param length 下载字节数，0表示下载到文件末尾
+     * @return 文件内容，由订阅方释放
+     */
+    Flux<DataBuffer> download(String fileId, long offset, long length);
+
+    /**
+     * 删除FastDFS指定的文件
+     *
+     * @param fileId 文件ID
+     * @return 删除完成
+     */
+    Mono<Void> delete(String fileId);
+}
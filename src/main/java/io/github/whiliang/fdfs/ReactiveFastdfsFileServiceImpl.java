@@ -0,0 +1,92 @@
+package io.github.whiliang.fdfs;
+
+import org.reactivestreams.Publisher;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.util.Assert;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+/**
+ * 响应式文件服务，委托同步的{@link FastdfsFileService}在scheduler中执行阻塞的storage读写
+ * <p>
+ * 上传时按发送进度向content请求数据，下载时按下游的请求量读取storage连接，
+ * 单次传输的内存占用为 prefetch或下游请求数 x 单个DataBuffer大小
+ *
+ * @author whiliang
+ */
+public class ReactiveFastdfsFileServiceImpl implements ReactiveFastdfsFileService {
+
+    /**
+     * 上传时预先请求的DataBuffer个数
+     */
+    public static final int DEFAULT_PREFETCH = 2;
+
+    /**
+     * 同步文件服务
+     */
+    private final FastdfsFileService fastdfsFileService;
+
+    /**
+     * 执行阻塞操作的scheduler，不能是事件循环线程
+     */
+    private final Scheduler scheduler;
+
+    private final DataBufferFactory bufferFactory;
+
+    private final int prefetch;
+
+    /**
+     * 等待上游数据或下游请求的最长时间（单位：毫秒）
+     */
+    private final long timeout;
+
+    public ReactiveFastdfsFileServiceImpl(FastdfsFileService fastdfsFileService, Scheduler scheduler,
+                                          DataBufferFactory bufferFactory, int prefetch, long timeout) {
+        this.fastdfsFileService = fastdfsFileService;
+        this.scheduler = scheduler;
+        this.bufferFactory = bufferFactory;
+        this.prefetch = prefetch;
+        this.timeout = timeout;
+    }
+
+    @Override
+    public Mono<String> upload(Publisher<DataBuffer> content, long size, String group, String extName) {
+        Assert.notNull(content, "Content must not be null.");
+        Assert.isTrue(size >= 0, "File size must not be negative.");
+        return Mono.fromCallable(() -> {
+            try (DataBufferInputStream inputStream = new DataBufferInputStream(prefetch, timeout)) {
+                content.subscribe(inputStream);
+                return fastdfsFileService.upload(inputStream, size, group, extName);
+            }
+        }).subscribeOn(scheduler);
+    }
+
+    @Override
+    public Flux<DataBuffer> download(String fileId) {
+        return download(fileId, 0, 0);
+    }
+
+    @Override
+    public Flux<DataBuffer> download(String fileId, long offset, long length) {
+        /** FluxCreate上的subscribeOn不把request调度到被阻塞的scheduler线程，下游的请求可以唤醒下载线程 */
+        return Flux.<DataBuffer>create(sink -> {
+            DataBufferOutputStream outputStream = new DataBufferOutputStream(sink, bufferFactory, timeout);
+            try {
+                fastdfsFileService.download(fileId, offset, length, outputStream);
+                sink.complete();
+            } catch (RuntimeException e) {
+                if (!outputStream.isCancelled()) {
+                    sink.error(e);
+                }
+            }
+        }).subscribeOn(scheduler, false).doOnDiscard(DataBuffer.class, DataBufferUtils::release);
+    }
+
+    @Override
+    public Mono<Void> delete(String fileId) {
+        return Mono.<Void>fromRunnable(() -> fastdfsFileService.delete(fileId)).subscribeOn(scheduler);
+    }
+}
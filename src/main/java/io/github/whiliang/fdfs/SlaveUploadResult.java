@@ -0,0 +1,50 @@
+package io.github.whiliang.fdfs;
+
+import java.util.List;
+
+/**
+ * 主文件和从文件的上传结果
+ *
+ * @author whiliang
+ */
+public class SlaveUploadResult {
+
+    /**
+     * 主文件ID
+     */
+    private final String masterFileId;
+    /**
+     * 与transforms顺序一致的从文件结果，成功时value为从文件ID，单个从文件失败不影响其它从文件
+     */
+    private final List<BatchResult<String>> slaves;
+
+    public SlaveUploadResult(String masterFileId, List<BatchResult<String>> slaves) {
+        this.masterFileId = masterFileId;
+        this.slaves = slaves;
+    }
+
+    public String getMasterFileId() {
+        return masterFileId;
+    }
+
+    public List<BatchResult<String>> getSlaves() {
+        return slaves;
+    }
+
+    /**
+     * @return 所有从文件是否都上传成功
+     */
+    public boolean isAllSuccess() {
+        for (BatchResult<String> slave : slaves) {
+            if (!slave.isSuccess()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "SlaveUploadResult[" + masterFileId + "]: " + slaves;
+    }
+}
@@ -0,0 +1,249 @@
+package io.github.whiliang.fdfs;
+
+import org.csource.fastdfs.ProtoCommon;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * storage连接池，按 group/ip:port 分别维护连接
+ *
+ * @author whiliang
+ */
+public class StorageConnectionPool {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(StorageConnectionPool.class);
+
+    /**
+     * 各storage节点的连接
+     */
+    private final ConcurrentHashMap<String, BoundedConnectionPool<PooledStorageServer>> nodePools = new ConcurrentHashMap<>();
+    /**
+     * 每个节点最小空闲连接数
+     */
+    private final int minPoolSize;
+    /**
+     * 每个节点最大连接数
+     */
+    private final int maxPoolSize;
+    /**
+     * 空闲连接最大存活时间（单位：毫秒）
+     */
+    private final long maxIdleTime;
+    /**
+     * 获取连接最大等待时间（单位：毫秒）
+     */
+    private final long maxWaitTime;
+    /**
+     * 读超时时间（单位：毫秒）
+     */
+    private final int networkTimeout;
+    /**
+     * 每个节点同时建连的线程数上限
+     */
+    private final int connectorThreads;
+    /**
+     * 每个节点预先准备的空闲连接数
+     */
+    private final int spareConnections;
+    /**
+     * 每个节点空闲连接低于该值时开始补充
+     */
+    private final int lowWaterMark;
+    /**
+     * 借出前是否检测连接
+     */
+    private final boolean testOnBorrow;
+    /**
+     * 距上次确认可用不超过该时间的连接不检测（单位：毫秒）
+     */
+    private final long validationSkipWindow;
+    /**
+     * 连接最大存活时间（单位：毫秒）
+     */
+    private final long maxLifetime;
+    /**
+     * 借出超过该时间记录疑似泄漏（单位：毫秒）
+     */
+    private final long leakDetectionThreshold;
+    /**
+     * 借出超过该时间强制回收（单位：毫秒）
+     */
+    private final long abandonedTimeout;
+    /**
+     * 借出时是否记录调用栈
+     */
+    private final boolean leakStackTrace;
+    /**
+     * 后台建连线程，所有节点共用
+     */
+    private final ScheduledExecutorService connector;
+    /**
+     * 空闲连接检测与回收
+     */
+    private final FastdfsHeartBeat heartBeat;
+    /**
+     * 是否已关闭，关闭后不再创建节点连接池
+     */
+    private volatile boolean closed;
+    /**
+     * 指标记录，新建的节点连接池共用
+     */
+    private volatile FastdfsMetrics metrics = FastdfsMetrics.NOOP;
+
+    public StorageConnectionPool(FastdfsProperties properties) {
+        this.minPoolSize = properties.getStorageMinPoolSize();
+        this.maxPoolSize = properties.getStorageMaxPoolSize();
+        this.maxIdleTime = properties.getStorageMaxIdleTime();
+        this.maxWaitTime = properties.getMaxWaitTime();
+        this.networkTimeout = properties.getNetworkTimeout();
+        FastdfsSockets.registerStorageConnectTimeout(properties.getConnectTimeout());
+        this.connectorThreads = properties.getConnectorThreads();
+        this.spareConnections = properties.getSpareConnections();
+        this.lowWaterMark = properties.getLowWaterMark();
+        this.testOnBorrow = properties.isTestOnBorrow();
+        this.validationSkipWindow = properties.getValidationSkipWindow();
+        this.maxLifetime = properties.getMaxLifetime();
+        this.leakDetectionThreshold = properties.getLeakDetectionThreshold();
+        this.abandonedTimeout = properties.getAbandonedTimeout();
+        this.leakStackTrace = properties.isLeakStackTrace();
+        LOGGER.info("[storage连接池构造方法(StorageConnectionPool)][参数：minPoolSize={},maxPoolSize={},maxIdleTime={},maxWaitTime={}]",
+                minPoolSize, maxPoolSize, maxIdleTime, maxWaitTime);
+        this.connector = Executors.newScheduledThreadPool(connectorThreads,
+                new FastdfsThreadFactory("fastdfs-storage-connector-", true));
+        /** 注册空闲连接检测与回收 */
+        this.heartBeat = new FastdfsHeartBeat(this);
+        heartBeat.beat(properties.getValidationInterval());
+        heartBeat.evict();
+    }
+
+    /**
+     * @param node  storage节点
+     * @param logId 日志ID
+     * @return storage连接
+     * @throws FastdfsException
+     * @Description: 获取storage连接 1).等待该节点的连接许可；2).优先复用空闲连接；3).没有空闲连接则等待后台connector建连
+     */
+    public PooledStorageServer checkout(StorageNode node, OperationId logId) throws FastdfsException {
+        return checkout(node, logId, Deadline.NONE);
+    }
+
+    /**
+     * @param deadline 本次操作的截止时间，最多等待maxWaitTime与剩余时间中较小的一个
+     * @throws FastdfsException
+     */
+    public PooledStorageServer checkout(StorageNode node, OperationId logId, Deadline deadline) throws FastdfsException {
+        if (closed) {
+            throw ERRORS.POOL_CLOSED.ERROR();
+        }
+        long waitTime = deadline.waitMillis(maxWaitTime);
+        BoundedConnectionPool<PooledStorageServer> nodePool = nodePools.computeIfAbsent(node.getKey(), key -> {
+            BoundedConnectionPool<PooledStorageServer> pool = new BoundedConnectionPool<>(key, maxPoolSize, id -> {
+                LOGGER.info("[创建storage连接(checkout)][{}][node:{}]", id, node);
+                return new PooledStorageServer(node, networkTimeout);
+            }, connector, connectorThreads, spareConnections, lowWaterMark);
+            pool.setMetrics(metrics);
+            pool.setValidation(storageServer -> ProtoCommon.activeTest(storageServer.getSocket()),
+                    testOnBorrow, validationSkipWindow, maxLifetime);
+            pool.setLeakDetection(leakDetectionThreshold, abandonedTimeout, leakStackTrace);
+            return pool;
+        });
+        PooledStorageServer storageServer = nodePool.borrow(logId, waitTime);
+        if (node.getStorePathIndex() >= 0) {
+            storageServer.setStorePathIndex(node.getStorePathIndex());
+        }
+        return storageServer;
+    }
+
+    /**
+     * @return 连接租约，在try-with-resources中使用，请求正常结束后调用markReusable归还，否则丢弃连接
+     * @throws FastdfsException
+     */
+    public ConnectionLease<PooledStorageServer> lease(StorageNode node, OperationId logId, Deadline deadline)
+            throws FastdfsException {
+        return new ConnectionLease<>(checkout(node, logId, deadline), logId, this::checkin, this::drop);
+    }
+
+    /**
+     * @param storageServer 需释放的连接
+     * @Description: 归还storage连接，放回该节点的空闲队列
+     */
+    public void checkin(PooledStorageServer storageServer, OperationId logId) {
+        if (storageServer == null) {
+            return;
+        }
+        nodePools.get(storageServer.getNode().getKey()).release(storageServer);
+    }
+
+    /**
+     * @param storageServer 不可用的连接
+     * @Description: 关闭不可用的storage连接，并释放该节点的连接许可
+     */
+    public void drop(PooledStorageServer storageServer, OperationId logId) {
+        if (storageServer == null) {
+            return;
+        }
+        LOGGER.info("[删除不可用storage连接(drop)][{}][node:{}]", logId, storageServer.getNode());
+        nodePools.get(storageServer.getNode().getKey()).invalidate(logId, storageServer);
+    }
+
+    /**
+     * @Description: 检测各节点的空闲连接，不可用和超过最大存活时间的连接被关闭
+     */
+    public void validateIdle(OperationId logId) {
+        for (BoundedConnectionPool<PooledStorageServer> nodePool : nodePools.values()) {
+            nodePool.validateIdle(logId);
+        }
+    }
+
+    /**
+     * @Description: 检查各节点借出未归还的连接，记录疑似泄漏，回收超过abandonedTimeout的连接
+     */
+    public void checkLeaks(OperationId logId) {
+        for (BoundedConnectionPool<PooledStorageServer> nodePool : nodePools.values()) {
+            nodePool.checkLeaks(logId);
+        }
+    }
+
+    /**
+     * @Description: 回收超过最大空闲时间的连接，每个节点保留minPoolSize个连接
+     */
+    public void evictIdle(OperationId logId) {
+        for (BoundedConnectionPool<PooledStorageServer> nodePool : nodePools.values()) {
+            nodePool.evictIdle(logId, minPoolSize, maxIdleTime);
+        }
+    }
+
+    /**
+     * @Description: 停止心跳和后台建连线程，关闭各节点的空闲连接，借出的连接归还时关闭
+     */
+    public void shutdown(OperationId logId) {
+        closed = true;
+        heartBeat.shutdown();
+        connector.shutdownNow();
+        for (BoundedConnectionPool<PooledStorageServer> nodePool : nodePools.values()) {
+            nodePool.shutdown(logId);
+        }
+    }
+
+    /**
+     * @Description: 设置指标记录，对已有和新建的节点连接池生效
+     */
+    public void setMetrics(FastdfsMetrics metrics) {
+        this.metrics = metrics;
+        for (BoundedConnectionPool<PooledStorageServer> nodePool : nodePools.values()) {
+            nodePool.setMetrics(metrics);
+        }
+    }
+
+    /**
+     * 各storage节点的连接，key为 group/ip:port
+     */
+    public Map<String, BoundedConnectionPool<PooledStorageServer>> getNodePools() {
+        return nodePools;
+    }
+}
@@ -0,0 +1,82 @@
+package io.github.whiliang.fdfs;
+
+/**
+ * storage节点，由tracker查询返回，作为storage连接池的key
+ *
+ * @author whiliang
+ */
+public class StorageNode {
+
+    /**
+     * 组名
+     */
+    private final String group;
+    /**
+     * storage ip
+     */
+    private final String ip;
+    /**
+     * storage端口
+     */
+    private final int port;
+    /**
+     * 存储路径索引，查询下载/更新节点时为-1
+     */
+    private final int storePathIndex;
+
+    private final String key;
+
+    public StorageNode(String group, String ip, int port, int storePathIndex) {
+        this.group = group;
+        this.ip = ip;
+        this.port = port;
+        this.storePathIndex = storePathIndex;
+        this.key = group + "/" + ip + ":" + port;
+    }
+
+    public String getGroup() {
+        return group;
+    }
+
+    public String getIp() {
+        return ip;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public int getStorePathIndex() {
+        return storePathIndex;
+    }
+
+    /**
+     * 连接池key：group/ip:port
+     *
+     * @return
+     */
+    public String getKey() {
+        return key;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof StorageNode)) {
+            return false;
+        }
+        return key.equals(((StorageNode) o).key);
+    }
+
+    @Override
+    public int hashCode() {
+        return key.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return key;
+    }
+}
@@ -0,0 +1,271 @@
+package io.github.whiliang.fdfs;
+
+import org.csource.common.Base64;
+import org.csource.fastdfs.ProtoCommon;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * storage路由缓存，命中时直接访问storage，省去一次tracker查询
+ * <p>
+ * 1).上传：group -> 组内可写节点，轮询使用；不指定group的上传不缓存，由tracker按store_lookup和负载均衡选择组和节点；
+ * 2).下载：group/源storage -> 可读节点，文件创建超过storageSyncDelay后轮询使用，否则只访问源storage；
+ * 3).删除：group/源storage -> 源storage；
+ * 4).路由在ttl后过期，过期前refreshAhead毫秒内被访问时由后台线程提前刷新，storage连接失败时移除包含该节点的路由；
+ * 5).同步加载受本次操作的截止时间限制，后台刷新不受限制
+ *
+ * @author whiliang
+ */
+public class StorageRouteCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(StorageRouteCache.class);
+
+    /**
+     * 文件名中源storage信息的解码器
+     */
+    private static final Base64 BASE64 = new Base64('-', '_', '.', 0);
+
+    private final ConcurrentHashMap<String, Route> routes = new ConcurrentHashMap<>();
+    /**
+     * 路由有效时间（单位：毫秒）
+     */
+    private final long ttl;
+    /**
+     * 过期前多久开始后台刷新（单位：毫秒）
+     */
+    private final long refreshAhead;
+    /**
+     * 文件同步到同组其它storage的最长时间（单位：毫秒）
+     */
+    private final long storageSyncDelay;
+    /**
+     * 后台刷新线程
+     */
+    private final ExecutorService refresher;
+
+    public StorageRouteCache(FastdfsProperties properties) {
+        this.ttl = properties.getRouteCacheTtl();
+        this.refreshAhead = Math.min(properties.getRouteCacheRefreshAhead(), ttl);
+        this.storageSyncDelay = properties.getStorageSyncDelay();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), new FastdfsThreadFactory("fastdfs-route-refresh-", true));
+        executor.allowCoreThreadTimeOut(true);
+        this.refresher = executor;
+    }
+
+    /**
+     * @param group    组名
+     * @param loader   查询组内所有可写节点
+     * @param deadline 本次操作的截止时间
+     * @return 上传节点，group为空时返回null，由调用方查询tracker
+     * @throws FastdfsException
+     */
+    public StorageNode storeNode(String group, RouteLoader loader, Deadline deadline) throws FastdfsException {
+        if (group == null) {
+            return null;
+        }
+        return get("store:" + group, loader, deadline).next();
+    }
+
+    /**
+     * @param fileId   文件ID
+     * @param loader   查询可下载该文件的所有节点
+     * @param deadline 本次操作的截止时间
+     * @return 下载节点，无法从文件ID解析源storage或源storage不在可读节点中时返回null，由调用方查询tracker
+     * @throws FastdfsException
+     */
+    public StorageNode fetchNode(String fileId, RouteLoader loader, Deadline deadline) throws FastdfsException {
+        Source source = decodeSource(fileId);
+        if (source == null) {
+            return null;
+        }
+        Route route = get("fetch:" + source.key, loader, deadline);
+        if (System.currentTimeMillis() - source.createTime > storageSyncDelay) {
+            return route.next();
+        }
+        /** 新文件可能还未同步到其它storage，只访问源storage */
+        for (StorageNode node : route.nodes) {
+            if (node.getIp().equals(source.ip)) {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param fileId   文件ID
+     * @param loader   查询可下载该文件的所有节点
+     * @param deadline 本次操作的截止时间
+     * @return 可下载该文件的节点，新文件只有源storage，无法从文件ID解析源storage时返回null
+     * @throws FastdfsException
+     */
+    public List<StorageNode> fetchNodes(String fileId, RouteLoader loader, Deadline deadline) throws FastdfsException {
+        Source source = decodeSource(fileId);
+        if (source == null) {
+            return null;
+        }
+        Route route = get("fetch:" + source.key, loader, deadline);
+        if (System.currentTimeMillis() - source.createTime > storageSyncDelay) {
+            return route.nodes;
+        }
+        for (StorageNode node : route.nodes) {
+            if (node.getIp().equals(source.ip)) {
+                return Collections.singletonList(node);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param fileId   文件ID
+     * @param loader   查询文件的源storage
+     * @param deadline 本次操作的截止时间
+     * @return 删除、修改节点，无法从文件ID解析源storage时返回null，由调用方查询tracker
+     * @throws FastdfsException
+     */
+    public StorageNode updateNode(String fileId, RouteLoader loader, Deadline deadline) throws FastdfsException {
+        Source source = decodeSource(fileId);
+        if (source == null) {
+            return null;
+        }
+        return get("update:" + source.key, loader, deadline).next();
+    }
+
+    /**
+     * @param node 连接失败的storage节点
+     * @Description: 移除包含该节点的路由，下次访问时重新查询tracker
+     */
+    public void invalidate(StorageNode node) {
+        if (node != null && routes.values().removeIf(route -> route.nodes.contains(node))) {
+            LOGGER.info("[移除storage路由(invalidate)][node:{}]", node);
+        }
+    }
+
+    /**
+     * @Description: 清空路由缓存
+     */
+    public void clear() {
+        routes.clear();
+    }
+
+    /**
+     * @Description: 停止后台刷新线程，之后到期的路由由请求线程查询tracker
+     */
+    public void shutdown() {
+        refresher.shutdownNow();
+    }
+
+    private Route get(String key, RouteLoader loader, Deadline deadline) throws FastdfsException {
+        long now = System.currentTimeMillis();
+        Route route = routes.get(key);
+        if (route == null || now >= route.expireTime) {
+            route = new Route(loader.load(deadline), now + ttl);
+            routes.put(key, route);
+        } else if (now >= route.expireTime - refreshAhead && route.refreshing.compareAndSet(false, true)) {
+            refresh(key, route, loader);
+        }
+        return route;
+    }
+
+    private void refresh(String key, Route route, RouteLoader loader) {
+        try {
+            refresher.execute(() -> {
+                try {
+                    routes.replace(key, route, new Route(loader.load(Deadline.NONE), System.currentTimeMillis() + ttl));
+                } catch (RuntimeException e) {
+                    LOGGER.info("[刷新storage路由(refresh)][key:{}][异常：{}]", key, e.toString());
+                } finally {
+                    route.refreshing.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            route.refreshing.set(false);
+        }
+    }
+
+    /**
+     * @return 从文件名解析的源storage和创建时间，不是普通文件名时返回null
+     */
+    /**
+     * @param fileId 文件ID
+     * @return 组名/源storage ip，同一个key的文件删除、修改节点相同；无法从文件ID解析源storage时返回null
+     * @throws FastdfsException 文件ID格式错误
+     */
+    static String sourceKey(String fileId) {
+        Source source = decodeSource(fileId);
+        return source == null ? null : source.key;
+    }
+
+    private static Source decodeSource(String fileId) {
+        String[] parts = FdfsTrackerQuery.splitFileId(fileId);
+        String remoteFilename = parts[1];
+        if (remoteFilename.length() < ProtoCommon.NORMAL_LOGIC_FILENAME_LENGTH) {
+            return null;
+        }
+        try {
+            byte[] buff = BASE64.decodeAuto(remoteFilename.substring(ProtoCommon.FDFS_FILE_PATH_LEN,
+                    ProtoCommon.FDFS_FILE_PATH_LEN + ProtoCommon.FDFS_FILENAME_BASE64_LENGTH));
+            String ip = ProtoCommon.getIpAddress(buff, 0);
+            long createTime = (ProtoCommon.buff2int(buff, 4) & 0xFFFFFFFFL) * 1000;
+            return new Source(parts[0] + "/" + ip, ip, createTime);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 路由加载，通常为一次tracker查询
+     */
+    public interface RouteLoader {
+        List<StorageNode> load(Deadline deadline) throws FastdfsException;
+    }
+
+    private static class Route {
+
+        private final List<StorageNode> nodes;
+
+        private final long expireTime;
+
+        private final AtomicInteger cursor = new AtomicInteger();
+
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+
+        Route(List<StorageNode> nodes, long expireTime) {
+            if (nodes == null || nodes.isEmpty()) {
+                throw ERRORS.NOT_EXIST_PORTURL.ERROR();
+            }
+            this.nodes = Collections.unmodifiableList(nodes);
+            this.expireTime = expireTime;
+        }
+
+        StorageNode next() {
+            return nodes.get((cursor.getAndIncrement() & Integer.MAX_VALUE) % nodes.size());
+        }
+    }
+
+    private static class Source {
+
+        private final String key;
+
+        private final String ip;
+
+        private final long createTime;
+
+        Source(String key, String ip, long createTime) {
+            this.key = key;
+            this.ip = ip;
+            this.createTime = createTime;
+        }
+    }
+}
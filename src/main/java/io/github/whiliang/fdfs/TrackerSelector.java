@@ -0,0 +1,242 @@
+package io.github.whiliang.fdfs;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * tracker选择器，按健康度在多个tracker之间分配连接
+ * <p>
+ * 1).每个tracker记录EWMA延迟和EWMA错误率，由建连、查询、心跳的结果更新；
+ * 2).建连失败或连续失败failureThreshold次后摘除，摘除期间不再向其建连，已建立的连接归还时关闭；
+ * 3).摘除时间到期后只放行一次探测，成功则恢复，失败则摘除时间加倍，最长maxEjectTime；
+ * 4).在未摘除的tracker中随机取两个，选择 延迟 x (连接数+1) x 错误惩罚 较小的一个（power of two choices）；
+ * 5).所有tracker都被摘除时选择最早到期的一个，不会因为全部摘除而拒绝建连
+ *
+ * @author whiliang
+ */
+public class TrackerSelector {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TrackerSelector.class);
+
+    /**
+     * EWMA平滑系数，越大越偏向最近的样本
+     */
+    private static final double ALPHA = 0.2;
+    /**
+     * 错误率超过该值时摘除
+     */
+    private static final double MAX_ERROR_RATE = 0.5;
+    /**
+     * 没有延迟样本时使用的初始延迟（单位：纳秒）
+     */
+    private static final double INITIAL_LATENCY = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final List<TrackerHealth> trackers;
+    /**
+     * 首次摘除时间（单位：毫秒）
+     */
+    private final long ejectTime;
+    /**
+     * 最长摘除时间（单位：毫秒）
+     */
+    private final long maxEjectTime;
+    /**
+     * 连续失败多少次后摘除
+     */
+    private final int failureThreshold;
+
+    public TrackerSelector(InetSocketAddress[] addresses, long ejectTime, long maxEjectTime, int failureThreshold) {
+        List<TrackerHealth> list = new ArrayList<>(addresses.length);
+        for (InetSocketAddress address : addresses) {
+            list.add(new TrackerHealth(address));
+        }
+        this.trackers = Collections.unmodifiableList(list);
+        this.ejectTime = Math.max(ejectTime, 1);
+        this.maxEjectTime = Math.max(maxEjectTime, this.ejectTime);
+        this.failureThreshold = Math.max(failureThreshold, 1);
+    }
+
+    /**
+     * @return 本次建连使用的tracker
+     * @Description: 优先放行到期的探测，其次在健康的tracker中按power of two choices选择
+     */
+    public TrackerHealth select() {
+        long now = System.currentTimeMillis();
+        List<TrackerHealth> healthy = new ArrayList<>(trackers.size());
+        TrackerHealth earliest = null;
+        for (TrackerHealth tracker : trackers) {
+            long ejectedUntil = tracker.ejectedUntil;
+            if (ejectedUntil == 0) {
+                healthy.add(tracker);
+            } else if (now >= ejectedUntil && tracker.probing.compareAndSet(false, true)) {
+                LOGGER.info("[tracker探测(probe)][tracker:{}]", tracker.address);
+                return tracker;
+            } else if (earliest == null || ejectedUntil < earliest.ejectedUntil) {
+                earliest = tracker;
+            }
+        }
+        if (healthy.isEmpty()) {
+            return earliest;
+        }
+        if (healthy.size() == 1) {
+            return healthy.get(0);
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(healthy.size());
+        int second = random.nextInt(healthy.size() - 1);
+        if (second >= first) {
+            second++;
+        }
+        TrackerHealth a = healthy.get(first);
+        TrackerHealth b = healthy.get(second);
+        return a.score() <= b.score() ? a : b;
+    }
+
+    /**
+     * @param latencyNanos 本次请求耗时（单位：纳秒）
+     */
+    public void recordSuccess(TrackerHealth tracker, long latencyNanos) {
+        if (tracker.onSuccess(latencyNanos)) {
+            LOGGER.info("[tracker恢复(recover)][tracker:{}]", tracker.address);
+        }
+    }
+
+    /**
+     * @param connectFailure 建连失败时立即摘除，不等待连续失败次数
+     * @return 本次失败后tracker是否处于摘除状态
+     */
+    public boolean recordFailure(TrackerHealth tracker, boolean connectFailure) {
+        long backoff = tracker.onFailure(connectFailure, failureThreshold, ejectTime, maxEjectTime);
+        if (backoff > 0) {
+            LOGGER.error("[tracker摘除(eject)][tracker:{}][{}ms后探测]", tracker.address, backoff);
+        }
+        return tracker.isEjected();
+    }
+
+    public List<TrackerHealth> getTrackers() {
+        return trackers;
+    }
+
+    /**
+     * 单个tracker的健康度
+     */
+    public static class TrackerHealth {
+
+        private final InetSocketAddress address;
+        /**
+         * EWMA延迟（单位：纳秒）
+         */
+        private volatile double latency = INITIAL_LATENCY;
+        /**
+         * EWMA错误率
+         */
+        private volatile double errorRate;
+        /**
+         * 连续失败次数
+         */
+        private int failures;
+        /**
+         * 累计摘除次数，恢复后清零，用于计算退避时间
+         */
+        private int ejections;
+        /**
+         * 摘除到期时间，0表示未摘除
+         */
+        private volatile long ejectedUntil;
+        /**
+         * 是否已放行探测
+         */
+        private final AtomicBoolean probing = new AtomicBoolean();
+        /**
+         * 到该tracker的连接数
+         */
+        private final AtomicInteger connections = new AtomicInteger();
+
+        TrackerHealth(InetSocketAddress address) {
+            this.address = address;
+        }
+
+        private double score() {
+            return latency * (connections.get() + 1) / Math.max(1 - errorRate, 0.01);
+        }
+
+        /**
+         * @return 是否从摘除状态恢复
+         */
+        private synchronized boolean onSuccess(long latencyNanos) {
+            latency += ALPHA * (latencyNanos - latency);
+            errorRate -= ALPHA * errorRate;
+            failures = 0;
+            boolean recovered = ejectedUntil != 0;
+            ejections = 0;
+            ejectedUntil = 0;
+            probing.set(false);
+            return recovered;
+        }
+
+        /**
+         * @return 本次失败导致摘除时返回摘除时间（单位：毫秒），否则返回0
+         */
+        private synchronized long onFailure(boolean connectFailure, int failureThreshold,
+                                            long ejectTime, long maxEjectTime) {
+            errorRate += ALPHA * (1 - errorRate);
+            failures++;
+            boolean probe = probing.getAndSet(false);
+            if (ejectedUntil != 0 && !probe) {
+                /** 已摘除，摘除前借出的连接陆续失败 */
+                return 0;
+            }
+            if (probe || connectFailure || failures >= failureThreshold || errorRate > MAX_ERROR_RATE) {
+                long backoff = Math.min(ejectTime << Math.min(ejections, 30), maxEjectTime);
+                ejections++;
+                ejectedUntil = System.currentTimeMillis() + backoff;
+                return backoff;
+            }
+            return 0;
+        }
+
+        public boolean isEjected() {
+            return ejectedUntil != 0;
+        }
+
+        void connectionOpened() {
+            connections.incrementAndGet();
+        }
+
+        void connectionClosed() {
+            connections.decrementAndGet();
+        }
+
+        public InetSocketAddress getAddress() {
+            return address;
+        }
+
+        /**
+         * EWMA延迟（单位：纳秒）
+         */
+        public double getLatency() {
+            return latency;
+        }
+
+        public double getErrorRate() {
+            return errorRate;
+        }
+
+        public long getEjectedUntil() {
+            return ejectedUntil;
+        }
+
+        public int getConnections() {
+            return connections.get();
+        }
+    }
+}
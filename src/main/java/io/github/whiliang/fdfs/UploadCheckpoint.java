@@ -0,0 +1,67 @@
+package io.github.whiliang.fdfs;
+
+/**
+ * 断点续传的检查点，记录appender文件和已确认写入的偏移量
+ *
+ * @author whiliang
+ */
+public class UploadCheckpoint {
+
+    /**
+     * 调用方指定的上传ID，同一个源文件续传时使用相同的ID
+     */
+    private final String uploadId;
+    /**
+     * appender文件ID
+     */
+    private final String fileId;
+    /**
+     * 源文件大小
+     */
+    private final long size;
+    /**
+     * 源文件最后修改时间（单位：毫秒），与size一起判断源文件是否变化
+     */
+    private final long sourceModified;
+    /**
+     * 已确认写入storage的字节数
+     */
+    private volatile long offset;
+
+    public UploadCheckpoint(String uploadId, String fileId, long size, long sourceModified, long offset) {
+        this.uploadId = uploadId;
+        this.fileId = fileId;
+        this.size = size;
+        this.sourceModified = sourceModified;
+        this.offset = offset;
+    }
+
+    public String getUploadId() {
+        return uploadId;
+    }
+
+    public String getFileId() {
+        return fileId;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getSourceModified() {
+        return sourceModified;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public void setOffset(long offset) {
+        this.offset = offset;
+    }
+
+    @Override
+    public String toString() {
+        return "UploadCheckpoint[" + uploadId + "]: " + fileId + " " + offset + "/" + size;
+    }
+}
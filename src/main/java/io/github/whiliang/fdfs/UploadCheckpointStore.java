@@ -0,0 +1,32 @@
+package io.github.whiliang.fdfs;
+
+/**
+ * 断点续传检查点存储，每个分块写入成功后保存一次
+ * <p>
+ * 默认保存在内存中，只能在进程内续传；配置resumable.checkpoint-dir时保存到本地文件，进程重启后可以续传。
+ * 多实例共享续传状态时可以实现该接口（如保存到数据库），通过FastdfsFileServiceImpl.setUploadCheckpointStore替换
+ *
+ * @author whiliang
+ */
+public interface UploadCheckpointStore {
+
+    /**
+     * @param uploadId 上传ID
+     * @return 检查点，不存在时返回null
+     */
+    UploadCheckpoint load(String uploadId);
+
+    /**
+     * 保存检查点，覆盖同一uploadId的旧检查点
+     *
+     * @param checkpoint 检查点
+     */
+    void save(UploadCheckpoint checkpoint);
+
+    /**
+     * 上传完成或放弃后删除检查点
+     *
+     * @param uploadId 上传ID
+     */
+    void remove(String uploadId);
+}
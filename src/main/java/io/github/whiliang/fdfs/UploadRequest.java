@@ -0,0 +1,102 @@
+package io.github.whiliang.fdfs;
+
+import org.csource.fastdfs.UploadCallback;
+import org.springframework.util.Assert;
+
+import java.io.InputStream;
+import java.util.Map;
+
+/**
+ * 批量上传中的单个文件
+ *
+ * @author whiliang
+ */
+public class UploadRequest {
+
+    /**
+     * 组名，为空时由tracker选择
+     */
+    private final String group;
+    /**
+     * 后缀名
+     */
+    private final String extName;
+    /**
+     * 文件大小
+     */
+    private final long size;
+
+    private final byte[] bytes;
+
+    private final InputStream inputStream;
+    /**
+     * 元数据，为空时不设置
+     */
+    private final Map<String, String> metadata;
+
+    private UploadRequest(String group, String extName, long size, byte[] bytes, InputStream inputStream,
+                          Map<String, String> metadata) {
+        this.group = group;
+        this.extName = extName;
+        this.size = size;
+        this.bytes = bytes;
+        this.inputStream = inputStream;
+        this.metadata = metadata;
+    }
+
+    /**
+     * @param bytes   文件字节流
+     * @param group   组名，为空时由tracker选择
+     * @param extName 后缀名
+     */
+    public static UploadRequest of(byte[] bytes, String group, String extName) {
+        Assert.notNull(bytes, "File bytes must not be null.");
+        return new UploadRequest(group, extName, bytes.length, bytes, null, null);
+    }
+
+    /**
+     * @param inputStream 文件输入流，由调用方关闭
+     * @param size        文件大小
+     * @param group       组名，为空时由tracker选择
+     * @param extName     后缀名
+     */
+    public static UploadRequest of(InputStream inputStream, long size, String group, String extName) {
+        Assert.notNull(inputStream, "Input stream must not be null.");
+        Assert.isTrue(size >= 0, "File size must not be negative.");
+        return new UploadRequest(group, extName, size, null, inputStream, null);
+    }
+
+    /**
+     * @param metadata 元数据，与文件一起上传
+     * @return 带有元数据的新请求
+     */
+    public UploadRequest withMetadata(Map<String, String> metadata) {
+        return new UploadRequest(group, extName, size, bytes, inputStream, metadata);
+    }
+
+    public String getGroup() {
+        return group;
+    }
+
+    public String getExtName() {
+        return extName;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public Map<String, String> getMetadata() {
+        return metadata;
+    }
+
+    UploadCallback callback(int bufferSize) {
+        if (bytes != null) {
+            return out -> {
+                out.write(bytes);
+                return 0;
+            };
+        }
+        return new InputStreamUploadCallback(inputStream, size, bufferSize);
+    }
+}
@@ -0,0 +1,359 @@
+package io.github.whiliang.fdfs;
+
+import org.csource.fastdfs.ProtoCommon;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 基于FaultyFastdfsServer的行为测试：tracker、storage出错、挂起或断开时，借出的连接都能归还，许可不泄漏也不重复释放；
+ * 连接池耗尽与回收、断点续传、批量操作的路由与部分失败、去重上传
+ *
+ * @author whiliang
+ */
+public class FastdfsFileServiceImplFaultTest {
+
+    private static final byte[] CONTENT = "fault-test".getBytes(StandardCharsets.UTF_8);
+
+    private static final int POOL_SIZE = 4;
+
+    private FaultyFastdfsServer server;
+
+    private FastdfsFileServiceImpl service;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new FaultyFastdfsServer(1);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (service != null) {
+            service.shutdown();
+        }
+        server.close();
+    }
+
+    @Test
+    public void failedCallsReleaseAllConnections() throws Exception {
+        FastdfsProperties properties = properties();
+        properties.setNetworkTimeout(200);
+        properties.setMaxWaitTime(1000);
+        service = new FastdfsFileServiceImpl(properties);
+        String fileId = service.uploadWithGroup(CONTENT, FaultyFastdfsServer.GROUP, "txt");
+
+        ExecutorService callers = Executors.newFixedThreadPool(POOL_SIZE * 2);
+        try {
+            for (FaultyFastdfsServer.Fault fault : new FaultyFastdfsServer.Fault[]{FaultyFastdfsServer.Fault.ERROR,
+                    FaultyFastdfsServer.Fault.HANG, FaultyFastdfsServer.Fault.RESET}) {
+                server.setStorageFault(0, fault);
+                callAll(callers, fileId, 8);
+                server.setStorageFault(0, FaultyFastdfsServer.Fault.NONE);
+
+                server.setTrackerFault(fault);
+                callAll(callers, fileId, 4);
+                server.setTrackerFault(FaultyFastdfsServer.Fault.NONE);
+
+                assertReleased(fault.name());
+            }
+        } finally {
+            callers.shutdownNow();
+        }
+
+        /** 故障恢复后连接池仍可正常使用，被剔除的tracker在恢复时间后重新加入 */
+        long until = System.currentTimeMillis() + 5000;
+        while (true) {
+            try {
+                Assert.assertArrayEquals(CONTENT, service.download(fileId));
+                break;
+            } catch (FastdfsException e) {
+                if (System.currentTimeMillis() > until) {
+                    throw e;
+                }
+                Thread.sleep(100);
+            }
+        }
+        Assert.assertTrue(service.deleteIfExists(fileId));
+        assertReleased("recovered");
+    }
+
+    @Test
+    public void abandonedConnectionIsReclaimedOnce() throws Exception {
+        FastdfsProperties properties = properties();
+        properties.setNetworkTimeout(10000);
+        properties.setAbandonedTimeout(200);
+        properties.getRetry().setMaxAttempts(1);
+        service = new FastdfsFileServiceImpl(properties);
+        String fileId = service.uploadWithGroup(CONTENT, FaultyFastdfsServer.GROUP, "txt");
+
+        server.setStorageFault(0, FaultyFastdfsServer.Fault.HANG);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread caller = new Thread(() -> {
+            try {
+                service.download(fileId);
+            } catch (Throwable e) {
+                failure.set(e);
+            }
+        });
+        caller.start();
+
+        long until = System.currentTimeMillis() + 5000;
+        while (storageActive() == 0 && System.currentTimeMillis() < until) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(1, storageActive());
+        Thread.sleep(300);
+        service.getStorageConnectionPool().checkLeaks(OperationIds.next());
+
+        /** 回收后许可立即释放，挂起的下载收到IO异常，归还时不会再次释放许可 */
+        Assert.assertEquals(1, storageAbandoned());
+        Assert.assertEquals(0, storageActive());
+        caller.join(5000);
+        Assert.assertFalse(caller.isAlive());
+        Assert.assertTrue(failure.get() instanceof FastdfsException);
+        server.setStorageFault(0, FaultyFastdfsServer.Fault.NONE);
+        assertReleased("abandoned");
+        Assert.assertArrayEquals(CONTENT, service.download(fileId));
+        assertReleased("abandoned");
+    }
+
+    @Test
+    public void deleteIfExistsTreatsLostResponseAsDeleted() throws Exception {
+        service = new FastdfsFileServiceImpl(properties());
+        String fileId = service.uploadWithGroup(CONTENT, FaultyFastdfsServer.GROUP, "txt");
+
+        /** 第一次删除已执行但应答丢失，重试时文件不存在 */
+        server.setStorageFault(0, FaultyFastdfsServer.Fault.LOSE_RESPONSE);
+        Assert.assertTrue(service.deleteIfExists(fileId));
+        Assert.assertFalse(service.deleteIfExists(fileId));
+        assertReleased("lost response");
+    }
+
+    @Test
+    public void deleteBatchQueriesTrackerOncePerSource() throws Exception {
+        service = new FastdfsFileServiceImpl(properties());
+        List<String> fileIds = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            fileIds.add(service.uploadWithGroup(CONTENT, FaultyFastdfsServer.GROUP, "txt"));
+        }
+
+        int queries = server.getRequestCount(ProtoCommon.TRACKER_PROTO_CMD_SERVICE_QUERY_UPDATE);
+        List<BatchResult<String>> results = service.deleteBatch(fileIds);
+        Assert.assertEquals(1, server.getRequestCount(ProtoCommon.TRACKER_PROTO_CMD_SERVICE_QUERY_UPDATE) - queries);
+        for (int i = 0; i < fileIds.size(); i++) {
+            Assert.assertEquals(i, results.get(i).getIndex());
+            Assert.assertTrue(String.valueOf(results.get(i)), results.get(i).isSuccess());
+        }
+        assertReleased("deleteBatch");
+    }
+
+    @Test
+    public void getMetadataBatchQueriesTrackerOncePerSource() throws Exception {
+        service = new FastdfsFileServiceImpl(properties());
+        List<String> fileIds = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            fileIds.add(service.uploadWithGroup(CONTENT, FaultyFastdfsServer.GROUP, "txt"));
+        }
+
+        int queries = server.getRequestCount(ProtoCommon.TRACKER_PROTO_CMD_SERVICE_QUERY_UPDATE);
+        List<BatchResult<Map<String, String>>> results = service.getMetadataBatch(fileIds);
+        Assert.assertEquals(1, server.getRequestCount(ProtoCommon.TRACKER_PROTO_CMD_SERVICE_QUERY_UPDATE) - queries);
+        for (int i = 0; i < fileIds.size(); i++) {
+            Assert.assertEquals(i, results.get(i).getIndex());
+            Assert.assertEquals(String.valueOf(CONTENT.length), results.get(i).getValue().get("size"));
+        }
+        assertReleased("getMetadataBatch");
+    }
+
+    @Test
+    public void dedupStreamUploadSendsDuplicateOnlyOnce() throws Exception {
+        FastdfsProperties properties = properties();
+        properties.getDedup().setEnabled(true);
+        service = new FastdfsFileServiceImpl(properties);
+
+        int uploads = server.getRequestCount(ProtoCommon.STORAGE_PROTO_CMD_UPLOAD_FILE);
+        String fileId = service.upload(new ByteArrayInputStream(CONTENT), CONTENT.length, FaultyFastdfsServer.GROUP, "txt");
+        String duplicate = service.upload(new ByteArrayInputStream(CONTENT), CONTENT.length, FaultyFastdfsServer.GROUP, "txt");
+
+        /** 命中时不上传、不删除，也不额外写元数据 */
+        Assert.assertEquals(fileId, duplicate);
+        Assert.assertEquals(1, server.getRequestCount(ProtoCommon.STORAGE_PROTO_CMD_UPLOAD_FILE) - uploads);
+        Assert.assertEquals(0, server.getRequestCount(ProtoCommon.STORAGE_PROTO_CMD_DELETE_FILE));
+        Assert.assertEquals(1, server.getRequestCount(ProtoCommon.STORAGE_PROTO_CMD_SET_METADATA));
+        Assert.assertArrayEquals(CONTENT, service.download(fileId));
+        assertReleased("dedup");
+    }
+
+    @Test
+    public void exhaustedPoolFailsFastAndRecoversAfterReclaim() throws Exception {
+        FastdfsProperties properties = properties();
+        properties.setNetworkTimeout(10000);
+        properties.setMaxWaitTime(200);
+        properties.setAbandonedTimeout(300);
+        properties.getRetry().setMaxAttempts(1);
+        service = new FastdfsFileServiceImpl(properties);
+        String fileId = service.uploadWithGroup(CONTENT, FaultyFastdfsServer.GROUP, "txt");
+
+        /** 挂起的下载占满storage连接池 */
+        server.setStorageFault(0, FaultyFastdfsServer.Fault.HANG);
+        ExecutorService callers = Executors.newFixedThreadPool(POOL_SIZE);
+        try {
+            List<Future<byte[]>> hung = new ArrayList<>();
+            for (int i = 0; i < POOL_SIZE; i++) {
+                hung.add(callers.submit(() -> service.download(fileId)));
+            }
+            long until = System.currentTimeMillis() + 5000;
+            while (storageActive() < POOL_SIZE && System.currentTimeMillis() < until) {
+                Thread.sleep(10);
+            }
+            Assert.assertEquals(POOL_SIZE, storageActive());
+
+            /** 连接池耗尽时等待max-wait-time后失败，不会无限等待 */
+            long start = System.nanoTime();
+            try {
+                service.download(fileId);
+                Assert.fail("pool should be exhausted");
+            } catch (FastdfsException e) {
+                Assert.assertTrue(e.toString(), ERRORS.WAIT_IDLECONNECTION_TIMEOUT.matches(e));
+            }
+            Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 5000);
+
+            /** 回收超过abandoned-timeout的连接后，挂起的调用失败，连接池恢复可用 */
+            Thread.sleep(400);
+            service.getStorageConnectionPool().checkLeaks(OperationIds.next());
+            Assert.assertEquals(POOL_SIZE, storageAbandoned());
+            for (Future<byte[]> future : hung) {
+                try {
+                    future.get(5, TimeUnit.SECONDS);
+                    Assert.fail("hung download should fail");
+                } catch (ExecutionException e) {
+                    Assert.assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof FastdfsException);
+                }
+            }
+        } finally {
+            callers.shutdownNow();
+        }
+        server.setStorageFault(0, FaultyFastdfsServer.Fault.NONE);
+        Assert.assertArrayEquals(CONTENT, service.download(fileId));
+        assertReleased("exhausted");
+    }
+
+    @Test
+    public void resumableUploadContinuesAfterFailedChunk() throws Exception {
+        FastdfsProperties properties = properties();
+        properties.getResumable().setChunkSize(4);
+        properties.getRetry().setMaxAttempts(1);
+        service = new FastdfsFileServiceImpl(properties);
+        Path source = Files.createTempFile("fault-test", ".txt");
+        try {
+            Files.write(source, CONTENT);
+
+            /** 第3个分块（第2次追加）已写入但应答丢失，不重试时本次上传失败，检查点停在第2个分块之后 */
+            server.failRequest(ProtoCommon.STORAGE_PROTO_CMD_APPEND_FILE, 2, FaultyFastdfsServer.Fault.LOSE_RESPONSE);
+            try {
+                service.uploadResumable("resume", source, FaultyFastdfsServer.GROUP, "txt");
+                Assert.fail("chunk should fail");
+            } catch (FastdfsException e) {
+                Assert.assertEquals(2, server.getRequestCount(ProtoCommon.STORAGE_PROTO_CMD_APPEND_FILE));
+            }
+
+            /** 续传不重新创建appender文件，已写入的分块覆盖写一次，其余分块继续追加 */
+            String fileId = service.uploadResumable("resume", source, FaultyFastdfsServer.GROUP, "txt");
+            Assert.assertEquals(1, server.getRequestCount(ProtoCommon.STORAGE_PROTO_CMD_UPLOAD_APPENDER_FILE));
+            Assert.assertEquals(1, server.getRequestCount(ProtoCommon.STORAGE_PROTO_CMD_MODIFY_FILE));
+            Assert.assertArrayEquals(CONTENT, service.download(fileId));
+            Assert.assertFalse(service.abortResumableUpload("resume"));
+            assertReleased("resumable");
+        } finally {
+            Files.delete(source);
+        }
+    }
+
+    @Test
+    public void deleteBatchKeepsOrderWithPartialFailure() throws Exception {
+        service = new FastdfsFileServiceImpl(properties());
+        String first = service.uploadWithGroup(CONTENT, FaultyFastdfsServer.GROUP, "txt");
+        String deleted = service.uploadWithGroup(CONTENT, FaultyFastdfsServer.GROUP, "txt");
+        String last = service.uploadWithGroup(CONTENT, FaultyFastdfsServer.GROUP, "txt");
+        service.delete(deleted);
+
+        List<BatchResult<String>> results = service.deleteBatch(Arrays.asList(first, "malformed", deleted, last));
+        Assert.assertEquals(4, results.size());
+        boolean[] success = {true, false, false, true};
+        for (int i = 0; i < success.length; i++) {
+            Assert.assertEquals(i, results.get(i).getIndex());
+            Assert.assertEquals(String.valueOf(results.get(i)), success[i], results.get(i).isSuccess());
+        }
+        Assert.assertTrue(ERRORS.FILE_PATH_ERROR.matches(results.get(1).getError()));
+        Assert.assertTrue(ERRORS.NOT_EXIST_FILE.matches(results.get(2).getError()));
+        assertReleased("partial failure");
+    }
+
+    private FastdfsProperties properties() {
+        FastdfsProperties properties = new FastdfsProperties();
+        properties.setTrackerList(Collections.singletonList(server.getTrackerAddress()));
+        properties.setMinPoolSize(1);
+        properties.setMaxPoolSize(POOL_SIZE);
+        properties.setStorageMinPoolSize(1);
+        properties.setStorageMaxPoolSize(POOL_SIZE);
+        properties.setConnectTimeout(1000);
+        return properties;
+    }
+
+    /**
+     * @Description: 并发执行上传、下载、删除，每个调用都应失败
+     */
+    private void callAll(ExecutorService callers, String fileId, int rounds) throws Exception {
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < rounds; i++) {
+            futures.add(callers.submit(() -> service.uploadWithGroup(CONTENT, FaultyFastdfsServer.GROUP, "txt")));
+            futures.add(callers.submit(() -> service.download(fileId)));
+            futures.add(callers.submit(() -> service.deleteIfExists(fileId)));
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get(30, TimeUnit.SECONDS);
+                Assert.fail("call should fail");
+            } catch (ExecutionException e) {
+                Assert.assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof FastdfsException);
+            }
+        }
+    }
+
+    private void assertReleased(String message) {
+        BoundedConnectionPool<PooledTrackerServer> tracker = service.getConnectionPool().getConnections();
+        Assert.assertEquals(message, 0, tracker.getActive());
+        Assert.assertEquals(message, 0, tracker.getPending());
+        for (BoundedConnectionPool<PooledStorageServer> pool : service.getStorageConnectionPool().getNodePools().values()) {
+            Assert.assertEquals(message, 0, pool.getActive());
+            Assert.assertEquals(message, 0, pool.getPending());
+        }
+    }
+
+    private int storageActive() {
+        return service.getStorageConnectionPool().getNodePools().values().stream()
+                .mapToInt(BoundedConnectionPool::getActive).sum();
+    }
+
+    private long storageAbandoned() {
+        return service.getStorageConnectionPool().getNodePools().values().stream()
+                .mapToLong(BoundedConnectionPool::getAbandonedCount).sum();
+    }
+}
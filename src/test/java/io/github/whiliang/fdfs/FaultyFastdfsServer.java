@@ -0,0 +1,476 @@
+package io.github.whiliang.fdfs;
+
+import org.csource.common.Base64;
+import org.csource.fastdfs.ProtoCommon;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 测试用的tracker和storage，在回环地址上按FastDFS协议应答，可以让tracker或某个storage出错、挂起或断开连接
+ * <p>
+ * 只有一个组group1，支持上传、appender文件的追加、修改和截断、下载、删除、查询文件信息、设置和读取元数据、active test。
+ * 多个storage依次监听127.0.0.1、127.0.0.2...的同一端口（tracker的fetch all应答中所有节点端口相同），共用文件内容
+ *
+ * @author whiliang
+ */
+class FaultyFastdfsServer implements Closeable {
+
+    static final String GROUP = "group1";
+
+    private static final int HEADER_LEN = 10;
+
+    private static final Base64 BASE64 = new Base64('-', '_', '.', 0);
+
+    /**
+     * 故障类型
+     */
+    enum Fault {
+        /**
+         * 正常应答
+         */
+        NONE,
+        /**
+         * 应答错误码EIO
+         */
+        ERROR,
+        /**
+         * 不应答，直到客户端断开
+         */
+        HANG,
+        /**
+         * 收到请求后立即断开连接
+         */
+        RESET,
+        /**
+         * 执行请求后不返回应答并断开连接，只生效一次，之后恢复为NONE
+         */
+        LOSE_RESPONSE
+    }
+
+    private final ServerSocket tracker;
+
+    private final ServerSocket[] storages;
+
+    private final Map<String, byte[]> files = new ConcurrentHashMap<>();
+
+    private final Set<Socket> sockets = ConcurrentHashMap.newKeySet();
+
+    private final AtomicInteger sequence = new AtomicInteger();
+
+    /**
+     * 各命令收到的请求数
+     */
+    private final Map<Byte, AtomicInteger> requests = new ConcurrentHashMap<>();
+
+    /**
+     * 命令 -> 第几次请求出现的一次性故障
+     */
+    private final Map<Byte, Map.Entry<Integer, Fault>> requestFaults = new ConcurrentHashMap<>();
+
+    private volatile Fault trackerFault = Fault.NONE;
+
+    private final Fault[] storageFaults;
+
+    private volatile boolean closed;
+
+    /**
+     * @param storageCount storage节点数，大于1时需要127.0.0.2等回环地址可用
+     */
+    FaultyFastdfsServer(int storageCount) throws IOException {
+        this.tracker = new ServerSocket(0, 128, InetAddress.getLoopbackAddress());
+        this.storages = new ServerSocket[storageCount];
+        this.storageFaults = new Fault[storageCount];
+        for (int i = 0; i < storageCount; i++) {
+            int port = i == 0 ? 0 : storages[0].getLocalPort();
+            storages[i] = new ServerSocket(port, 128, InetAddress.getByAddress(new byte[]{127, 0, 0, (byte) (i + 1)}));
+            storageFaults[i] = Fault.NONE;
+        }
+        startAcceptor(tracker, -1);
+        for (int i = 0; i < storageCount; i++) {
+            startAcceptor(storages[i], i);
+        }
+    }
+
+    String getTrackerAddress() {
+        return tracker.getInetAddress().getHostAddress() + ":" + tracker.getLocalPort();
+    }
+
+    void setTrackerFault(Fault fault) {
+        this.trackerFault = fault;
+    }
+
+    synchronized void setStorageFault(int index, Fault fault) {
+        storageFaults[index] = fault;
+    }
+
+    private synchronized Fault storageFault(int index) {
+        return storageFaults[index];
+    }
+
+    /**
+     * @param cmd 协议命令，如ProtoCommon.TRACKER_PROTO_CMD_SERVICE_QUERY_UPDATE
+     * @return 收到该命令的次数，包括故障时丢弃的请求
+     */
+    int getRequestCount(byte cmd) {
+        AtomicInteger count = requests.get(cmd);
+        return count == null ? 0 : count.get();
+    }
+
+    /**
+     * @param cmd   协议命令，如ProtoCommon.STORAGE_PROTO_CMD_APPEND_FILE
+     * @param nth   从服务启动起该命令的第几次请求，从1开始
+     * @param fault 只作用于这一次请求的故障，优先于tracker、storage的故障设置
+     */
+    void failRequest(byte cmd, int nth, Fault fault) {
+        requestFaults.put(cmd, new AbstractMap.SimpleImmutableEntry<>(nth, fault));
+    }
+
+    /**
+     * 服务端当前打开的连接数
+     */
+    int getOpenConnections() {
+        return sockets.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        tracker.close();
+        for (ServerSocket storage : storages) {
+            storage.close();
+        }
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+    }
+
+    private void startAcceptor(ServerSocket server, int storageIndex) {
+        Thread acceptor = new Thread(() -> {
+            while (!closed) {
+                try {
+                    Socket socket = server.accept();
+                    socket.setTcpNoDelay(true);
+                    sockets.add(socket);
+                    Thread handler = new Thread(() -> serve(socket, storageIndex), "faulty-fdfs-conn");
+                    handler.setDaemon(true);
+                    handler.start();
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        }, storageIndex < 0 ? "faulty-fdfs-tracker" : "faulty-fdfs-storage-" + storageIndex);
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    private void serve(Socket socket, int storageIndex) {
+        try (Socket s = socket) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+            OutputStream out = s.getOutputStream();
+            byte[] header = new byte[HEADER_LEN];
+            while (!closed) {
+                try {
+                    in.readFully(header);
+                } catch (EOFException e) {
+                    return;
+                }
+                long bodyLen = ProtoCommon.buff2long(header, 0);
+                byte cmd = header[8];
+                if (cmd == ProtoCommon.FDFS_PROTO_CMD_QUIT) {
+                    return;
+                }
+                int count = requests.computeIfAbsent(cmd, key -> new AtomicInteger()).incrementAndGet();
+                /** active test不受故障影响，故障只作用于业务请求 */
+                Fault fault = cmd == ProtoCommon.FDFS_PROTO_CMD_ACTIVE_TEST ? Fault.NONE
+                        : storageIndex < 0 ? trackerFault : storageFault(storageIndex);
+                /** 按请求设置的故障只作用于这一次请求，不改变tracker、storage的故障设置 */
+                Map.Entry<Integer, Fault> requestFault = requestFaults.get(cmd);
+                boolean oneShot = requestFault != null && requestFault.getKey() == count
+                        && requestFaults.remove(cmd, requestFault);
+                if (oneShot) {
+                    fault = requestFault.getValue();
+                }
+                switch (fault) {
+                    case ERROR:
+                        skip(in, bodyLen);
+                        respond(out, (byte) 5, new byte[0]);
+                        continue;
+                    case HANG:
+                        while (in.read() >= 0) {
+                            /** 丢弃请求，直到客户端超时断开 */
+                        }
+                        return;
+                    case RESET:
+                        s.setSoLinger(true, 0);
+                        return;
+                    case LOSE_RESPONSE:
+                        if (storageIndex < 0) {
+                            if (!oneShot) {
+                                trackerFault = Fault.NONE;
+                            }
+                            handleTracker(cmd, bodyLen, in, new ByteArrayOutputStream());
+                        } else {
+                            if (!oneShot) {
+                                setStorageFault(storageIndex, Fault.NONE);
+                            }
+                            handleStorage(storageIndex, cmd, bodyLen, in, new ByteArrayOutputStream());
+                        }
+                        s.setSoLinger(true, 0);
+                        return;
+                    default:
+                }
+                if (storageIndex < 0) {
+                    handleTracker(cmd, bodyLen, in, out);
+                } else {
+                    handleStorage(storageIndex, cmd, bodyLen, in, out);
+                }
+            }
+        } catch (IOException e) {
+            /** 客户端断开 */
+        } finally {
+            sockets.remove(socket);
+        }
+    }
+
+    private void handleTracker(byte cmd, long bodyLen, DataInputStream in, OutputStream out) throws IOException {
+        skip(in, bodyLen);
+        byte[] body;
+        switch (cmd) {
+            case ProtoCommon.TRACKER_PROTO_CMD_SERVICE_QUERY_STORE_WITHOUT_GROUP_ONE:
+            case ProtoCommon.TRACKER_PROTO_CMD_SERVICE_QUERY_STORE_WITH_GROUP_ONE:
+                /** 组名 + ip + 端口 + 存储路径索引 */
+                body = Arrays.copyOf(storageAddress(0), ProtoCommon.TRACKER_QUERY_STORAGE_STORE_BODY_LEN);
+                break;
+            case ProtoCommon.TRACKER_PROTO_CMD_SERVICE_QUERY_STORE_WITHOUT_GROUP_ALL:
+            case ProtoCommon.TRACKER_PROTO_CMD_SERVICE_QUERY_STORE_WITH_GROUP_ALL:
+                /** 组名 + n * (ip + 端口) + 存储路径索引 */
+                body = new byte[ProtoCommon.FDFS_GROUP_NAME_MAX_LEN];
+                System.arraycopy(groupName(), 0, body, 0, body.length);
+                for (int i = 0; i < storages.length; i++) {
+                    byte[] address = storageAddress(i);
+                    int offset = body.length;
+                    body = Arrays.copyOf(body, offset + address.length - ProtoCommon.FDFS_GROUP_NAME_MAX_LEN);
+                    System.arraycopy(address, ProtoCommon.FDFS_GROUP_NAME_MAX_LEN, body, offset,
+                            address.length - ProtoCommon.FDFS_GROUP_NAME_MAX_LEN);
+                }
+                body = Arrays.copyOf(body, body.length + 1);
+                break;
+            case ProtoCommon.TRACKER_PROTO_CMD_SERVICE_QUERY_FETCH_ONE:
+            case ProtoCommon.TRACKER_PROTO_CMD_SERVICE_QUERY_UPDATE:
+                body = storageAddress(0);
+                break;
+            case ProtoCommon.TRACKER_PROTO_CMD_SERVICE_QUERY_FETCH_ALL:
+                /** 组名 + ip + 端口 + 其它节点ip */
+                body = storageAddress(0);
+                for (int i = 1; i < storages.length; i++) {
+                    int offset = body.length;
+                    body = Arrays.copyOf(body, offset + ProtoCommon.FDFS_IPADDR_SIZE - 1);
+                    byte[] ip = storages[i].getInetAddress().getHostAddress().getBytes(StandardCharsets.UTF_8);
+                    System.arraycopy(ip, 0, body, offset, ip.length);
+                }
+                break;
+            case ProtoCommon.FDFS_PROTO_CMD_ACTIVE_TEST:
+                body = new byte[0];
+                break;
+            default:
+                respond(out, (byte) 22, new byte[0]);
+                return;
+        }
+        respond(out, (byte) 0, body);
+    }
+
+    private void handleStorage(int storageIndex, byte cmd, long bodyLen, DataInputStream in, OutputStream out)
+            throws IOException {
+        switch (cmd) {
+            case ProtoCommon.STORAGE_PROTO_CMD_UPLOAD_FILE:
+            case ProtoCommon.STORAGE_PROTO_CMD_UPLOAD_APPENDER_FILE: {
+                /** 存储路径索引 + 文件大小 + 后缀名 + 文件内容 */
+                byte[] prefix = new byte[1 + ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE + ProtoCommon.FDFS_FILE_EXT_NAME_MAX_LEN];
+                in.readFully(prefix);
+                byte[] content = new byte[(int) ProtoCommon.buff2long(prefix, 1)];
+                in.readFully(content);
+                /** 与FastDFS一致，appender文件名中的大小带有appender标记 */
+                String remoteFilename = newRemoteFilename(storageIndex, cmd == ProtoCommon.STORAGE_PROTO_CMD_UPLOAD_APPENDER_FILE
+                        ? content.length | ProtoCommon.APPENDER_FILE_SIZE : content.length);
+                files.put(remoteFilename, content);
+                byte[] name = remoteFilename.getBytes(StandardCharsets.UTF_8);
+                byte[] body = new byte[ProtoCommon.FDFS_GROUP_NAME_MAX_LEN + name.length];
+                System.arraycopy(groupName(), 0, body, 0, ProtoCommon.FDFS_GROUP_NAME_MAX_LEN);
+                System.arraycopy(name, 0, body, ProtoCommon.FDFS_GROUP_NAME_MAX_LEN, name.length);
+                respond(out, (byte) 0, body);
+                return;
+            }
+            case ProtoCommon.STORAGE_PROTO_CMD_DELETE_FILE: {
+                String remoteFilename = readFilename(in, bodyLen);
+                respond(out, files.remove(remoteFilename) == null ? ProtoCommon.ERR_NO_ENOENT : (byte) 0, new byte[0]);
+                return;
+            }
+            case ProtoCommon.STORAGE_PROTO_CMD_DOWNLOAD_FILE: {
+                byte[] range = new byte[2 * ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE];
+                in.readFully(range);
+                byte[] content = files.get(readFilename(in, bodyLen - range.length));
+                if (content == null) {
+                    respond(out, ProtoCommon.ERR_NO_ENOENT, new byte[0]);
+                    return;
+                }
+                int offset = (int) ProtoCommon.buff2long(range, 0);
+                long length = ProtoCommon.buff2long(range, ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE);
+                int count = (int) (length == 0 ? content.length - offset : Math.min(length, content.length - offset));
+                respond(out, (byte) 0, Arrays.copyOfRange(content, offset, offset + count));
+                return;
+            }
+            case ProtoCommon.STORAGE_PROTO_CMD_APPEND_FILE:
+            case ProtoCommon.STORAGE_PROTO_CMD_MODIFY_FILE:
+            case ProtoCommon.STORAGE_PROTO_CMD_TRUNCATE_FILE: {
+                /** 文件名长度 + [偏移量] + 大小 + 文件名 + [文件内容] */
+                boolean modify = cmd == ProtoCommon.STORAGE_PROTO_CMD_MODIFY_FILE;
+                byte[] lens = new byte[(modify ? 3 : 2) * ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE];
+                in.readFully(lens);
+                long size = ProtoCommon.buff2long(lens, lens.length - ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE);
+                byte[] name = new byte[(int) ProtoCommon.buff2long(lens, 0)];
+                in.readFully(name);
+                String remoteFilename = new String(name, StandardCharsets.UTF_8);
+                byte[] data = new byte[cmd == ProtoCommon.STORAGE_PROTO_CMD_TRUNCATE_FILE ? 0 : (int) size];
+                in.readFully(data);
+                byte[] content = files.get(remoteFilename);
+                if (content == null) {
+                    respond(out, ProtoCommon.ERR_NO_ENOENT, new byte[0]);
+                    return;
+                }
+                if (cmd == ProtoCommon.STORAGE_PROTO_CMD_TRUNCATE_FILE) {
+                    content = Arrays.copyOf(content, (int) size);
+                } else {
+                    int offset = modify ? (int) ProtoCommon.buff2long(lens, ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE) : content.length;
+                    content = Arrays.copyOf(content, Math.max(content.length, offset + data.length));
+                    System.arraycopy(data, 0, content, offset, data.length);
+                }
+                files.put(remoteFilename, content);
+                respond(out, (byte) 0, new byte[0]);
+                return;
+            }
+            case ProtoCommon.STORAGE_PROTO_CMD_QUERY_FILE_INFO: {
+                byte[] content = files.get(readFilename(in, bodyLen));
+                if (content == null) {
+                    respond(out, ProtoCommon.ERR_NO_ENOENT, new byte[0]);
+                    return;
+                }
+                /** 文件大小 + 创建时间 + crc32 + 源ip */
+                byte[] body = new byte[3 * ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE + ProtoCommon.FDFS_IPADDR_SIZE];
+                System.arraycopy(ProtoCommon.long2buff(content.length), 0, body, 0, ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE);
+                System.arraycopy(ProtoCommon.long2buff(System.currentTimeMillis() / 1000), 0, body,
+                        ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE, ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE);
+                byte[] ip = storages[storageIndex].getInetAddress().getHostAddress().getBytes(StandardCharsets.UTF_8);
+                System.arraycopy(ip, 0, body, 3 * ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE, ip.length);
+                respond(out, (byte) 0, body);
+                return;
+            }
+            case ProtoCommon.STORAGE_PROTO_CMD_SET_METADATA: {
+                /** 文件名长度 + 元数据长度 + 操作标志 + 组名 + 文件名 + 元数据，只确认文件存在，不保存元数据 */
+                byte[] body = new byte[(int) bodyLen];
+                in.readFully(body);
+                int nameLen = (int) ProtoCommon.buff2long(body, 0);
+                int offset = 2 * ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE + 1 + ProtoCommon.FDFS_GROUP_NAME_MAX_LEN;
+                String remoteFilename = new String(body, offset, nameLen, StandardCharsets.UTF_8);
+                respond(out, files.containsKey(remoteFilename) ? (byte) 0 : ProtoCommon.ERR_NO_ENOENT, new byte[0]);
+                return;
+            }
+            case ProtoCommon.STORAGE_PROTO_CMD_GET_METADATA: {
+                /** 只返回文件大小，按FastDFS元数据格式编码 */
+                byte[] content = files.get(readFilename(in, bodyLen));
+                if (content == null) {
+                    respond(out, ProtoCommon.ERR_NO_ENOENT, new byte[0]);
+                    return;
+                }
+                String metadata = "size" + ProtoCommon.FDFS_FIELD_SEPERATOR + content.length;
+                respond(out, (byte) 0, metadata.getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            case ProtoCommon.FDFS_PROTO_CMD_ACTIVE_TEST:
+                skip(in, bodyLen);
+                respond(out, (byte) 0, new byte[0]);
+                return;
+            default:
+                skip(in, bodyLen);
+                respond(out, (byte) 22, new byte[0]);
+        }
+    }
+
+    private static void respond(OutputStream out, byte status, byte[] body) throws IOException {
+        byte[] header = ProtoCommon.packHeader(ProtoCommon.STORAGE_PROTO_CMD_RESP, body.length, status);
+        byte[] packet = Arrays.copyOf(header, header.length + body.length);
+        System.arraycopy(body, 0, packet, header.length, body.length);
+        out.write(packet);
+    }
+
+    private static String readFilename(DataInputStream in, long bodyLen) throws IOException {
+        /** 组名 + 文件名 */
+        byte[] body = new byte[(int) bodyLen];
+        in.readFully(body);
+        return new String(body, ProtoCommon.FDFS_GROUP_NAME_MAX_LEN, body.length - ProtoCommon.FDFS_GROUP_NAME_MAX_LEN,
+                StandardCharsets.UTF_8);
+    }
+
+    private static void skip(DataInputStream in, long n) throws IOException {
+        while (n > 0) {
+            int skipped = in.skipBytes((int) Math.min(n, Integer.MAX_VALUE));
+            if (skipped <= 0) {
+                throw new EOFException();
+            }
+            n -= skipped;
+        }
+    }
+
+    /**
+     * 组名 + ip + 端口
+     */
+    private byte[] storageAddress(int index) {
+        byte[] body = new byte[ProtoCommon.TRACKER_QUERY_STORAGE_FETCH_BODY_LEN];
+        System.arraycopy(groupName(), 0, body, 0, ProtoCommon.FDFS_GROUP_NAME_MAX_LEN);
+        byte[] ip = storages[index].getInetAddress().getHostAddress().getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(ip, 0, body, ProtoCommon.FDFS_GROUP_NAME_MAX_LEN, ip.length);
+        System.arraycopy(ProtoCommon.long2buff(storages[index].getLocalPort()), 0, body,
+                ProtoCommon.FDFS_GROUP_NAME_MAX_LEN + ProtoCommon.FDFS_IPADDR_SIZE - 1, ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE);
+        return body;
+    }
+
+    /**
+     * @return 与FastDFS格式相同的文件名，包含源storage ip、创建时间和大小，可以按源storage分组
+     */
+    private String newRemoteFilename(int storageIndex, long size) {
+        byte[] buff = new byte[20];
+        System.arraycopy(storages[storageIndex].getInetAddress().getAddress(), 0, buff, 0, 4);
+        int now = (int) (System.currentTimeMillis() / 1000);
+        int seq = sequence.incrementAndGet();
+        for (int i = 0; i < 4; i++) {
+            buff[4 + i] = (byte) (now >>> (24 - 8 * i));
+            buff[16 + i] = (byte) (seq >>> (24 - 8 * i));
+        }
+        System.arraycopy(ProtoCommon.long2buff(size), 0, buff, 8, 8);
+        try {
+            String encoded = BASE64.encode(buff).substring(0, ProtoCommon.FDFS_FILENAME_BASE64_LENGTH);
+            return String.format("M00/00/00/%s%03d.bin", encoded, seq % 1000);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] groupName() {
+        return Arrays.copyOf(GROUP.getBytes(StandardCharsets.UTF_8), ProtoCommon.FDFS_GROUP_NAME_MAX_LEN);
+    }
+}